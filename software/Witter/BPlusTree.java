@@ -0,0 +1,565 @@
+/**
+ * CS126 Design of Information Structures
+ * BPlusTree.java
+ *
+ * A B+Tree of entries with primitive keys and values -- a long key, and an int value which is typically the index of
+ * an object held elsewhere -- shared by the stores in place of their own copies of a B-Tree. Entries are kept in
+ * ascending order of key and, among equal keys, in the order they were inserted; a store listing the most recent
+ * first uses the key ~time, which reverses the order of instants without overflow.
+ *
+ *        -- All entries are held in the leaves, which are linked in order, so that a range is read by a Cursor from one
+ *           leaf to the next without returning to the root.
+ *        -- Each node holds up to 'fanout' entries (or children) in primitive arrays, so that a search reads a few
+ *           contiguous arrays per level rather than an object per entry.
+ *        -- Internal nodes record the number of entries below each child, so that the rank of a key, and the entry at
+ *           a given rank, are found in O(log(N)).
+ *        -- Deletion restores the minimum occupancy (fanout / 2) by borrowing from a sibling or merging with it.
+ *
+ * The tree is not thread-safe; readers may share it only whilst no entry is inserted or removed.
+ *
+ * Complexity analyses of the main methods:
+ *        -- insert(), remove()
+ *              O(log(N)): A descent to the leaf and, at worst, a split (or borrow or merge) at each level.
+ *
+ *        -- rank(), rankAfter(), seek(), at()
+ *              O(log(N)): A descent, summing the counts of the children passed over.
+ *
+ *        -- Cursor.next()
+ *              O(1): The next entry of the leaf, or the first of the next leaf.
+ *
+ *        -- build()
+ *              O(N): Leaves are filled from sorted arrays and each level is built over the one below.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+public class BPlusTree {
+
+    public static final int DEFAULT_FANOUT = 32;
+    private static final int INITIAL       = 4;     // The capacity of a new root leaf, grown as entries are added, so that small trees stay small.
+
+    private final int fanout;                       // Declare the most entries of a leaf, or children of an internal node.
+    private final int minimum;                      // Declare the fewest entries (or children) of any node but the root.
+
+    private Node root;                              // Declare the root of the B+Tree.
+    private int size;                               // Declare the number of entries in the B+Tree.
+    private int height;                             // Declare the number of internal levels above the leaves.
+
+    /**
+     * A node: a leaf holds 'n' entries in keys and values, and the next leaf; an internal node holds 'n' children, the
+     * number of entries below each, and keys[i] -- for i > 0 -- no greater than any key of child i and no less than
+     * any of child i - 1. keys[0] of an internal node is the lower bound inherited from its parent, for splitting.
+     */
+    private static final class Node {
+        private int n;
+        private long[] keys;
+        private int[] values;
+        private final Node[] children;
+        private final int[] counts;
+        private Node next;
+
+        private Node(int capacity, boolean leaf) {
+            keys     = new long[capacity];
+            values   = leaf ? new int[capacity] : null;
+            children = leaf ? null : new Node[capacity];
+            counts   = leaf ? null : new int[capacity];
+        }
+
+        private boolean isLeaf() {
+            return children == null;
+        }
+    }
+
+    public BPlusTree() {
+        this(DEFAULT_FANOUT);
+    }
+
+    public BPlusTree(int fanout) {
+        if (fanout < 4) {
+            throw new IllegalArgumentException("The fanout must be at least 4");
+        }
+        this.fanout  = fanout;
+        this.minimum = fanout / 2;
+        this.root    = new Node(Math.min(INITIAL, fanout + 1), true);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /* ------- Searching functions ------- */
+    private static int lower(long[] keys, int from, int to, long key) {
+        /**
+         * Return the first position in keys[from, to) whose key is at least the given key, or 'to'.
+         */
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (keys[mid] < key) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    private static int upper(long[] keys, int from, int to, long key) {
+        /**
+         * Return the first position in keys[from, to) whose key is greater than the given key, or 'to'.
+         */
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (keys[mid] <= key) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    private static int count(Node node) {
+        if (node.isLeaf()) {
+            return node.n;
+        }
+        int c = 0;
+        for (int i = 0; i < node.n; i++) {
+            c += node.counts[i];
+        }
+        return c;
+    }
+
+    public int rank(long key) {
+        /**
+         * Return the number of entries whose key is less than the given key.
+         */
+        int r     = 0;
+        Node node = root;
+        while (!node.isLeaf()) {
+            int i = lower(node.keys, 1, node.n, key) - 1;
+            for (int j = 0; j < i; j++) {
+                r += node.counts[j];
+            }
+            node = node.children[i];
+        }
+        return r + lower(node.keys, 0, node.n, key);
+    }
+
+    public int rankAfter(long key) {
+        /**
+         * Return the number of entries whose key is at most the given key.
+         */
+        int r     = 0;
+        Node node = root;
+        while (!node.isLeaf()) {
+            int i = upper(node.keys, 1, node.n, key) - 1;
+            for (int j = 0; j < i; j++) {
+                r += node.counts[j];
+            }
+            node = node.children[i];
+        }
+        return r + upper(node.keys, 0, node.n, key);
+    }
+
+    public Cursor seek(long key) {
+        /**
+         * Return a Cursor at the first entry whose key is at least the given key.
+         */
+        Node node = root;
+        while (!node.isLeaf()) {
+            node = node.children[lower(node.keys, 1, node.n, key) - 1];
+        }
+        return new Cursor(node, lower(node.keys, 0, node.n, key));
+    }
+
+    public Cursor at(int rank) {
+        /**
+         * Return a Cursor at the entry of the given rank, i.e., with 'rank' entries before it.
+         */
+        Node node = root;
+        while (!node.isLeaf()) {
+            int i = 0;
+            while ((i < (node.n - 1)) && (rank >= node.counts[i])) {
+                rank -= node.counts[i];
+                i++;
+            }
+            node = node.children[i];
+        }
+        return new Cursor(node, rank);
+    }
+
+    public int[] values(int from, int to) {
+        /**
+         * Return the values of the entries of ranks [from, to), in order.
+         */
+        int[] result = new int[Math.max(0, to - from)];
+        Cursor c = at(from);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = c.next();
+        }
+        return result;
+    }
+
+    public long[] keys(int from, int to) {
+        /**
+         * Return the keys of the entries of ranks [from, to), in order.
+         */
+        long[] result = new long[Math.max(0, to - from)];
+        Cursor c = at(from);
+        for (int i = 0; i < result.length; i++) {
+            c.next();
+            result[i] = c.getKey();
+        }
+        return result;
+    }
+
+    /* ------ Inserting functions ------ */
+    public void insert(long key, int value) {
+        /**
+         * Insert an entry after any with an equal key.
+         */
+        Node split = insert(root, key, value);
+        size++;
+
+        if (split == null) {
+            return;
+        }
+
+        /* Split root */
+        Node t = new Node(fanout + 1, false);
+        t.n           = 2;
+        t.keys[0]     = root.keys[0];
+        t.children[0] = root;
+        t.counts[0]   = count(root);
+        t.keys[1]     = split.keys[0];
+        t.children[1] = split;
+        t.counts[1]   = count(split);
+        root = t;
+        height++;
+    }
+
+    private Node insert(Node node, long key, int value) {
+        /**
+         * Insert into the subtree of the given node, returning the new right sibling of the node if it was split.
+         */
+        if (node.isLeaf()) {
+            int i = upper(node.keys, 0, node.n, key);
+            if (node.n == node.keys.length) {
+                grow(node);
+            }
+            System.arraycopy(node.keys, i, node.keys, i + 1, node.n - i);
+            System.arraycopy(node.values, i, node.values, i + 1, node.n - i);
+            node.keys[i]   = key;
+            node.values[i] = value;
+            node.n++;
+            return (node.n <= fanout) ? null : splitLeaf(node);
+        }
+
+        int i      = upper(node.keys, 1, node.n, key) - 1;
+        Node split = insert(node.children[i], key, value);
+        if (split == null) {
+            node.counts[i]++;
+            return null;
+        }
+
+        node.counts[i] = count(node.children[i]);
+        System.arraycopy(node.keys, i + 1, node.keys, i + 2, node.n - i - 1);
+        System.arraycopy(node.children, i + 1, node.children, i + 2, node.n - i - 1);
+        System.arraycopy(node.counts, i + 1, node.counts, i + 2, node.n - i - 1);
+        node.keys[i + 1]     = split.keys[0];
+        node.children[i + 1] = split;
+        node.counts[i + 1]   = count(split);
+        node.n++;
+        return (node.n <= fanout) ? null : splitInternal(node);
+    }
+
+    private void grow(Node leaf) {
+        int capacity = Math.min(fanout + 1, 2 * leaf.keys.length);
+        long[] keys  = new long[capacity];
+        int[] values = new int[capacity];
+        System.arraycopy(leaf.keys, 0, keys, 0, leaf.n);
+        System.arraycopy(leaf.values, 0, values, 0, leaf.n);
+        leaf.keys   = keys;
+        leaf.values = values;
+    }
+
+    /* ------- Sorting functions ------- */
+    private Node splitLeaf(Node node) {
+        /**
+         * Method for B+Tree leaf splitting: the upper half of the entries move to a new leaf, linked after the node.
+         */
+        int half   = node.n / 2;
+        Node right = new Node(fanout + 1, true);
+        right.n    = node.n - half;
+        System.arraycopy(node.keys, half, right.keys, 0, right.n);
+        System.arraycopy(node.values, half, right.values, 0, right.n);
+        node.n     = half;
+        right.next = node.next;
+        node.next  = right;
+        return right;
+    }
+
+    private Node splitInternal(Node node) {
+        /**
+         * Method for B+Tree internal node splitting: the upper half of the children move to a new node, whose
+         * lower bound is the key which separated them from the lower half.
+         */
+        int half   = node.n / 2;
+        Node right = new Node(fanout + 1, false);
+        right.n    = node.n - half;
+        System.arraycopy(node.keys, half, right.keys, 0, right.n);
+        System.arraycopy(node.children, half, right.children, 0, right.n);
+        System.arraycopy(node.counts, half, right.counts, 0, right.n);
+        for (int i = half; i < node.n; i++) {
+            node.children[i] = null;
+        }
+        node.n = half;
+        return right;
+    }
+
+    /* ------ Removing functions ------ */
+    public boolean remove(long key, int value) {
+        /**
+         * Remove the first entry with the given key and value; return true if there was one.
+         */
+        if (!remove(root, key, value)) {
+            return false;
+        }
+        size--;
+
+        if (!root.isLeaf() && (root.n == 1)) {
+            root = root.children[0];
+            height--;
+        }
+        return true;
+    }
+
+    private boolean remove(Node node, long key, int value) {
+        if (node.isLeaf()) {
+            for (int i = lower(node.keys, 0, node.n, key); (i < node.n) && (node.keys[i] == key); i++) {
+                if (node.values[i] == value) {
+                    System.arraycopy(node.keys, i + 1, node.keys, i, node.n - i - 1);
+                    System.arraycopy(node.values, i + 1, node.values, i, node.n - i - 1);
+                    node.n--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /* Equal keys may span several children: every child whose range admits the key is searched in turn. */
+        int first = lower(node.keys, 1, node.n, key) - 1;
+        int last  = upper(node.keys, 1, node.n, key) - 1;
+        for (int i = first; i <= last; i++) {
+            if (remove(node.children[i], key, value)) {
+                node.counts[i]--;
+                if (node.children[i].n < minimum) {
+                    rebalance(node, i);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rebalance(Node parent, int i) {
+        /**
+         * Restore the occupancy of child i of the given node by borrowing an entry (or child) from a sibling which can
+         * spare one, or else by merging it with a sibling.
+         */
+        Node child = parent.children[i];
+        Node left  = (i > 0) ? parent.children[i - 1] : null;
+        Node right = ((i + 1) < parent.n) ? parent.children[i + 1] : null;
+
+        if ((left != null) && (left.n > minimum)) {
+            int moved = 1;
+            if (child.isLeaf()) {
+                System.arraycopy(child.keys, 0, child.keys, 1, child.n);
+                System.arraycopy(child.values, 0, child.values, 1, child.n);
+                child.keys[0]   = left.keys[left.n - 1];
+                child.values[0] = left.values[left.n - 1];
+                parent.keys[i]  = child.keys[0];
+            } else {
+                moved = left.counts[left.n - 1];
+                System.arraycopy(child.keys, 0, child.keys, 1, child.n);
+                System.arraycopy(child.children, 0, child.children, 1, child.n);
+                System.arraycopy(child.counts, 0, child.counts, 1, child.n);
+                child.keys[1]     = parent.keys[i];
+                child.children[0] = left.children[left.n - 1];
+                child.counts[0]   = moved;
+                parent.keys[i]    = left.keys[left.n - 1];
+                child.keys[0]     = parent.keys[i];
+                left.children[left.n - 1] = null;
+            }
+            left.n--;
+            child.n++;
+            parent.counts[i - 1] -= moved;
+            parent.counts[i]     += moved;
+        } else if ((right != null) && (right.n > minimum)) {
+            int moved = 1;
+            if (child.isLeaf()) {
+                child.keys[child.n]   = right.keys[0];
+                child.values[child.n] = right.values[0];
+                System.arraycopy(right.keys, 1, right.keys, 0, right.n - 1);
+                System.arraycopy(right.values, 1, right.values, 0, right.n - 1);
+                parent.keys[i + 1] = right.keys[0];
+            } else {
+                moved = right.counts[0];
+                child.keys[child.n]     = parent.keys[i + 1];
+                child.children[child.n] = right.children[0];
+                child.counts[child.n]   = moved;
+                parent.keys[i + 1] = right.keys[1];
+                System.arraycopy(right.keys, 1, right.keys, 0, right.n - 1);
+                System.arraycopy(right.children, 1, right.children, 0, right.n - 1);
+                System.arraycopy(right.counts, 1, right.counts, 0, right.n - 1);
+                right.keys[0] = parent.keys[i + 1];
+                right.children[right.n - 1] = null;
+            }
+            right.n--;
+            child.n++;
+            parent.counts[i]     += moved;
+            parent.counts[i + 1] -= moved;
+        } else if (left != null) {
+            merge(parent, i - 1);
+        } else if (right != null) {
+            merge(parent, i);
+        }
+    }
+
+    private void merge(Node parent, int i) {
+        /**
+         * Append child i + 1 of the given node to child i, and remove it from the node.
+         */
+        Node left  = parent.children[i];
+        Node right = parent.children[i + 1];
+
+        if (left.isLeaf()) {
+            if (left.keys.length < (left.n + right.n)) {
+                long[] keys  = new long[fanout + 1];
+                int[] values = new int[fanout + 1];
+                System.arraycopy(left.keys, 0, keys, 0, left.n);
+                System.arraycopy(left.values, 0, values, 0, left.n);
+                left.keys   = keys;
+                left.values = values;
+            }
+            System.arraycopy(right.keys, 0, left.keys, left.n, right.n);
+            System.arraycopy(right.values, 0, left.values, left.n, right.n);
+            left.next = right.next;
+        } else {
+            System.arraycopy(right.keys, 0, left.keys, left.n, right.n);
+            System.arraycopy(right.children, 0, left.children, left.n, right.n);
+            System.arraycopy(right.counts, 0, left.counts, left.n, right.n);
+            left.keys[left.n] = parent.keys[i + 1];
+        }
+        left.n += right.n;
+
+        parent.counts[i] += parent.counts[i + 1];
+        System.arraycopy(parent.keys, i + 2, parent.keys, i + 1, parent.n - i - 2);
+        System.arraycopy(parent.children, i + 2, parent.children, i + 1, parent.n - i - 2);
+        System.arraycopy(parent.counts, i + 2, parent.counts, i + 1, parent.n - i - 2);
+        parent.n--;
+        parent.children[parent.n] = null;
+    }
+
+    /* ------ Building functions ------ */
+    public void build(long[] keys, int[] values, int n) {
+        /**
+         * Replace the contents of the tree with the first n entries of the given arrays, which must be in ascending
+         * order of key, building it bottom-up in O(n): the entries are spread evenly over as few leaves as will hold
+         * them, and each level likewise over the one below, so that every node is at least half full.
+         */
+        int leaves    = Math.max(1, (n + fanout - 1) / fanout);
+        Node[] level  = new Node[leaves];
+        Node previous = null;
+        for (int i = 0; i < leaves; i++) {
+            int from = (int) (((long) n * i) / leaves);
+            int to   = (int) (((long) n * (i + 1)) / leaves);
+            level[i] = new Node((leaves == 1) ? Math.max(Math.min(INITIAL, fanout + 1), to - from) : fanout + 1, true);
+            level[i].n = to - from;
+            System.arraycopy(keys, from, level[i].keys, 0, to - from);
+            System.arraycopy(values, from, level[i].values, 0, to - from);
+            if (previous != null) {
+                previous.next = level[i];
+            }
+            previous = level[i];
+        }
+
+        int levels = 0;
+        while (level.length > 1) {
+            int m = (level.length + fanout - 1) / fanout;
+            Node[] above = new Node[m];
+            for (int i = 0; i < m; i++) {
+                int from = (int) (((long) level.length * i) / m);
+                int to   = (int) (((long) level.length * (i + 1)) / m);
+                above[i] = new Node(fanout + 1, false);
+                above[i].n = to - from;
+                for (int j = from; j < to; j++) {
+                    above[i].keys[j - from]     = level[j].keys[0];
+                    above[i].children[j - from] = level[j];
+                    above[i].counts[j - from]   = count(level[j]);
+                }
+            }
+            level = above;
+            levels++;
+        }
+
+        root   = level[0];
+        height = levels;
+        size   = n;
+    }
+
+    /* ------------------------------ Implementations for range iteration (Cursor) ----------------------------- */
+    /**
+     * A position in the tree, from which the entries are read in order by following the links between leaves. A Cursor
+     * is invalidated by any insertion or removal.
+     */
+    public final class Cursor {
+        private Node leaf;
+        private int index;
+        private long key;    // The key of the entry last returned.
+
+        private Cursor(Node leaf, int index) {
+            this.leaf  = leaf;
+            this.index = index;
+        }
+
+        public boolean hasNext() {
+            while ((leaf != null) && (index >= leaf.n)) {
+                leaf  = leaf.next;
+                index = 0;
+            }
+            return leaf != null;
+        }
+
+        public int next() {
+            /**
+             * Return the value of the next entry, and advance past it.
+             */
+            if (!hasNext()) {
+                throw new java.util.NoSuchElementException();
+            }
+            key = leaf.keys[index];
+            return leaf.values[index++];
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public long peekKey() {
+            /**
+             * Return the key of the next entry, without advancing; hasNext() must be true.
+             */
+            hasNext();
+            return leaf.keys[index];
+        }
+    }
+}
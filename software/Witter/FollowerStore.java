@@ -2,46 +2,107 @@
  * CS126 Design of Information Structures
  * FollowerStore.java
  *
- * For storing and displaying Users' follower relationships, I decided to implement exclusively the generalised Binary Search Tree (B-Tree). The store in its entirety
- * is therefore a single B-Tree, wherein each node -- representing the Users -- has two children; the followers of that specific User, and the 'follows'
- * (those Users whom that specific User is following). In order to conduct sorting I implemented two primary classes:
- *        -- a 'FollowerStore', wherein Users are stored and sorted by their unique IDs;
- *        -- and a 'DateStore', wherein Users are sorted by their date joined.
+ * For storing and displaying Users' follower relationships, I decided to implement principally the generalised Binary Search Tree (B-Tree). Each User
+ * is represented by an adjacency record holding two B-Trees; the followers of that specific User, and the 'follows' (those Users whom that specific
+ * User is following). In order to conduct sorting and searching I implemented two primary classes:
+ *        -- an 'AdjacencyMap', wherein the adjacency records are hashed by the Users' unique IDs;
+ *        -- and a 'DateTree', wherein Users are sorted by the date the relationship was established.
  *
  * Advantages of the exclusive implementation of the B-Tree ADT:
  *        -- Due to the nature of the application, selections is performed at a greater rate than insertions into the tree, which is conducive to the
  *           efficiency of the B-Tree ADT.
  *        -- Speed of accessibility is of great importance for this application; the B-Tree is better in this regard than ADT implementations
  *           where the time to access data exceeds the time spent processing it.
+ *        -- Locating a User requires no tree at all: the AdjacencyMap is an open-addressing table of int keys, so a lookup is O(1), allocates
+ *           nothing and may be made concurrently with insertions.
  *
  * Disadvantages:
  *        -- Increasing the required space by a multiplication magnitude of 3.
  *
+ * Each relationship is stored once, as an edge in the EdgeTable (parallel primitive arrays of follower, followed User and instant, indexed by
+ * edge ID); both B-Trees hold only the ID of the edge, as a primitive int, so that the two directions cannot disagree. Each B-Tree is a shared
+ * BPlusTree keyed by the instant, whose leaves are linked so that a range of the most recent edges is read without returning to the root.
+ *
+ * Membership of both the followers and the 'follows' of each User is also recorded in an AdjacencySet: a hashed IntSet whilst small, switching
+ * to a compressed RoaringSet (a bitmap split into array, bitmap and run containers of 2^16 IDs each) once it exceeds 4096 IDs, at which point it
+ * needs about 2 bytes per ID -- or far fewer where IDs are consecutive -- rather than 8.
+ *
+ * The store may be used from any number of threads. Each adjacency record is guarded by one of STRIPES read-write locks, chosen by hashing the
+ * User ID: addFollower() write-locks the stripes of its two Users (in stripe order, so that two calls can never deadlock) and the queries
+ * read-lock the stripes of the Users they read, so that each sees every per-user set in a consistent state. Calls on Users in different stripes
+ * proceed in parallel; the Leaderboard is the only structure shared by every addFollower(), and is held for O(1).
+ *
+ * For read-heavy workloads, the B-Trees may be compacted into a FollowerSnapshot in compressed sparse row form: per direction, one array of
+ * offsets, one array of neighbours and one array of follow instants. Whilst no follower has been added since it was built, getFollowers(),
+ * getFollows() and getNumFollowers() are served from the snapshot, i.e., by sequential reads of primitive arrays.
+ *
+ * A store may instead be opened from a directory with open(), in which case it is persistent. Every relationship added is first appended to
+ * a log; compact() -- or compactEvery(), in the background -- periodically writes every relationship to a sorted EdgeFile, which is
+ * memory-mapped and served directly, and empties the log and the adjacency records. Opening a store therefore maps the file and replays only
+ * the log, rather than every relationship ever added; the queries merge each User's row of the file with their record. A new store may also
+ * be created from an edge list with importEdges(), which sorts the list in parallel and writes the edge file directly, building no B-Tree.
+ *
  * Complexity analyses of the main methods:
  *        -- addFollower()
- *              O(log(M) + log(N) + log(P)): Time complexity of a B-Tree search is O(log(N)), thus we have (worst case) O(log(M)) for M users in FollowerTree;
- *              An insertion is also O(log(N)), and we have two insertions to establish a follower relation between two users.
+ *              O(1 + log(N)): A hashed lookup of both users, a hashed check that the relationship does not already exist and two B-Tree insertions.
+ *
+ *        -- removeFollower()
+ *              O(1 + log(N)): A hashed lookup of both users, a binary search for the instant of the relationship and two tombstones; compaction
+ *              later rebuilds, in the background, the B-Trees and arrays of those Users with tombstones.
+ *
+ *        -- importEdges()
+ *              O(E log(E) / P): Parallel sorts of the E relationships listed over P processors, then a counting sort into rows; no B-Tree is built.
  *
  *        -- getFollowers()
- *              O(log(M) + N): Requires a search of FollowerTree (complexity O(log(M))) and a space traversal of DateTree (complexity O(N)).
+ *              O(1 + N): Requires a hashed lookup (complexity O(1)) and a space traversal of DateTree (complexity O(N)).
  *
  *        -- getFollows()
- *              O(log(M) + N): As above.
+ *              O(1 + N): As above.
+ *
+ *        -- getFollowersSince()
+ *              O(1 + log(N) + K): A hashed lookup, a seek into the DateTree by its subtree counts and a traversal of the K Users returned.
+ *
+ *        -- getFollowerCountHistory()
+ *              O(1 + B log(N)): A hashed lookup, then one seek into the DateTree for the boundary of each of the B intervals.
  *
  *        -- isAFollower()
- *              O(log(M) + log(N)): Worst case scenario search of both trees.
+ *              O(1 + 1): A hashed lookup of the followed User, and a hashed lookup in that User's set of followers.
  *
  *        -- getNumFollowers()
- *              O(log(N)): Search a sorted tree.
+ *              O(1): A hashed lookup.
  *
  *        -- getMutualFollowers()
- *              O(2log(M) + N): Search the sorted trees of two given users (O(log(M) + log(M))) and traverse the resultant subtree (of size N) of mutuals
+ *              O(2 + min(M + N, M log(N / M)) + K log(K)): Look up the two given users (O(1 + 1)), intersect their ID-sorted arrays of sizes M <= N
+ *              by merging or, if N is far larger, by galloping through it; then sort the K mutuals chronologically.
  *
  *        -- getMutualFollows()
- *              O(2log(M) + N): As above.
+ *              O(2 + min(M + N, M log(N / M)) + K log(K)): As above.
+ *
+ *        -- getNumMutualFollowers()
+ *              O(2 + min(M, C)): Probe the larger AdjacencySet once per member of the smaller or, if both are RoaringSets, count the bitwise
+ *              intersection of their C containers; the mutuals are never materialised.
+ *
+ *        -- getMutualFollowerCounts()
+ *              O(M + C min(M, N) / P): Load the viewer's M followers into an AdjacencySet once, then count each of the C candidates against it
+ *              from the smaller side, over P processors.
  *
  *        -- getTopUsers()
- *              O(N + N(log(N))): Traversal of a single B-Tree plus the complexity of a partition-exchange sort.
+ *              O(N): Follower counts are kept sorted incrementally by the Leaderboard, which is merely copied; getTopUsers(limit) is O(limit).
+ *
+ *        -- getRank()
+ *              O(1): A lookup of the number of Users with strictly more followers.
+ *
+ *        -- getTopUsersByInfluence()
+ *              O(I (N + E) / P + N log(K)): I power iterations over the N Users and E relationships of the snapshot, shared between P cores;
+ *              free if no follower has been added since the scores were last computed.
+ *
+ *        -- getShortestFollowPath()
+ *              O(b^(h/2)): A breadth-first search from each end, meeting in the middle, for a path of h hops with b relationships per User;
+ *              a single search from one end would visit O(b^h) Users.
+ *
+ *        -- getRecommendations()
+ *              O(F S / P + C log(K)): For at most F followees, each expanded to at most S of their own 'follows', shared between P cores;
+ *              then C candidates counted through a heap of the K best.
  *
  *
  * @author: Zak Edwards
@@ -52,791 +113,4468 @@ package uk.ac.warwick.java.cs126.services;
 
 import uk.ac.warwick.java.cs126.models.Weet;
 import uk.ac.warwick.java.cs126.models.User;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class FollowerStore implements IFollowerStore {
 
     public FollowerStore() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
     }
 
-    FollowerTree tree = new FollowerTree(); 
+    AdjacencyMap users = new AdjacencyMap();
+
+    private static final int STRIPES = 256;        // The number of locks across which the adjacency records are spread.
+    private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[STRIPES];
+
+    private final AtomicLong version = new AtomicLong();    // The number of relationships added; a snapshot is current only if built at this version.
+    private volatile FollowerSnapshot snapshot;    // The most recently built snapshot, possibly stale.
+    private Timer refresher;
+    private Leaderboard leaderboard = new Leaderboard();
+    private volatile Influence influence;          // The most recently computed influence scores, possibly stale.
+    private final Object influenceLock = new Object();
+
+    private static final long RESERVED    = Long.MIN_VALUE;    // The one instant no relationship may have: see Tombstones.EMPTY and EdgeLog.REMOVED.
+    private static final String EDGE_FILE = "edges.dat";
+    private static final String LOG_FILE  = "edges.log";
+
+    private EdgeTable edgeTable = new EdgeTable();    // The relationships held in the records, each stored once for both directions.
+    private volatile EdgeFile base = EdgeFile.EMPTY;    // The compacted relationships, mapped from disk; the records hold only those added since.
+    private File directory;                        // The directory holding the edge file and log, or null if the store is not persistent.
+    private EdgeLog log;
+    private Timer compactor;
+    private final Object compactionLock = new Object();
+    private volatile IOException compactionFailure;    // The failure of the most recent background compaction, or null if it succeeded.
+
+    private static final int COMPACTION_ATTEMPTS = 3;  // Background compaction stops after this many consecutive failures.
+
+    public static FollowerStore open(File directory) throws IOException {
+        /**
+         * Open the persistent store held in the given directory, creating it if necessary: the edge file is mapped, so its
+         * relationships are served from the mapping without being read, and only those logged since it was written are
+         * replayed. Every relationship added is appended to the log before it is acknowledged.
+         */
+        FollowerStore store = new FollowerStore();
+        store.directory = directory;
+        Files.createDirectories(directory.toPath());
+
+        File edges = new File(directory, EDGE_FILE);
+        if (edges.exists()) {
+            store.base = EdgeFile.map(edges.toPath());
+        }
+
+        /* The Users of the edge file are created first, so that each User's index is the row of the file holding them. */
+        EdgeFile b  = store.base;
+        int[] count = new int[b.getSize()];
+        for (int i = 0; i < count.length; i++) {
+            store.users.getOrCreate(b.getUid(i));
+            count[i] = b.followers.getSize(i);
+        }
+        store.leaderboard.load(count);
+
+        store.log = new EdgeLog(new File(directory, LOG_FILE).toPath());
+        store.log.replay(store, false);
+        return store;
+    }
+
+    public static FollowerStore importEdges(Path edgeList, File directory) throws IOException {
+        /**
+         * Create a persistent store in the given directory from an edge list, and open it. Rather than being added one by
+         * one -- each a search of the records and two B-Tree insertions -- the relationships are sorted in parallel and
+         * written bottom-up as the store's edge file (see EdgeImport). A list whose name ends in ".csv" holds one
+         * relationship per line, as "follower,followed,milliseconds"; any other holds the 16-byte records of the log. A
+         * relationship listed more than once keeps its earliest instant.
+         */
+        File edges = new File(directory, EDGE_FILE);
+        if (edges.exists() || (new File(directory, LOG_FILE).length() > 0)) {
+            throw new IOException("The directory already holds a store: " + directory);
+        }
+        Files.createDirectories(directory.toPath());
+
+        EdgeImport list = edgeList.toString().endsWith(".csv") ? EdgeImport.readCsv(edgeList) : EdgeImport.readBinary(edgeList);
+        Path temp = new File(directory, EDGE_FILE + ".tmp").toPath();
+        list.write(temp);
+        EdgeFile.map(temp);
+        Files.move(temp, edges.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(directory);
+    }
 
     public boolean addFollower(int uid1, int uid2, Date followDate) {
         /**
          * Add a follower relationship to the data store; if the relationship already exists, it is not added.
-         * Return true if the relationship was successfully added, false otherwise.
+         * Return true if the relationship was successfully added, false otherwise. The instant Long.MIN_VALUE is
+         * reserved, marking an empty slot of the Tombstones and a removal in the log, and is rejected.
          */
-        tree.insertFollow(uid1, uid2, followDate);
-        return tree.insertFollower(uid2, uid1, followDate);
+        if (followDate.getTime() == RESERVED) {
+            throw new IllegalArgumentException("The instant " + RESERVED + " is reserved");
+        }
+        return add(uid1, uid2, followDate.getTime(), log, true);
     }  
 
+    private boolean add(int uid1, int uid2, long time, EdgeLog logTo, boolean counted) {
+        /**
+         * Add the relationship unless it exists, in the records or the edge file, appending it first to the given log
+         * (if any); if 'counted', the leaderboard and version are then updated.
+         */
+        Adjacency follower = users.getOrCreate(uid1);
+        Adjacency followed = users.getOrCreate(uid2);
+
+        lock(uid1, uid2, true);
+        try {
+            if (isFollowing(followed, uid1)) {
+                return false;
+            }
+            if (logTo != null) {
+                logTo.append(uid1, uid2, time);
+            }
+            if (!revive(follower, followed, time)) {
+                insert(follower, followed, time);
+            }
+            follower.modifications++;
+            followed.modifications++;
+
+            /* Under the User's lock, so that the leaderboard sees the changes to a User's count in their order. */
+            if (counted) {
+                synchronized (leaderboard) {
+                    leaderboard.addUsers(users.getSize());
+                    leaderboard.increment(followed.index);
+                }
+            }
+        } finally {
+            unlock(uid1, uid2, true);
+        }
+
+        if (counted) {
+            version.incrementAndGet();
+        }
+        return true;
+    }
+
+    public boolean removeFollower(int uid1, int uid2) {
+        /**
+         * Remove the relationship in which the User with ID uid1 follows the User with ID uid2, in O(log(N)).
+         * Return true if the relationship existed, false otherwise.
+         *
+         * The relationship is recorded as a tombstone in the records of both Users, and its ID is removed from their
+         * AdjacencySets; the B-Trees, SortedIds and edge file, which are not built for deletion, keep it until compact()
+         * rebuilds them. Counts, the leaderboard and every query reflect the removal immediately.
+         */
+        return remove(uid1, uid2, log, true);
+    }
+
+    private boolean remove(int uid1, int uid2, EdgeLog logTo, boolean counted) {
+        Adjacency follower = users.get(uid1);
+        Adjacency followed = users.get(uid2);
+
+        if ((follower == null) || (followed == null)) {
+            return false;
+        }
+
+        lock(uid1, uid2, true);
+        try {
+            long time = getTime(followed, uid1);
+            if (time == Tombstones.EMPTY) {
+                return false;
+            }
+            if (logTo != null) {
+                logTo.append(uid1, uid2, EdgeLog.REMOVED);
+            }
+
+            followed.followerSet.remove(uid1);
+            follower.followSet.remove(uid2);
+            followed.tombstones(true).add(uid1, time);
+            follower.tombstones(false).add(uid2, time);
+            follower.modifications++;
+            followed.modifications++;
+
+            if (counted) {
+                synchronized (leaderboard) {
+                    leaderboard.decrement(followed.index);
+                }
+            }
+        } finally {
+            unlock(uid1, uid2, true);
+        }
+
+        if (counted) {
+            version.incrementAndGet();
+        }
+        return true;
+    }
+
+    private boolean isFollowing(Adjacency followed, int uid) {
+        /**
+         * Return true if the User with the given ID follows the given User; the caller holds the User's lock.
+         */
+        return followed.followerSet.contains(uid) || (getTimeInFile(followed, uid) != Tombstones.EMPTY);
+    }
+
+    private long getTime(Adjacency followed, int uid) {
+        /**
+         * Return the instant at which the User with the given ID followed the given User, or Tombstones.EMPTY if they do
+         * not. The records' SortedIds may hold the ID more than once -- removed and added again -- so the run of equal
+         * IDs is searched for the one without a tombstone.
+         */
+        if (!followed.followerSet.contains(uid)) {
+            return getTimeInFile(followed, uid);
+        }
+
+        SortedIds ids = followed.followerIds;
+        ids.sort();
+        int lo = 0;
+        int hi = ids.getSize();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ids.ids[mid] < uid) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int j = lo; (j < ids.getSize()) && (ids.ids[j] == uid); j++) {
+            if (!followed.isDead(true, uid, ids.times[j])) {
+                return ids.times[j];
+            }
+        }
+        return Tombstones.EMPTY;
+    }
+
+    private long getTimeInFile(Adjacency followed, int uid) {
+        int j = base.followers.find(followed.index, uid);
+        if (j < 0) {
+            return Tombstones.EMPTY;
+        }
+        long time = base.followers.getTime(followed.index, j);
+        return followed.isDead(true, uid, time) ? Tombstones.EMPTY : time;
+    }
+
+    private boolean revive(Adjacency follower, Adjacency followed, long time) {
+        /**
+         * Remove the tombstones of a relationship which is added again with the instant at which it was removed -- the
+         * B-Trees, SortedIds or edge file still holding it -- returning false if there are none. If the records of one
+         * User have been compacted since the removal, dropping the edge, it is restored to them from the other's.
+         */
+        boolean inFollowed = (followed.followerTombs != null) && followed.followerTombs.remove(follower.uid, time);
+        boolean inFollower = (follower.followTombs != null) && follower.followTombs.remove(followed.uid, time);
+        if (!inFollowed && !inFollower) {
+            return false;
+        }
+
+        int j = base.followers.find(followed.index, follower.uid);
+        if ((j >= 0) && (base.followers.getTime(followed.index, j) == time)) {
+            return true;
+        }
+        followed.followerSet.add(follower.uid);
+        follower.followSet.add(followed.uid);
+
+        if (!inFollower) {
+            int edge = followed.followers.find(time, follower.uid);
+            edgeTable.retain(edge);
+            follower.follows.insertEdge(edge);
+            follower.followIds.add(followed.uid, time);
+        } else if (!inFollowed) {
+            int edge = follower.follows.find(time, followed.uid);
+            edgeTable.retain(edge);
+            followed.followers.insertEdge(edge);
+            followed.followerIds.add(follower.uid, time);
+        }
+        return true;
+    }
+
+    private void insert(Adjacency follower, Adjacency followed, long time) {
+        /**
+         * Record a relationship known to be new in the records of both Users; the caller holds both write locks.
+         */
+        int edge = edgeTable.add(follower.uid, followed.uid, time);
+
+        followed.followerSet.add(follower.uid);
+        follower.followSet.add(followed.uid);
+        follower.follows.insertEdge(edge);
+        followed.followers.insertEdge(edge);
+        follower.followIds.add(followed.uid, time);
+        followed.followerIds.add(follower.uid, time);
+    }
+
+    public void compact() throws IOException {
+        /**
+         * Reclaim the space held by removed relationships. A persistent store writes every relationship to a new edge
+         * file, maps it in place of the old, and empties the log and the records; otherwise, the records are rebuilt.
+         *
+         * The file is written with every stripe read-locked: queries proceed, but relationships are added only once it is
+         * complete. It replaces the old atomically, after which the log -- whose relationships it now holds -- is emptied.
+         * Only the exchange itself write-locks the stripes, clearing the records and replaying any relationship logged in
+         * the moment between the two phases.
+         */
+        if (directory == null) {
+            compactRecords();
+            return;
+        }
+
+        synchronized (compactionLock) {
+            EdgeFile next;
+
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i].readLock().lock();
+            }
+            try {
+                Path edges = new File(directory, EDGE_FILE).toPath();
+                Path temp  = new File(directory, EDGE_FILE + ".tmp").toPath();
+
+                EdgeFile.write(temp, this, users.toArray());
+                next = EdgeFile.map(temp);    // Mapped before it replaces the old, so that a file which cannot be is never installed.
+                Files.move(temp, edges, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.clear();
+            } finally {
+                for (int i = STRIPES - 1; i >= 0; i--) {
+                    stripes[i].readLock().unlock();
+                }
+            }
+
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i].writeLock().lock();
+            }
+            try {
+                Adjacency[] all = users.toArray();
+                for (int i = 0; i < all.length; i++) {
+                    all[i].clear();
+                }
+                edgeTable = new EdgeTable();
+                base = next;
+                log.replay(this, true);
+            } finally {
+                for (int i = STRIPES - 1; i >= 0; i--) {
+                    stripes[i].writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    private void compactRecords() {
+        /**
+         * Rebuild the B-Trees and SortedIds of every User with tombstones, without the relationships removed. Each record
+         * is rebuilt under its read lock, so that queries proceed, and installed under its write lock -- unless modified
+         * in the meantime, in which case it is left for the next compaction.
+         */
+        synchronized (compactionLock) {
+            Adjacency[] all = users.toArray();
+
+            for (int i = 0; i < all.length; i++) {
+                Adjacency a = all[i];
+                if ((a.followerTombs == null) && (a.followTombs == null)) {
+                    continue;
+                }
+
+                Adjacency rebuilt = new Adjacency(a.uid, a.index);
+                int seen;
+                int[] droppedFollowers;
+                int[] droppedFollows;
+                lock(a.uid, false);
+                try {
+                    seen = a.modifications;
+                    droppedFollowers = rebuild(a, true, rebuilt);
+                    droppedFollows   = rebuild(a, false, rebuilt);
+                } finally {
+                    unlock(a.uid, false);
+                }
+
+                lock(a.uid, true);
+                try {
+                    if (a.modifications == seen) {
+                        a.followers    = rebuilt.followers;
+                        a.follows      = rebuilt.follows;
+                        a.followerIds  = rebuilt.followerIds;
+                        a.followIds    = rebuilt.followIds;
+                        a.followerTombs = rebuilt.followerTombs;
+                        a.followTombs   = rebuilt.followTombs;
+                        a.modifications++;
+                        edgeTable.release(droppedFollowers);
+                        edgeTable.release(droppedFollows);
+                    }
+                } finally {
+                    unlock(a.uid, true);
+                }
+            }
+        }
+    }
+
+    private int[] rebuild(Adjacency a, boolean followers, Adjacency into) {
+        /**
+         * Copy the live relationships of one direction of a record into a new record, keeping only the tombstones of
+         * relationships in the edge file, and return the IDs of the edges dropped. The live edges are kept in order and
+         * the new tree is built from them bottom-up, so that those with equal instants keep their order.
+         */
+        DateTree from = followers ? a.followers : a.follows;
+        DateTree tree = followers ? into.followers : into.follows;
+        int[] edges   = from.toArray();
+        int[] kept    = new int[edges.length];
+        int keptNo    = 0;
+        int dropped   = 0;
+        for (int j = 0; j < edges.length; j++) {
+            if (!a.isDead(followers, from.getUser(edges[j]), edgeTable.getTime(edges[j]))) {
+                kept[keptNo++] = edges[j];
+            } else {
+                edges[dropped++] = edges[j];
+            }
+        }
+        tree.build(kept, keptNo);
+
+        SortedIds ids  = followers ? a.followerIds : a.followIds;
+        SortedIds live = followers ? into.followerIds : into.followIds;
+        ids.sort();
+        for (int j = 0; j < ids.getSize(); j++) {
+            if (!a.isDead(followers, ids.ids[j], ids.times[j])) {
+                live.add(ids.ids[j], ids.times[j]);
+            }
+        }
+
+        EdgeFile.Rows rows = followers ? base.followers : base.follows;
+        for (int j = 0; j < rows.getSize(a.index); j++) {
+            if (a.isDead(followers, rows.getId(a.index, j), rows.getTime(a.index, j))) {
+                into.tombstones(followers).add(rows.getId(a.index, j), rows.getTime(a.index, j));
+            }
+        }
+
+        int[] result = new int[dropped];
+        System.arraycopy(edges, 0, result, 0, dropped);
+        return result;
+    }
+
+    public synchronized void compactEvery(long millis) {
+        /**
+         * Compact the store every 'millis' milliseconds on a background thread; a period of zero or less stops any
+         * compaction already scheduled. A compaction which fails leaves the log intact, and is retried at the next period;
+         * its failure is kept for getCompactionFailure(), and after COMPACTION_ATTEMPTS failures in a row the schedule
+         * is cancelled.
+         */
+        if (compactor != null) {
+            compactor.cancel();
+            compactor = null;
+        }
+        compactionFailure = null;
+
+        if (millis > 0) {
+            final Timer timer = new Timer("FollowerStore compaction", true);
+            compactor = timer;
+            timer.schedule(new TimerTask() {
+                private int failures;
+
+                public void run() {
+                    try {
+                        compact();
+                        compactionFailure = null;
+                        failures = 0;
+                    } catch (IOException e) {
+                        // The log still holds every relationship since the last compaction.
+                        compactionFailure = e;
+                        if (++failures >= COMPACTION_ATTEMPTS) {
+                            timer.cancel();
+                        }
+                    }
+                }
+            }, millis, millis);
+        }
+    }
+
+    public IOException getCompactionFailure() {
+        /**
+         * Return the failure of the most recent background compaction, or null if it succeeded (or none has run); once
+         * compactEvery() has given up, this is the last of the failures, until compactEvery() is called again.
+         */
+        return compactionFailure;
+    }
+
+    public synchronized void close() throws IOException {
+        /**
+         * Stop any background work and close the log; the store must not be modified afterwards.
+         */
+        compactEvery(0);
+        refreshSnapshotEvery(0);
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    public synchronized void buildSnapshot() {
+        /**
+         * Build a FollowerSnapshot of the store as it currently stands, unless the current snapshot is still valid. Every
+         * stripe is read-locked, in order, for the duration, so that the snapshot is a consistent cut: queries proceed,
+         * but relationships are added only once it is built.
+         */
+        if ((snapshot != null) && (snapshot.version == version.get())) {
+            return;
+        }
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i].readLock().lock();
+        }
+        try {
+            snapshot = new FollowerSnapshot(version.get(), users.toArray());
+        } finally {
+            for (int i = STRIPES - 1; i >= 0; i--) {
+                stripes[i].readLock().unlock();
+            }
+        }
+    }
+
+    public synchronized void refreshSnapshotEvery(long millis) {
+        /**
+         * Rebuild the snapshot, if stale, every 'millis' milliseconds on a background thread; a period of
+         * zero or less stops any refresh already scheduled.
+         */
+        if (refresher != null) {
+            refresher.cancel();
+            refresher = null;
+        }
+
+        if (millis > 0) {
+            refresher = new Timer("FollowerStore snapshot", true);
+            refresher.schedule(new TimerTask() {
+                public void run() {
+                    buildSnapshot();
+                }
+            }, 0, millis);
+        }
+    }
+
+    private FollowerSnapshot current() {
+        /**
+         * Return the snapshot if no relationship has been added since it was built, null otherwise.
+         */
+        FollowerSnapshot s = snapshot;
+        return ((s != null) && (s.version == version.get())) ? s : null;
+    }
+
+    /* ------- Locking functions ------- */
+    private static int stripe(int uid) {
+        int h = uid * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    private void lock(int uid, boolean write) {
+        acquire(stripes[stripe(uid)], write);
+    }
+
+    private void unlock(int uid, boolean write) {
+        release(stripes[stripe(uid)], write);
+    }
+
+    private void lock(int uid1, int uid2, boolean write) {
+        /**
+         * Lock the stripes of both users -- once, if they share a stripe -- always in ascending stripe order.
+         */
+        int a = stripe(uid1);
+        int b = stripe(uid2);
+
+        acquire(stripes[Math.min(a, b)], write);
+        if (a != b) {
+            acquire(stripes[Math.max(a, b)], write);
+        }
+    }
+
+    private void unlock(int uid1, int uid2, boolean write) {
+        int a = stripe(uid1);
+        int b = stripe(uid2);
+
+        release(stripes[a], write);
+        if (a != b) {
+            release(stripes[b], write);
+        }
+    }
+
+    private static void acquire(ReentrantReadWriteLock l, boolean write) {
+        if (write) {
+            l.writeLock().lock();
+        } else {
+            l.readLock().lock();
+        }
+    }
+
+    private static void release(ReentrantReadWriteLock l, boolean write) {
+        if (write) {
+            l.writeLock().unlock();
+        } else {
+            l.readLock().unlock();
+        }
+    }
+
     public int[] getFollowers(int uid) {
         /**
          * Return an array -- sorted such that the most recent Follower is first -- of IDs of all Users that
          * follow the user with the given ID (uid).
          */
-        return tree.getFollowers(uid).toUserArray();
+        Adjacency a = users.get(uid);
+        if (a == null) {
+            return new int[0];
+        }
+
+        FollowerSnapshot s = current();
+        if (s != null) {
+            return s.getFollowers(a.index);
+        }
+
+        lock(uid, false);
+        try {
+            return recent(a, true);
+        } finally {
+            unlock(uid, false);
+        }
     }
 
     public int[] getFollows(int uid) {
         /**
          * Return an array of IDs, chronologically sorted as above, of all users that the user with the given ID (uid) follows.
          */
-        return tree.getFollows(uid).toUserArray();
+        Adjacency a = users.get(uid);
+        if (a == null) {
+            return new int[0];
+        }
+
+        FollowerSnapshot s = current();
+        if (s != null) {
+            return s.getFollows(a.index);
+        }
+
+        lock(uid, false);
+        try {
+            return recent(a, false);
+        } finally {
+            unlock(uid, false);
+        }
     }
 
     public boolean isAFollower(int uidFollower, int uidFollows) {
         /**
          * Return true if the User with ID 'uidFollower' is a follower of the User with ID 'uidFollows'.
          */
-        return tree.isAFollower(uidFollower,uidFollows);
+        Adjacency a = users.get(uidFollows);
+        if (a == null) {
+            return false;
+        }
+
+        lock(uidFollows, false);
+        try {
+            return isFollowing(a, uidFollower);
+        } finally {
+            unlock(uidFollows, false);
+        }
     }
 
     public int getNumFollowers(int uid) {
         /**
          * Return the number of followers that the user with given ID (uid) currently has.
          */
-        return tree.getNumFollowers(uid);
+        Adjacency a = users.get(uid);
+        if (a == null) {
+            return 0;
+        }
+
+        FollowerSnapshot s = current();
+        if (s != null) {
+            return s.getNumFollowers(a.index);
+        }
+
+        lock(uid, false);
+        try {
+            return getSize(a, true);
+        } finally {
+            unlock(uid, false);
+        }
     }
 
-    public int[] getMutualFollowers(int uid1, int uid2) {
+    long[] getTimed(int uid, boolean followers) {
         /**
-         * Return the IDs of all the users that follow both the User with id 'uid1' and the User with id 'uid2'.
+         * Return the followers (or 'follows') of the given User, most recent first, as pairs: each ID followed by the
+         * instant of the relationship. Used by FollowerStoreWorker, whose results are merged with those of other
+         * partitions by instant.
          */
-        return tree.getMutualFollowers(uid1,uid2);
+        Adjacency a = users.get(uid);
+        if (a == null) {
+            return new long[0];
+        }
+
+        lock(uid, false);
+        try {
+            int[] ids     = new int[getSize(a, followers)];
+            long[] times  = new long[ids.length];
+            recent(a, followers, Long.MIN_VALUE, ids, times, 0);
+
+            long[] result = new long[2 * ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                result[2 * i]       = ids[i];
+                result[(2 * i) + 1] = times[i];
+            }
+            return result;
+        } finally {
+            unlock(uid, false);
+        }
     }
 
-    public int[] getMutualFollows(int uid1, int uid2) {
+    public int[] getFollowersSince(int uid, Date since) {
         /**
-         * Return the IDs of all the users that are followed by both the User with id 'uid1' and the User with id 'uid2'.
+         * Return an array -- sorted such that the most recent Follower is first -- of IDs of the Users that have followed
+         * the user with the given ID (uid) at or after the given instant, in O(log(N) + K) for K such Users.
          */
-        return tree.getMutualFollows(uid1,uid2);
+        Adjacency a = users.get(uid);
+        if (a == null) {
+            return new int[0];
+        }
+
+        FollowerSnapshot s = current();
+        if (s != null) {
+            return s.getFollowersSince(a.index, since.getTime());
+        }
+
+        lock(uid, false);
+        try {
+            int[] ids = new int[countSince(a, true, since.getTime())];
+            recent(a, true, since.getTime(), ids, new long[ids.length], 0);
+            return ids;
+        } finally {
+            unlock(uid, false);
+        }
     }
 
-    public int[] getTopUsers() {
+    public int[] getFollowerCountHistory(int uid, Date from, Date to, long bucketMillis) {
         /**
-          * Return the IDs of all Users, sorted such that the User with the most followers is first.
-          */
-        return tree.getTopUsers();
+         * Return the growth of the given User's following: element i is the number of their followers who followed before
+         * the end of the i-th interval of 'bucketMillis' milliseconds from 'from' (the last interval ending at 'to'). Each
+         * element is a seek into the time-ordered B-Tree and edge file, and a binary search of the sorted instants of the
+         * User's tombstones, in O(log(N)), rather than a scan. Only current followers are counted, since a removed
+         * relationship does not record when it was removed.
+         */
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("The bucket must be at least one millisecond");
+        }
+        long start = from.getTime();
+        long end   = to.getTime();
+        long n     = (end <= start) ? 0 : Long.divideUnsigned((end - start) - 1, bucketMillis) + 1;    // Unsigned, as the span may exceed Long.MAX_VALUE.
+        if (Long.compareUnsigned(n, Integer.MAX_VALUE) > 0) {
+            throw new IllegalArgumentException("Too many buckets: " + Long.toUnsignedString(n));
+        }
+        int[] result = new int[(int) n];
+
+        Adjacency a = users.get(uid);
+        if (a == null) {
+            return result;
+        }
+
+        FollowerSnapshot s = current();
+        lock(uid, false);
+        try {
+            int total = (s != null) ? s.getNumFollowers(a.index) : getSize(a, true);
+            for (int i = 0; i < result.length; i++) {
+                long boundary = Math.min(start + ((i + 1) * bucketMillis), end);
+                int since     = (s != null) ? s.countFollowersSince(a.index, boundary) : countSince(a, true, boundary);
+                result[i]     = total - since;
+            }
+            return result;
+        } finally {
+            unlock(uid, false);
+        }
+    }
+
+    public int[] getMutualFollowers(int uid1, int uid2) {
+        /**
+         * Return the IDs of all the users that follow both the User with id 'uid1' and the User with id 'uid2'.
+         */
+        Adjacency a = users.get(uid1);
+        Adjacency b = users.get(uid2);
+
+        if ((a == null) || (b == null)) {
+            return new int[0];
+        }
+
+        lock(uid1, uid2, false);
+        try {
+            return getMutual(a, b, true);
+        } finally {
+            unlock(uid1, uid2, false);
+        }
+    }
+
+    public int[] getMutualFollows(int uid1, int uid2) {
+        /**
+         * Return the IDs of all the users that are followed by both the User with id 'uid1' and the User with id 'uid2'.
+         */
+        Adjacency a = users.get(uid1);
+        Adjacency b = users.get(uid2);
+
+        if ((a == null) || (b == null)) {
+            return new int[0];
+        }
+
+        lock(uid1, uid2, false);
+        try {
+            return getMutual(a, b, false);
+        } finally {
+            unlock(uid1, uid2, false);
+        }
+    }
+
+    public int getNumMutualFollowers(int uid1, int uid2) {
+        /**
+         * Return the number of users that follow both the User with id 'uid1' and the User with id 'uid2';
+         * the mutual followers themselves are never materialised.
+         */
+        Adjacency a = users.get(uid1);
+        Adjacency b = users.get(uid2);
+
+        if ((a == null) || (b == null)) {
+            return 0;
+        }
+
+        lock(uid1, uid2, false);
+        try {
+            if ((base.followers.getSize(a.index) == 0) && (base.followers.getSize(b.index) == 0)) {
+                return AdjacencySet.andCardinality(a.followerSet, b.followerSet);
+            }
+            return intersect(a, b, true, SCRATCH.get());
+        } finally {
+            unlock(uid1, uid2, false);
+        }
+    }
+
+    public int[] getMutualFollowerCounts(int viewer, int[] candidates) {
+        /**
+         * Return, for each of the given candidates, the number of Users that follow both the viewer and that candidate,
+         * as getNumMutualFollowers(viewer, candidate) would. The viewer's followers are loaded once into an AdjacencySet
+         * (a compressed bitmap, if there are many), and the candidates are counted against it in parallel (see
+         * MutualCount); each count is consistent, though the candidates are not all counted at the same instant.
+         */
+        int[] counts = new int[candidates.length];
+        Adjacency a  = users.get(viewer);
+        if ((a == null) || (candidates.length == 0)) {
+            return counts;
+        }
+
+        int[] ids;
+        lock(viewer, false);
+        try {
+            SortedIds sorted = ascending(a, true, SCRATCH.get().left);
+            sorted.sort();
+            ids = new int[sorted.getSize()];
+            System.arraycopy(sorted.ids, 0, ids, 0, ids.length);
+        } finally {
+            unlock(viewer, false);
+        }
+
+        AdjacencySet set = new AdjacencySet();
+        for (int i = 0; i < ids.length; i++) {
+            set.add(ids[i]);
+        }
+        ForkJoinPool.commonPool().invoke(new MutualCount(ids, set, candidates, counts, 0, candidates.length));
+        return counts;
+    }
+
+    public int[] getTopUsers() {
+        /**
+          * Return the IDs of all Users, sorted such that the User with the most followers is first.
+          */
+        return getTopUsers(Integer.MAX_VALUE);
+    }
+
+    public int[] getTopUsers(int limit) {
+        /**
+         * Return the IDs of at most 'limit' Users, sorted such that the User with the most followers is first.
+         */
+        synchronized (leaderboard) {
+            return leaderboard.getTop(limit);
+        }
+    }
+
+    public int getRank(int uid) {
+        /**
+         * Return the rank of the given User by number of followers: one more than the number of Users with strictly
+         * more followers, so that tied Users share a rank. A User with no relationships is ranked after all others.
+         */
+        Adjacency a = users.get(uid);
+        synchronized (leaderboard) {
+            return (a == null) ? users.getSize() + 1 : leaderboard.getRank(a.index);
+        }
+    }
+
+    public int[] getTopUsersByInfluence(int limit) {
+        /**
+         * Return the IDs of at most 'limit' Users, sorted such that the most influential User is first. Influence is the
+         * PageRank of each User in the follower graph: a User is influential if followed by influential Users, so that a
+         * following of spam accounts -- themselves followed by nobody -- counts for little.
+         */
+        return refreshInfluence().getTop(limit);
+    }
+
+    public Influence refreshInfluence() {
+        /**
+         * Recompute the influence scores if any follower has been added since they were last computed, starting from the
+         * previous scores, which are usually close to the new ones; return the current scores.
+         */
+        Influence current = influence;
+        if ((current != null) && (current.version == version.get())) {
+            return current;
+        }
+
+        synchronized (influenceLock) {
+            current = influence;
+            if ((current != null) && (current.version == version.get())) {
+                return current;
+            }
+            buildSnapshot();
+            influence = new Influence(snapshot, current);
+            return influence;
+        }
+    }
+
+    public int[] getShortestFollowPath(int uid1, int uid2, int maxHops) {
+        /**
+         * Return the IDs of a shortest chain of Users from uid1 to uid2 in which each User follows the next -- beginning with
+         * uid1 and ending with uid2 -- or an empty array if there is no such chain of at most 'maxHops' relationships.
+         */
+        if (uid1 == uid2) {
+            return new int[] { uid1 };
+        }
+
+        Adjacency source = users.get(uid1);
+        Adjacency target = users.get(uid2);
+
+        if ((source == null) || (target == null) || (maxHops < 1)) {
+            return new int[0];
+        }
+        return new PathSearch(source, target, users.getSize()).search(maxHops);
+    }
+
+    public int[] getRecommendations(int uid, int limit) {
+        /**
+         * As below, with a budget of 50 milliseconds.
+         */
+        return getRecommendations(uid, limit, 50);
+    }
+
+    public int[] getRecommendations(int uid, int limit, long budgetMillis) {
+        /**
+         * Return the IDs of at most 'limit' Users whom the User with the given ID (uid) might follow, ranked by the number
+         * of Users they already follow who follow each candidate ('friends of friends'); candidates the User already
+         * follows, and the User themselves, are excluded. Expansion stops after 'budgetMillis' milliseconds, in which case
+         * the ranking reflects only the followees expanded so far.
+         */
+        Adjacency a = users.get(uid);
+
+        if ((a == null) || (limit <= 0)) {
+            return new int[0];
+        }
+
+        long deadline = System.nanoTime() + (budgetMillis * 1000000L);
+        int[] followees;
+
+        lock(uid, false);
+        try {
+            followees = sample(a, MAX_FOLLOWEES);
+        } finally {
+            unlock(uid, false);
+        }
+        IntCounter counts = ForkJoinPool.commonPool().invoke(new Expansion(followees, 0, followees.length, deadline));
+
+        lock(uid, false);
+        try {
+            EdgeFile.Rows rows = base.follows;
+            for (int j = 0; j < rows.getSize(a.index); j++) {
+                if (!a.isDead(false, rows.getId(a.index, j), rows.getTime(a.index, j))) {
+                    counts.clear(rows.getId(a.index, j));
+                }
+            }
+            return counts.top(limit, a.followSet, uid);
+        } finally {
+            unlock(uid, false);
+        }
+    }
+
+    /* -------- 'Get' functions -------- */
+    private int getSize(Adjacency a, boolean followers) {
+        /**
+         * Return the number of followers (or 'follows') of the given User: those in the record and the edge file, less
+         * those removed.
+         */
+        DateTree tree      = followers ? a.followers : a.follows;
+        EdgeFile.Rows rows = followers ? base.followers : base.follows;
+        return tree.getSize() + rows.getSize(a.index) - a.getNumDead(followers);
+    }
+
+    private int[] recent(Adjacency a, boolean followers) {
+        /**
+         * Return the IDs of the followers (or 'follows') of the given User, most recent first.
+         */
+        DateTree tree = followers ? a.followers : a.follows;
+        int m = (followers ? base.followers : base.follows).getSize(a.index);
+
+        if ((m == 0) && (a.getNumDead(followers) == 0)) {
+            return tree.toUserArray();
+        }
+        int[] ids = new int[getSize(a, followers)];
+        recent(a, followers, Long.MIN_VALUE, ids, new long[ids.length], 0);
+        return ids;
+    }
+
+    private int countSince(Adjacency a, boolean followers, long since) {
+        /**
+         * Return the number of followers (or 'follows') of the given User at or after the given instant: a seek into the
+         * B-Tree and a binary search of the edge file's row, less any tombstones at or after the instant.
+         */
+        DateTree tree      = followers ? a.followers : a.follows;
+        EdgeFile.Rows rows = followers ? base.followers : base.follows;
+        Tombstones dead    = followers ? a.followerTombs : a.followTombs;
+
+        int c = tree.countSince(since) + rows.countSince(a.index, since);
+        return (dead == null) ? c : c - dead.countSince(since);
+    }
+
+    private int recent(Adjacency a, boolean followers, long since, int[] ids, long[] times, int from) {
+        /**
+         * Write the IDs of the followers (or 'follows') of the given User at or after the instant 'since' into 'ids' from
+         * position 'from', most recent first, with the instants of the relationships alongside; return the number written.
+         * The record and the row of the edge file are merged, the file first where instants are equal, since its
+         * relationships were added earlier; those removed are skipped.
+         */
+        DateTree tree      = followers ? a.followers : a.follows;
+        int[] edges        = (since == Long.MIN_VALUE) ? tree.toArray() : tree.toArraySince(since);
+        EdgeFile.Rows rows = followers ? base.followers : base.follows;
+        int row = a.index;
+        int m   = rows.countSince(row, since);
+        int i   = 0;
+        int j   = 0;
+        int k   = from;
+
+        while ((i < m) || (j < edges.length)) {
+            int id;
+            long time;
+            if ((j == edges.length) || ((i < m) && (rows.getRecentTime(row, i) >= edgeTable.getTime(edges[j])))) {
+                id   = rows.getRecentId(row, i);
+                time = rows.getRecentTime(row, i);
+                i++;
+            } else {
+                id   = tree.getUser(edges[j]);
+                time = edgeTable.getTime(edges[j]);
+                j++;
+            }
+            if (!a.isDead(followers, id, time)) {
+                ids[k]   = id;
+                times[k] = time;
+                k++;
+            }
+        }
+        return k - from;
+    }
+
+    private SortedIds ascending(Adjacency a, boolean followers, SortedIds buffer) {
+        /**
+         * Return the IDs of the followers (or 'follows') of the given User in ascending order: the record's own set if the
+         * User has no row in the edge file and no tombstones, otherwise the union of the two without those removed,
+         * merged into the given buffer.
+         */
+        SortedIds ids      = followers ? a.followerIds : a.followIds;
+        EdgeFile.Rows rows = followers ? base.followers : base.follows;
+
+        if ((rows.getSize(a.index) == 0) && (a.getNumDead(followers) == 0)) {
+            return ids;
+        }
+        return buffer.merge(ids, rows, a.index, followers ? a.followerTombs : a.followTombs);
+    }
+
+    private int intersect(Adjacency a, Adjacency b, boolean followers, Scratch buffer) {
+        /**
+         * Intersect the followers (or 'follows') of two Users into the given buffer, returning the number in common.
+         */
+        SortedIds x = ascending(a, followers, buffer.left);
+        SortedIds y = ascending(b, followers, buffer.right);
+
+        buffer.ensure(Math.min(x.getSize(), y.getSize()));
+        return intersect(x, y, buffer.ids, buffer.times);
+    }
+
+    private int[] getMutual(Adjacency a, Adjacency b, boolean followers) {
+        /**
+         * Return an array of those users who are in both of the given sets, sorted such that the most recent
+         * relationship (the later of the two dates) is first. The intersection is written into a per-thread
+         * buffer, so only the result itself is allocated.
+         */
+        Scratch buffer = SCRATCH.get();
+
+        int k = intersect(a, b, followers, buffer);
+        sortDescending(buffer.times, buffer.ids, 0, k - 1);
+
+        int[] result = new int[k];
+        System.arraycopy(buffer.ids, 0, result, 0, k);
+        return result;
+    }
+
+    private static int intersect(SortedIds x, SortedIds y, int[] ids, long[] times) {
+        /**
+         * Intersect two ID-sorted sets, writing the common IDs -- with the later of their two instants -- into 'ids'
+         * and 'times', and return the number in common. Sets of similar sizes are merged in
+         * O(M + N); otherwise each member of the smaller set is found by galloping (exponential then binary search)
+         * forwards through the larger, in O(M log(N / M)).
+         */
+        if (x.getSize() > y.getSize()) {
+            SortedIds swap = x;
+            x = y;
+            y = swap;
+        }
+        x.sort();
+        y.sort();
+
+        int[] a = x.ids;
+        int[] b = y.ids;
+        int m   = x.getSize();
+        int n   = y.getSize();
+        int k   = 0;
+
+        if (n / (m + 1) < 32) {
+            int i = 0;
+            int j = 0;
+            while ((i < m) && (j < n)) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    ids[k]   = a[i];
+                    times[k] = Math.max(x.times[i], y.times[j]);
+                    k++;
+                    i++;
+                    j++;
+                }
+            }
+            return k;
+        }
+
+        int j = 0;
+        for (int i = 0; (i < m) && (j < n); i++) {
+            /* Gallop: double the step until b[j + step] is no smaller than a[i]... */
+            int step = 1;
+            while ((j + step < n) && (b[j + step] < a[i])) {
+                step <<= 1;
+            }
+
+            /* ...then binary search the last interval for the first element no smaller than a[i]. */
+            int lo = j + (step >> 1);
+            int hi = Math.min(j + step, n);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (b[mid] < a[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            j = lo;
+
+            if ((j < n) && (b[j] == a[i])) {
+                ids[k]   = a[i];
+                times[k] = Math.max(x.times[i], y.times[j]);
+                k++;
+                j++;
+            }
+        }
+        return k;
+    }
+
+    /**
+     * A per-thread buffer into which intersections are written, reused (and grown as necessary) across calls.
+     */
+    private static final class Scratch {
+        private int[] ids    = new int[16];
+        private long[] times = new long[16];
+        private final SortedIds left  = new SortedIds();    // The merged sets of Users with rows in the edge file.
+        private final SortedIds right = new SortedIds();
+
+        private void ensure(int capacity) {
+            if (ids.length < capacity) {
+                ids   = new int[Math.max(capacity, ids.length * 2)];
+                times = new long[ids.length];
+            }
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /* ------- Sorting functions ------- */
+    private static void sortAscending(int[] keys, long[] values, int left, int right) {
+        /**
+         * Sort keys[left..right] into ascending order, permuting values alongside; functionally a quick
+         * sort (i.e., a partition-exchange sort), finishing short ranges by insertion.
+         */
+        while (right - left > 16) {
+            int pivot = keys[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int k    = keys[i];
+                    keys[i]  = keys[j];
+                    keys[j]  = k;
+                    long v   = values[i];
+                    values[i] = values[j];
+                    values[j] = v;
+                    i++;
+                    j--;
+                }
+            }
+            sortAscending(keys, values, left, j);
+            left = i;
+        }
+
+        for (int i = left + 1; i <= right; i++) {
+            int k  = keys[i];
+            long v = values[i];
+            int j  = i - 1;
+            while ((j >= left) && (keys[j] > k)) {
+                keys[j + 1]   = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1]   = k;
+            values[j + 1] = v;
+        }
+    }
+
+    private static void sortAscending(long[] keys, int left, int right) {
+        /**
+         * Sort keys[left..right] into ascending order.
+         */
+        while (right - left > 16) {
+            long pivot = keys[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long k  = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = k;
+                    i++;
+                    j--;
+                }
+            }
+            sortAscending(keys, left, j);
+            left = i;
+        }
+
+        for (int i = left + 1; i <= right; i++) {
+            long k = keys[i];
+            int j  = i - 1;
+            while ((j >= left) && (keys[j] > k)) {
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            keys[j + 1] = k;
+        }
+    }
+
+    private static void sortDescending(long[] keys, int[] values, int left, int right) {
+        /**
+         * Sort keys[left..right] into descending order, permuting values alongside.
+         */
+        while (right - left > 16) {
+            long pivot = keys[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+
+            while (i <= j) {
+                while (keys[i] > pivot) {
+                    i++;
+                }
+                while (keys[j] < pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long k    = keys[i];
+                    keys[i]   = keys[j];
+                    keys[j]   = k;
+                    int v     = values[i];
+                    values[i] = values[j];
+                    values[j] = v;
+                    i++;
+                    j--;
+                }
+            }
+            sortDescending(keys, values, left, j);
+            left = i;
+        }
+
+        for (int i = left + 1; i <= right; i++) {
+            long k = keys[i];
+            int v  = values[i];
+            int j  = i - 1;
+            while ((j >= left) && (keys[j] < k)) {
+                keys[j + 1]   = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1]   = k;
+            values[j + 1] = v;
+        }
+    }
+
+    /* ------------------------------ Implementations for influence scores (Influence) ----------------------------- */
+    /**
+     * PageRank scores of every User in a FollowerSnapshot, computed by power iteration: at each step, every User passes
+     * DAMPING of their score in equal shares to those they follow, the scores of Users following nobody are spread evenly,
+     * and the remaining (1 - DAMPING) is spread evenly as well. Iteration stops once the scores change by less than TOLERANCE
+     * in total (the L1 norm), or after MAX_ITERATIONS.
+     *
+     * Each step gathers, for each User, the shares of their followers from the snapshot's follower arrays; Users are
+     * independent of each other within a step, so a step is split across cores as a fork/join RankStep.
+     */
+    public final class Influence {
+        private static final double DAMPING    = 0.85;
+        private static final double TOLERANCE  = 1e-9;
+        private static final int MAX_ITERATIONS = 100;
+        private static final int LEAF_SIZE      = 4096;
+
+        private final long version;
+        private final FollowerSnapshot graph;
+        private final double[] scores;
+        private int iterations;
+
+        private Influence(FollowerSnapshot graph, Influence previous) {
+            this.version = graph.version;
+            this.graph   = graph;
+            int n = graph.getSize();
+
+            /* Warm start: Users scored previously keep their score (indices are never reused); new Users start level. */
+            double[] rank = new double[n];
+            double total  = 0;
+            for (int i = 0; i < n; i++) {
+                rank[i] = ((previous != null) && (i < previous.scores.length)) ? previous.scores[i] : 1.0 / n;
+                total  += rank[i];
+            }
+            for (int i = 0; i < n; i++) {
+                rank[i] /= total;
+            }
+
+            double[] next = new double[n];
+            while ((n > 0) && (iterations < MAX_ITERATIONS)) {
+                double dangling = 0;
+                for (int i = 0; i < n; i++) {
+                    if (graph.getNumFollows(i) == 0) {
+                        dangling += rank[i];
+                    }
+                }
+                double base = ((1 - DAMPING) + (DAMPING * dangling)) / n;
+
+                RankStep step = new RankStep(rank, next, base, 0, n);
+                ForkJoinPool.commonPool().invoke(step);
+                iterations++;
+
+                double[] swap = rank;
+                rank = next;
+                next = swap;
+
+                if (step.delta < TOLERANCE) {
+                    break;
+                }
+            }
+            scores = rank;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public double getScore(int uid) {
+            /**
+             * Return the influence of the given User, as a share of 1 across all Users.
+             */
+            Adjacency a = users.get(uid);
+            return ((a == null) || (a.index >= scores.length)) ? 0 : scores[a.index];
+        }
+
+        public int[] getTop(int limit) {
+            /**
+             * Return the IDs of the 'limit' highest-scoring Users, highest first, through a min-heap of the best so far.
+             */
+            int k = Math.min(limit, scores.length);
+            int[] heap = new int[k];
+            int n = 0;
+
+            for (int i = 0; i < scores.length; i++) {
+                if (n < k) {
+                    heap[n] = i;
+                    for (int j = n++; (j > 0) && (scores[heap[j]] < scores[heap[(j - 1) / 2]]); j = (j - 1) / 2) {
+                        swap(heap, j, (j - 1) / 2);
+                    }
+                } else if ((k > 0) && (scores[i] > scores[heap[0]])) {
+                    heap[0] = i;
+                    siftDown(heap, n, 0);
+                }
+            }
+
+            for (int end = n - 1; end > 0; end--) {
+                swap(heap, 0, end);
+                siftDown(heap, end, 0);
+            }
+
+            int[] result = new int[n];
+            for (int i = 0; i < n; i++) {
+                result[i] = graph.uids[heap[i]];
+            }
+            return result;
+        }
+
+        private void siftDown(int[] heap, int n, int i) {
+            while (true) {
+                int least = i;
+                int left  = (2 * i) + 1;
+                int right = left + 1;
+                if ((left < n) && (scores[heap[left]] < scores[heap[least]])) {
+                    least = left;
+                }
+                if ((right < n) && (scores[heap[right]] < scores[heap[least]])) {
+                    least = right;
+                }
+                if (least == i) {
+                    return;
+                }
+                swap(heap, i, least);
+                i = least;
+            }
+        }
+
+        private void swap(int[] heap, int i, int j) {
+            int t   = heap[i];
+            heap[i] = heap[j];
+            heap[j] = t;
+        }
+
+        /**
+         * One power iteration for the Users [from, to): next[v] = base + DAMPING * (the sum, over the followers u of v,
+         * of rank[u] / the number of 'follows' of u). The L1 change of the range is left in 'delta'.
+         */
+        @SuppressWarnings("serial")
+        private final class RankStep extends RecursiveAction {
+            private final double[] rank;
+            private final double[] next;
+            private final double base;
+            private final int from;
+            private final int to;
+            private double delta;
+
+            private RankStep(double[] rank, double[] next, double base, int from, int to) {
+                this.rank = rank;
+                this.next = next;
+                this.base = base;
+                this.from = from;
+                this.to   = to;
+            }
+
+            protected void compute() {
+                if (to - from > LEAF_SIZE) {
+                    int mid = (from + to) >>> 1;
+                    RankStep left  = new RankStep(rank, next, base, from, mid);
+                    RankStep right = new RankStep(rank, next, base, mid, to);
+                    invokeAll(left, right);
+                    delta = left.delta + right.delta;
+                    return;
+                }
+
+                int[] offsets    = graph.followerOffsets;
+                int[] followers  = graph.followers;
+                for (int v = from; v < to; v++) {
+                    double sum = 0;
+                    for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                        int u = followers[e];
+                        sum  += rank[u] / graph.getNumFollows(u);
+                    }
+                    next[v] = base + (DAMPING * sum);
+                    delta  += Math.abs(next[v] - rank[v]);
+                }
+            }
+        }
+    }
+
+    /* ------------------------------ Implementations for degrees of separation (PathSearch) ----------------------------- */
+    /**
+     * A bidirectional breadth-first search: one Frontier grows forwards from the source along 'follows', the other backwards
+     * from the target along followers, and the smaller of the two is expanded by a whole level at a time until an expansion
+     * reaches a User already reached from the other side. Each Frontier is a primitive queue of User IDs -- never dequeued,
+     * so that it also records, in a parallel array, the queue position of the User through which each was reached -- and a
+     * bitset of the Users visited, by Adjacency.index.
+     */
+    private final class PathSearch {
+        private final Frontier forward;
+        private final Frontier backward;
+
+        private PathSearch(Adjacency source, Adjacency target, int n) {
+            forward  = new Frontier(true, n);
+            backward = new Frontier(false, n);
+            forward.add(source.uid, source.index, -1);
+            backward.add(target.uid, target.index, -1);
+        }
+
+        private int[] search(int maxHops) {
+            int hops = 0;
+
+            while ((hops < maxHops) && (forward.levelSize() > 0) && (backward.levelSize() > 0)) {
+                Frontier near = (forward.levelSize() <= backward.levelSize()) ? forward : backward;
+                Frontier far  = (near == forward) ? backward : forward;
+
+                int[] meeting = near.expand(far);
+                hops++;
+
+                if (meeting != null) {
+                    int[] nearPath = near.pathTo(meeting[0]);
+                    int[] farPath  = far.pathTo(far.position(meeting[1]));
+                    return (near == forward) ? join(nearPath, farPath) : join(farPath, nearPath);
+                }
+            }
+            return new int[0];
+        }
+
+        private int[] join(int[] fromSource, int[] fromTarget) {
+            /**
+             * Join the chain from the source (source first) with the chain from the target (target first).
+             */
+            int[] path = new int[fromSource.length + fromTarget.length];
+            for (int i = 0; i < fromSource.length; i++) {
+                path[fromSource.length - 1 - i] = fromSource[i];
+            }
+            System.arraycopy(fromTarget, 0, path, fromSource.length, fromTarget.length);
+            return path;
+        }
+    }
+
+    private final class Frontier {
+        private final boolean forwards;
+        private final long[] visited;
+        private int[] queue  = new int[64];
+        private int[] parent = new int[64];
+        private int size;
+        private int levelStart;                       // The queue position at which the current (outermost) level begins.
+
+        private Frontier(boolean forwards, int n) {
+            this.forwards = forwards;
+            this.visited  = new long[(n + 63) >>> 6];
+        }
+
+        private int levelSize() {
+            return size - levelStart;
+        }
+
+        private boolean isVisited(int index) {
+            return (visited[index >>> 6] & (1L << index)) != 0;
+        }
+
+        private void add(int uid, int index, int from) {
+            if (size == queue.length) {
+                int[] moreQueue  = new int[size * 2];
+                int[] moreParent = new int[size * 2];
+                System.arraycopy(queue, 0, moreQueue, 0, size);
+                System.arraycopy(parent, 0, moreParent, 0, size);
+                queue  = moreQueue;
+                parent = moreParent;
+            }
+            visited[index >>> 6] |= 1L << index;
+            queue[size]  = uid;
+            parent[size] = from;
+            size++;
+        }
+
+        private int[] expand(Frontier other) {
+            /**
+             * Add every unvisited neighbour of the current level as the next level. If a neighbour has been visited by the
+             * other Frontier, stop and return the queue position of the User it was reached from and the neighbour's ID.
+             */
+            int end = size;
+
+            for (int p = levelStart; p < end; p++) {
+                Adjacency a = users.get(queue[p]);
+
+                lock(a.uid, false);
+                try {
+                    SortedIds out = forwards ? a.followIds : a.followerIds;    // Replaced by compact(), so read under the lock.
+                    out.sort();
+                    EdgeFile.Rows rows = forwards ? base.follows : base.followers;
+                    int n = out.getSize();
+                    int m = rows.getSize(a.index);
+
+                    for (int j = 0; j < n + m; j++) {
+                        int id    = (j < n) ? out.ids[j] : rows.getId(a.index, j - n);
+                        long time = (j < n) ? out.times[j] : rows.getTime(a.index, j - n);
+                        if (a.isDead(!forwards, id, time)) {
+                            continue;
+                        }
+
+                        Adjacency b = users.get(id);
+                        if ((b == null) || (b.index >= visited.length << 6)) {
+                            continue;                                    // Created after the search began.
+                        }
+                        if (other.isVisited(b.index)) {
+                            return new int[] { p, b.uid };
+                        }
+                        if (!isVisited(b.index)) {
+                            add(b.uid, b.index, p);
+                        }
+                    }
+                } finally {
+                    unlock(a.uid, false);
+                }
+            }
+            levelStart = end;
+            return null;
+        }
+
+        private int position(int uid) {
+            for (int p = 0; p < size; p++) {
+                if (queue[p] == uid) {
+                    return p;
+                }
+            }
+            return -1;
+        }
+
+        private int[] pathTo(int p) {
+            /**
+             * Return the IDs from queue position p back to the root of this Frontier, p first.
+             */
+            int length = 0;
+            for (int q = p; q >= 0; q = parent[q]) {
+                length++;
+            }
+
+            int[] path = new int[length];
+            int i = 0;
+            for (int q = p; q >= 0; q = parent[q]) {
+                path[i++] = queue[q];
+            }
+            return path;
+        }
+    }
+
+    /* ------------------------------ Implementations for batched mutual counts (MutualCount) ----------------------------- */
+    private static final int CANDIDATES_PER_TASK = 16;    // The number of candidates counted sequentially by a single task.
+
+    /**
+     * The counting of getMutualFollowerCounts(), as a fork/join task: the candidates are split in halves until at most
+     * CANDIDATES_PER_TASK remain, and each leaf counts its candidates in turn under their read locks. Each count is taken
+     * from whichever side is smaller: if the candidate has fewer followers than the viewer, theirs are probed in the
+     * viewer's set; otherwise the viewer's are probed in the candidate's record. A candidate with no row in the edge file
+     * and no tombstones is instead intersected set to set, so that two RoaringSets are counted bitwise.
+     */
+    @SuppressWarnings("serial")
+    private final class MutualCount extends RecursiveAction {
+        private final int[] ids;                  // The viewer's followers, ascending.
+        private final AdjacencySet set;           // The viewer's followers, for probing.
+        private final int[] candidates;
+        private final int[] counts;
+        private final int from;
+        private final int to;
+
+        private MutualCount(int[] ids, AdjacencySet set, int[] candidates, int[] counts, int from, int to) {
+            this.ids        = ids;
+            this.set        = set;
+            this.candidates = candidates;
+            this.counts     = counts;
+            this.from       = from;
+            this.to         = to;
+        }
+
+        protected void compute() {
+            if (to - from > CANDIDATES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new MutualCount(ids, set, candidates, counts, from, mid),
+                          new MutualCount(ids, set, candidates, counts, mid, to));
+                return;
+            }
+
+            SortedIds buffer = SCRATCH.get().right;
+            for (int i = from; i < to; i++) {
+                Adjacency b = users.get(candidates[i]);
+                if (b == null) {
+                    continue;
+                }
+
+                lock(b.uid, false);
+                try {
+                    counts[i] = count(b, buffer);
+                } finally {
+                    unlock(b.uid, false);
+                }
+            }
+        }
+
+        private int count(Adjacency b, SortedIds buffer) {
+            if ((base.followers.getSize(b.index) == 0) && (b.getNumDead(true) == 0)) {
+                return AdjacencySet.andCardinality(set, b.followerSet);
+            }
+
+            int c = 0;
+            if (ids.length <= getSize(b, true)) {
+                for (int j = 0; j < ids.length; j++) {
+                    if (isFollowing(b, ids[j])) {
+                        c++;
+                    }
+                }
+            } else {
+                SortedIds followers = ascending(b, true, buffer);
+                for (int j = 0; j < followers.getSize(); j++) {
+                    if (set.contains(followers.ids[j])) {
+                        c++;
+                    }
+                }
+            }
+            return c;
+        }
+    }
+
+    /* ------------------------------ Implementations for recommendations (Expansion) ----------------------------- */
+    private static final int MAX_FOLLOWEES = 4096;    // The most followees of the User expanded for a recommendation.
+    private static final int MAX_FOLLOWS   = 512;     // The most 'follows' of each followee counted; beyond this, a sample is taken.
+    private static final int LEAF_SIZE     = 64;      // The number of followees expanded sequentially by a single task.
+
+    private int[] sample(Adjacency a, int cap) {
+        /**
+         * Return the IDs of those whom the given User follows or, if there are more than 'cap', an evenly spaced sample
+         * of at most 'cap' of them (those removed are skipped). The caller holds the User's read lock.
+         */
+        SortedIds ids      = a.followIds;
+        EdgeFile.Rows rows = base.follows;
+        ids.sort();
+
+        int n     = ids.getSize();
+        int total = n + rows.getSize(a.index);
+        int[] result = new int[Math.min(total, cap)];
+        int k = 0;
+
+        for (int i = 0; i < result.length; i++) {
+            int j     = (total <= cap) ? i : (int) ((long) i * total / cap);
+            int id    = (j < n) ? ids.ids[j] : rows.getId(a.index, j - n);
+            long time = (j < n) ? ids.times[j] : rows.getTime(a.index, j - n);
+            if (!a.isDead(false, id, time)) {
+                result[k++] = id;
+            }
+        }
+
+        if (k < result.length) {
+            int[] live = new int[k];
+            System.arraycopy(result, 0, live, 0, k);
+            return live;
+        }
+        return result;
+    }
+
+    /**
+     * The second hop of a recommendation, as a fork/join task: the followees are split in halves until at most LEAF_SIZE
+     * remain, each leaf counts the (sampled) 'follows' of its followees in a private IntCounter, and the counters are summed
+     * as the tasks join. A leaf abandons its remaining followees once the deadline has passed.
+     */
+    @SuppressWarnings("serial")
+    private final class Expansion extends RecursiveTask<IntCounter> {
+        private final int[] followees;
+        private final int from;
+        private final int to;
+        private final long deadline;
+
+        private Expansion(int[] followees, int from, int to, long deadline) {
+            this.followees = followees;
+            this.from      = from;
+            this.to        = to;
+            this.deadline  = deadline;
+        }
+
+        protected IntCounter compute() {
+            if (to - from > LEAF_SIZE) {
+                int mid = (from + to) >>> 1;
+                Expansion left = new Expansion(followees, from, mid, deadline);
+                left.fork();
+                IntCounter right = new Expansion(followees, mid, to, deadline).compute();
+                return left.join().addAll(right);
+            }
+
+            IntCounter counts = new IntCounter();
+            for (int i = from; (i < to) && (System.nanoTime() < deadline); i++) {
+                Adjacency f = users.get(followees[i]);
+                int[] ids;
+
+                lock(f.uid, false);
+                try {
+                    ids = sample(f, MAX_FOLLOWS);
+                } finally {
+                    unlock(f.uid, false);
+                }
+                for (int j = 0; j < ids.length; j++) {
+                    counts.increment(ids[j], 1);
+                }
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Create an open-addressing hash map from int keys to int counts from scratch, after IntSet; 0 marks an empty slot, so
+     * the count of the key 0 is held separately.
+     */
+    private static final class IntCounter {
+        private int[] keys   = new int[64];
+        private int[] counts = new int[64];
+        private int size;
+        private int zeroCount;
+
+        public void increment(int key, int by) {
+            if (key == 0) {
+                zeroCount += by;
+                return;
+            }
+            if (2 * (size + 1) > keys.length) {
+                int[] oldKeys   = keys;
+                int[] oldCounts = counts;
+                keys   = new int[oldKeys.length * 2];
+                counts = new int[oldKeys.length * 2];
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != 0) {
+                        int j     = slot(oldKeys[i]);
+                        keys[j]   = oldKeys[i];
+                        counts[j] = oldCounts[i];
+                    }
+                }
+            }
+
+            int i = slot(key);
+            if (keys[i] == 0) {
+                keys[i] = key;
+                size++;
+            }
+            counts[i] += by;
+        }
+
+        public void clear(int key) {
+            /**
+             * Reset the count of the given key to zero, so that top() skips it.
+             */
+            if (key == 0) {
+                zeroCount = 0;
+                return;
+            }
+            int i = slot(key);
+            if (keys[i] == key) {
+                counts[i] = 0;
+            }
+        }
+
+        private int slot(int key) {
+            /**
+             * Return the slot holding the given key or, if absent, the empty slot at which it belongs.
+             */
+            int h = key * 0x9E3779B9;
+            int i = (h ^ (h >>> 16)) & (keys.length - 1);
+            while ((keys[i] != 0) && (keys[i] != key)) {
+                i = (i + 1) & (keys.length - 1);
+            }
+            return i;
+        }
+
+        public IntCounter addAll(IntCounter other) {
+            /**
+             * Add the counts of the other counter to this one, returning this counter.
+             */
+            if (other.size > size) {
+                return other.addAll(this);
+            }
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != 0) {
+                    increment(other.keys[i], other.counts[i]);
+                }
+            }
+            zeroCount += other.zeroCount;
+            return this;
+        }
+
+        public int[] top(int k, AdjacencySet exclude, int self) {
+            /**
+             * Return the keys with the k highest counts, highest first, skipping the given User and the members of
+             * 'exclude'. A min-heap of the best k seen so far is kept, so that each further key costs at most O(log(k)).
+             */
+            int[] heapKeys   = new int[k];
+            int[] heapCounts = new int[k];
+            int n = 0;
+
+            for (int i = -1; i < keys.length; i++) {
+                int key   = (i < 0) ? 0 : keys[i];
+                int count = (i < 0) ? zeroCount : counts[i];
+
+                if ((count == 0) || (key == self) || exclude.contains(key)) {
+                    continue;
+                }
+                if (n < k) {
+                    heapKeys[n]   = key;
+                    heapCounts[n] = count;
+                    siftUp(heapKeys, heapCounts, n++);
+                } else if (count > heapCounts[0]) {
+                    heapKeys[0]   = key;
+                    heapCounts[0] = count;
+                    siftDown(heapKeys, heapCounts, n, 0);
+                }
+            }
+
+            /* Repeatedly remove the minimum to the end of the heap, leaving the keys in descending order of count. */
+            for (int end = n - 1; end > 0; end--) {
+                swap(heapKeys, heapCounts, 0, end);
+                siftDown(heapKeys, heapCounts, end, 0);
+            }
+
+            int[] result = new int[n];
+            System.arraycopy(heapKeys, 0, result, 0, n);
+            return result;
+        }
+
+        private static void siftUp(int[] keys, int[] counts, int i) {
+            while ((i > 0) && (counts[i] < counts[(i - 1) / 2])) {
+                swap(keys, counts, i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+
+        private static void siftDown(int[] keys, int[] counts, int n, int i) {
+            while (true) {
+                int least = i;
+                int left  = (2 * i) + 1;
+                int right = left + 1;
+                if ((left < n) && (counts[left] < counts[least])) {
+                    least = left;
+                }
+                if ((right < n) && (counts[right] < counts[least])) {
+                    least = right;
+                }
+                if (least == i) {
+                    return;
+                }
+                swap(keys, counts, i, least);
+                i = least;
+            }
+        }
+
+        private static void swap(int[] keys, int[] counts, int i, int j) {
+            int k     = keys[i];
+            keys[i]   = keys[j];
+            keys[j]   = k;
+            int c     = counts[i];
+            counts[i] = counts[j];
+            counts[j] = c;
+        }
+    }
+
+    /* ------------------------------ Implementations for ranking by followers (Leaderboard) ----------------------------- */
+    /**
+     * Create a bucketed count index from scratch. 'order' holds every User (by Adjacency.index) sorted such that the User
+     * with the most followers is first, so that the Users with c followers form one contiguous bucket; above[c] is the
+     * number of Users with more than c followers, i.e., the position at which the bucket of c begins.
+     *
+     * A follower added to a User with c followers moves that User from bucket c to bucket (c + 1): the User is swapped with
+     * the first User of bucket c, which then becomes the last position of bucket (c + 1) by incrementing above[c]; a
+     * follower removed is the reverse. Each update is therefore O(1), and the top N Users are simply the first N positions
+     * of 'order'.
+     */
+    private class Leaderboard {
+        private int[] order    = new int[16];    // Indices of Users, most followers first.
+        private int[] position = new int[16];    // The position of each User in 'order'.
+        private int[] count    = new int[16];    // The number of followers of each User.
+        private int[] above    = new int[16];    // above[c]: the number of Users with more than c followers.
+        private int size;
+
+        public void addUsers(int n) {
+            /**
+             * Add the Users with indices up to (but excluding) n, each with no followers, at the end of the order.
+             */
+            if (n > order.length) {
+                int length = Math.max(n, order.length * 2);
+                order    = grow(order, length);
+                position = grow(position, length);
+                count    = grow(count, length);
+            }
+            while (size < n) {
+                order[size]    = size;
+                position[size] = size;
+                size++;
+            }
+        }
+
+        public void load(int[] counts) {
+            /**
+             * Add Users with the given numbers of followers, with indices from 0, to an empty Leaderboard; each bucket is
+             * laid out directly (a counting sort), so that the load is O(N + C) for N Users with at most C followers.
+             */
+            int n   = counts.length;
+            int max = 0;
+            for (int i = 0; i < n; i++) {
+                max = Math.max(max, counts[i]);
+            }
+
+            order    = new int[Math.max(n, 16)];
+            position = new int[order.length];
+            count    = new int[order.length];
+            above    = new int[Math.max(max + 2, 16)];
+
+            for (int i = 0; i < n; i++) {
+                if (counts[i] > 0) {
+                    above[counts[i] - 1]++;
+                }
+            }
+            for (int c = max - 1; c > 0; c--) {
+                above[c - 1] += above[c];              // above[c] is now the number of Users with more than c followers.
+            }
+
+            int[] next = new int[max + 1];             // The next free position of each bucket.
+            for (int c = 0; c <= max; c++) {
+                next[c] = above[c];
+            }
+            for (int i = 0; i < n; i++) {
+                int p       = next[counts[i]]++;
+                order[p]    = i;
+                position[i] = p;
+                count[i]    = counts[i];
+            }
+            size = n;
+        }
+
+        public void increment(int i) {
+            int c     = count[i];
+            int first = above[c];
+
+            if (c + 1 >= above.length) {
+                above = grow(above, above.length * 2);
+            }
+            swap(position[i], first);
+            above[c]++;
+            count[i]++;
+        }
+
+        public void decrement(int i) {
+            /**
+             * The reverse of increment(): the User is swapped with the last User of bucket c, whose position then
+             * becomes the first of bucket (c - 1).
+             */
+            int c    = count[i];
+            int last = above[c - 1] - 1;
+
+            swap(position[i], last);
+            above[c - 1]--;
+            count[i]--;
+        }
+
+        public int[] getTop(int limit) {
+            int[] result = new int[Math.min(limit, size)];
+
+            for (int i = 0; i < result.length; i++) {
+                result[i] = users.getByIndex(order[i]).uid;
+            }
+            return result;
+        }
+
+        public int getRank(int i) {
+            return above[count[i]] + 1;
+        }
+
+        private void swap(int p, int q) {
+            int a = order[p];
+            int b = order[q];
+            order[p]    = b;
+            order[q]    = a;
+            position[b] = p;
+            position[a] = q;
+        }
+
+        private int[] grow(int[] array, int length) {
+            int[] more = new int[length];
+            System.arraycopy(array, 0, more, 0, array.length);
+            return more;
+        }
+    }
+
+    /* ------------------------------ Implementations for follower store by ID (AdjacencyMap) ----------------------------- */
+    /**
+     * The adjacency record of a single User: the followers and 'follows' of that User, each sorted chronologically. 'index'
+     * is the position at which the record was created, so that records may also be addressed densely from 0.
+     */
+    private final class Adjacency {
+        private final int uid;
+        private final int index;
+        private DateTree followers = new DateTree(true);     // Declare a chronologically sorted B-Tree to store followers.
+        private DateTree follows   = new DateTree(false);    // Declare a chronologically sorted B-Tree to store 'follows', i.e., those whom a user is following.
+        private AdjacencySet followerSet = new AdjacencySet();    // Declare a set of the IDs of the followers, for membership checks.
+        private AdjacencySet followSet   = new AdjacencySet();    // Declare a set of the IDs of the 'follows', as above.
+        private SortedIds followerIds = new SortedIds();    // Declare the IDs of the followers in ascending order, for intersections.
+        private SortedIds followIds   = new SortedIds();    // Declare the IDs of the 'follows' in ascending order, as above.
+        private Tombstones followerTombs;    // Declare the followers removed but still held above (or in the edge file); null if none.
+        private Tombstones followTombs;      // Declare the 'follows' removed, as above.
+        private int modifications;           // The number of relationships added or removed, so that compaction can detect them.
+
+        private Adjacency(int uid, int index) {
+            this.uid   = uid;
+            this.index = index;
+        }
+
+        private Tombstones tombstones(boolean followers) {
+            if (followers) {
+                if (followerTombs == null) {
+                    followerTombs = new Tombstones();
+                }
+                return followerTombs;
+            }
+            if (followTombs == null) {
+                followTombs = new Tombstones();
+            }
+            return followTombs;
+        }
+
+        private boolean isDead(boolean followers, int id, long time) {
+            Tombstones t = followers ? followerTombs : followTombs;
+            return (t != null) && t.contains(id, time);
+        }
+
+        private int getNumDead(boolean followers) {
+            Tombstones t = followers ? followerTombs : followTombs;
+            return (t == null) ? 0 : t.getSize();
+        }
+
+        private void clear() {
+            /**
+             * Forget every relationship of the record, once the edge file holds them all.
+             */
+            followers   = new DateTree(true);
+            follows     = new DateTree(false);
+            followerSet = new AdjacencySet();
+            followSet   = new AdjacencySet();
+            followerIds = new SortedIds();
+            followIds   = new SortedIds();
+            followerTombs = null;
+            followTombs   = null;
+            modifications++;
+        }
+    }
+
+    /**
+     * Create an open-addressing hash table of adjacency records, keyed by User ID, from scratch. Collisions are resolved by
+     * linear probing and the table doubles whenever it becomes half full.
+     *
+     * Lookups take no lock and allocate nothing: they read the current slot array once (a volatile read) and probe it,
+     * comparing the final 'uid' of each record. Insertions are serialised, and a resize fills a new slot array completely
+     * before publishing it, so a concurrent reader always probes a consistent table -- at worst one which does not yet
+     * contain a record inserted after the read began.
+     */
+    private class AdjacencyMap {
+
+        private volatile Adjacency[] slots = new Adjacency[16];
+        private Adjacency[] records        = new Adjacency[16];    // The records in order of creation, i.e., indexed by Adjacency.index.
+        private volatile int size;
+
+        public int getSize() {
+            return size;
+        }
+
+        private int location(int uid, int length) {
+            int h = uid * 0x9E3779B9;    // Fibonacci hashing spreads consecutive IDs across the table.
+            return (h ^ (h >>> 16)) & (length - 1);
+        }
+
+        public Adjacency get(int uid) {
+            /**
+             * Return the adjacency record of the given user, or null if the user has no relationships.
+             */
+            Adjacency[] t = slots;
+
+            for (int i = location(uid, t.length); ; i = (i + 1) & (t.length - 1)) {
+                Adjacency a = t[i];
+                if ((a == null) || (a.uid == uid)) {
+                    return a;
+                }
+            }
+        }
+
+        public Adjacency getOrCreate(int uid) {
+            /**
+             * Return the adjacency record of the given user, creating it if necessary.
+             */
+            Adjacency a = get(uid);
+            if (a != null) {
+                return a;
+            }
+
+            synchronized (this) {
+                a = get(uid);
+                if (a != null) {
+                    return a;
+                }
+
+                if (2 * (size + 1) > slots.length) {
+                    Adjacency[] old  = slots;
+                    Adjacency[] more = new Adjacency[old.length * 2];
+                    for (int i = 0; i < old.length; i++) {
+                        if (old[i] != null) {
+                            place(more, old[i]);
+                        }
+                    }
+                    slots = more;
+                }
+
+                if (size == records.length) {
+                    Adjacency[] more = new Adjacency[size * 2];
+                    System.arraycopy(records, 0, more, 0, size);
+                    records = more;
+                }
+
+                a = new Adjacency(uid, size);
+                records[size] = a;
+                place(slots, a);
+                size++;
+                return a;
+            }
+        }
+
+        public synchronized Adjacency getByIndex(int index) {
+            return records[index];
+        }
+
+        public synchronized Adjacency[] toArray() {
+            /**
+             * Return every adjacency record, in order of creation.
+             */
+            Adjacency[] result = new Adjacency[size];
+            System.arraycopy(records, 0, result, 0, size);
+            return result;
+        }
+
+        private void place(Adjacency[] t, Adjacency a) {
+            int i = location(a.uid, t.length);
+            while (t[i] != null) {
+                i = (i + 1) & (t.length - 1);
+            }
+            t[i] = a;
+        }
+    }
+
+    /* ------------------------------ Implementations for persistence (EdgeFile, EdgeLog) ----------------------------- */
+    /**
+     * A compacted, read-only copy of the follower graph on disk, mapped into memory so that it is served without being
+     * read: opening the store maps the file in O(1) and the operating system pages in only the rows which are used.
+     *
+     * Row i holds the relationships of the User with index i, in the compressed sparse row form of FollowerSnapshot. For
+     * each direction there is an array of offsets, the neighbours' IDs of each row in ascending order (so that membership
+     * is a binary search and intersections a merge) with the instants alongside, and 'recent': the positions within the row,
+     * most recent first. The file is laid out as a 32-byte header (MAGIC, the number of rows and of relationships) followed
+     * by the arrays, each beginning on an 8-byte boundary:
+     *
+     *        uids[n] | followerOffsets[n + 1] | followerIds[e] | followerTimes[e] | followerRecent[e] | follow... (likewise)
+     *
+     * Each array is mapped separately, so that a file may hold up to 2^28 relationships.
+     */
+    private static final class EdgeFile {
+        private static final int MAGIC  = 0x57464531;    // "WFE1"
+        private static final int HEADER = 32;
+
+        /* The most relationships a file may hold: the largest section, of 8-byte instants, is mapped as one buffer. */
+        private static final int MAX_SIZE = Integer.MAX_VALUE / 8;
+
+        private static final EdgeFile EMPTY = new EdgeFile(IntBuffer.allocate(0), Rows.EMPTY, Rows.EMPTY);
+
+        private final IntBuffer uids;
+        private final Rows followers;
+        private final Rows follows;
+
+        private EdgeFile(IntBuffer uids, Rows followers, Rows follows) {
+            this.uids      = uids;
+            this.followers = followers;
+            this.follows   = follows;
+        }
+
+        public int getSize() {
+            return uids.limit();
+        }
+
+        public int getUid(int row) {
+            return uids.get(row);
+        }
+
+        /**
+         * The relationships of every row in one direction.
+         */
+        private static final class Rows {
+            private static final Rows EMPTY = new Rows(0, null, null, null, null);
+
+            private final int n;
+            private final IntBuffer offsets;
+            private final IntBuffer ids;
+            private final LongBuffer times;
+            private final IntBuffer recent;
+
+            private Rows(int n, IntBuffer offsets, IntBuffer ids, LongBuffer times, IntBuffer recent) {
+                this.n       = n;
+                this.offsets = offsets;
+                this.ids     = ids;
+                this.times   = times;
+                this.recent  = recent;
+            }
+
+            public int getSize(int row) {
+                /**
+                 * Return the number of relationships in the given row, or 0 if the file has no such row (the User was
+                 * created after the file was written).
+                 */
+                return (row < n) ? offsets.get(row + 1) - offsets.get(row) : 0;
+            }
+
+            public int getId(int row, int j) {
+                return ids.get(offsets.get(row) + j);
+            }
+
+            public long getTime(int row, int j) {
+                return times.get(offsets.get(row) + j);
+            }
+
+            public int getRecentId(int row, int j) {
+                int start = offsets.get(row);
+                return ids.get(start + recent.get(start + j));
+            }
+
+            public long getRecentTime(int row, int j) {
+                int start = offsets.get(row);
+                return times.get(start + recent.get(start + j));
+            }
+
+            public int countSince(int row, long since) {
+                /**
+                 * Return the number of relationships in the row at or after the given instant: a prefix of 'recent', whose
+                 * end is found by binary search.
+                 */
+                int lo = 0;
+                int hi = getSize(row);
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (getRecentTime(row, mid) >= since) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                return lo;
+            }
+
+            public int find(int row, int id) {
+                /**
+                 * Return the position of the given ID within the row, by binary search, or -1 if absent.
+                 */
+                if (row >= n) {
+                    return -1;
+                }
+                int start = offsets.get(row);
+                int lo    = start;
+                int hi    = offsets.get(row + 1);
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    int x   = ids.get(mid);
+                    if (x < id) {
+                        lo = mid + 1;
+                    } else if (x > id) {
+                        hi = mid;
+                    } else {
+                        return mid - start;
+                    }
+                }
+                return -1;
+            }
+        }
+
+        private static long align(long position) {
+            return (position + 7) & ~7L;
+        }
+
+        public static EdgeFile map(Path path) throws IOException {
+            /**
+             * Map the edge file at the given path.
+             */
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                while (header.hasRemaining()) {
+                    if (channel.read(header) < 0) {
+                        throw new IOException("Not an edge file: " + path);
+                    }
+                }
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException("Not an edge file: " + path);
+                }
+                int n  = header.getInt(4);
+                long m = header.getLong(8);
+                if ((n < 0) || (m < 0) || (m > MAX_SIZE)) {
+                    throw new IOException("Corrupt edge file header: " + path);
+                }
+                int e = (int) m;
+
+                long[] at = new long[1];
+                at[0] = HEADER;
+                IntBuffer uids = mapInts(channel, at, n);
+                Rows followers = mapRows(channel, at, n, e);
+                Rows follows   = mapRows(channel, at, n, e);
+                return new EdgeFile(uids, followers, follows);
+            }
+        }
+
+        private static Rows mapRows(FileChannel channel, long[] at, int n, int e) throws IOException {
+            IntBuffer offsets = mapInts(channel, at, n + 1);
+            IntBuffer ids     = mapInts(channel, at, e);
+            LongBuffer times  = (e == 0) ? LongBuffer.allocate(0)
+                                         : channel.map(FileChannel.MapMode.READ_ONLY, at[0], 8L * e).asLongBuffer();
+            at[0] = align(at[0] + (8L * e));
+            IntBuffer recent  = mapInts(channel, at, e);
+            return new Rows(n, offsets, ids, times, recent);
+        }
+
+        private static IntBuffer mapInts(FileChannel channel, long[] at, int count) throws IOException {
+            /* An empty section is not mapped: it may begin past the end of a file written before sections were padded. */
+            IntBuffer result = (count == 0) ? IntBuffer.allocate(0)
+                                            : channel.map(FileChannel.MapMode.READ_ONLY, at[0], 4L * count).asIntBuffer();
+            at[0] = align(at[0] + (4L * count));
+            return result;
+        }
+
+        public static void write(Path path, FollowerStore store, Adjacency[] all) throws IOException {
+            /**
+             * Write every relationship of the given records -- and of the store's current edge file -- to a new edge file
+             * at the given path, and force it to disk. The caller holds every read lock. Each array is written through
+             * its own buffer, at a position computed in advance, so that every row is merged only once per direction.
+             */
+            int n = all.length;
+            long e = 0;
+            for (int i = 0; i < n; i++) {
+                e += store.getSize(all[i], true);
+            }
+            if (e > MAX_SIZE) {
+                throw new IOException("Too many relationships for one edge file: " + e);
+            }
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                header.putInt(MAGIC).putInt(n).putLong(e).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+
+                long at = HEADER;
+                Section uids = new Section(channel, at);
+                at = align(at + (4L * n));
+                for (int i = 0; i < n; i++) {
+                    uids.putInt(all[i].uid);
+                }
+                uids.flush();
+
+                at = writeRows(channel, at, store, all, true, (int) e);
+                at = writeRows(channel, at, store, all, false, (int) e);
+                pad(channel, at);
+                channel.force(true);
+            }
+        }
+
+        private static void pad(FileChannel channel, long end) throws IOException {
+            /**
+             * Extend the file to the given end of its last section, so that every section lies wholly within it.
+             */
+            if (channel.size() < end) {
+                channel.write(ByteBuffer.allocate(1), end - 1);
+            }
+        }
+
+        private static long writeRows(FileChannel channel, long at, FollowerStore store, Adjacency[] all, boolean followers,
+                                      int e) throws IOException {
+            int n = all.length;
+            Section offsets = new Section(channel, at);
+            at = align(at + (4L * (n + 1)));
+            Section ids     = new Section(channel, at);
+            at = align(at + (4L * e));
+            Section times   = new Section(channel, at);
+            at = align(at + (8L * e));
+            Section recent  = new Section(channel, at);
+            at = align(at + (4L * e));
+
+            SortedIds buffer = new SortedIds();
+            int[] recentIds    = new int[16];
+            long[] recentTimes = new long[16];
+            int offset = 0;
+
+            for (int i = 0; i < n; i++) {
+                offsets.putInt(offset);
+
+                SortedIds row = store.ascending(all[i], followers, buffer);
+                row.sort();
+                int size = row.getSize();
+                for (int j = 0; j < size; j++) {
+                    ids.putInt(row.ids[j]);
+                    times.putLong(row.times[j]);
+                }
+
+                /* The position of each relationship, most recent first, is found by binary search of the row. */
+                if (recentIds.length < size) {
+                    recentIds   = new int[Math.max(size, recentIds.length * 2)];
+                    recentTimes = new long[recentIds.length];
+                }
+                store.recent(all[i], followers, Long.MIN_VALUE, recentIds, recentTimes, 0);
+                for (int j = 0; j < size; j++) {
+                    int lo  = 0;
+                    int hi  = size - 1;
+                    int mid = -1;
+                    while (lo <= hi) {
+                        int m = (lo + hi) >>> 1;
+                        if (row.ids[m] < recentIds[j]) {
+                            lo = m + 1;
+                        } else if (row.ids[m] > recentIds[j]) {
+                            hi = m - 1;
+                        } else {
+                            mid = m;
+                            break;
+                        }
+                    }
+                    if (mid < 0) {
+                        throw new IOException("Relationship of User " + all[i].uid + " with " + recentIds[j]
+                                              + " missing from its row");
+                    }
+                    recent.putInt(mid);
+                }
+                offset += size;
+            }
+            offsets.putInt(offset);
+
+            offsets.flush();
+            ids.flush();
+            times.flush();
+            recent.flush();
+            return at;
+        }
+
+        /**
+         * A buffered writer of one array of the file, from a given position onwards.
+         */
+        private static final class Section {
+            private final FileChannel channel;
+            private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            private long position;
+
+            private Section(FileChannel channel, long position) {
+                this.channel  = channel;
+                this.position = position;
+            }
+
+            public void putInt(int x) throws IOException {
+                if (buffer.remaining() < 4) {
+                    flush();
+                }
+                buffer.putInt(x);
+            }
+
+            public void putLong(long x) throws IOException {
+                if (buffer.remaining() < 8) {
+                    flush();
+                }
+                buffer.putLong(x);
+            }
+
+            public void flush() throws IOException {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * An append-only log of the relationships added and removed since the edge file was written, as 16-byte records (the
+     * follower's ID, the followed User's ID and the instant in milliseconds, or REMOVED). Records are written through to the operating system
+     * as each relationship is added, so a relationship acknowledged survives the failure of the process; a record torn
+     * by a failure part-way through is discarded when the log is reopened.
+     */
+    private static final class EdgeLog {
+        private static final int RECORD   = 16;
+        private static final long REMOVED = RESERVED;          // The instant recorded for a removal.
+
+        private final FileChannel channel;
+        private final ByteBuffer record = ByteBuffer.allocate(RECORD);
+
+        private EdgeLog(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            channel.truncate(size - (size % RECORD));
+            channel.position(channel.size());
+        }
+
+        public synchronized void append(int uid1, int uid2, long time) {
+            record.clear();
+            record.putInt(uid1).putInt(uid2).putLong(time).flip();
+            try {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public synchronized void replay(FollowerStore store, boolean recordsOnly) throws IOException {
+            /**
+             * Apply every logged addition and removal to the given store -- if 'recordsOnly', to the records alone, the
+             * store having counted them already -- in the order in which they were logged.
+             */
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD << 12);
+            long size = channel.size();
+
+            for (long at = 0; at < size; ) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), size - at));
+                while (buffer.hasRemaining()) {
+                    int read = channel.read(buffer, at + buffer.position());
+                    if (read < 0) {
+                        throw new IOException("The log was truncated during replay");
+                    }
+                }
+                buffer.flip();
+                at += buffer.limit();
+
+                while (buffer.hasRemaining()) {
+                    int uid1  = buffer.getInt();
+                    int uid2  = buffer.getInt();
+                    long time = buffer.getLong();
+                    if (time == REMOVED) {
+                        store.remove(uid1, uid2, null, !recordsOnly);
+                    } else {
+                        store.add(uid1, uid2, time, null, !recordsOnly);
+                    }
+                }
+            }
+        }
+
+        public synchronized void clear() throws IOException {
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+        }
+
+        public synchronized void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /* ------------------------------ Implementations for bulk import (EdgeImport) ----------------------------- */
+    /**
+     * An edge list, read into parallel arrays and written as an edge file bottom-up, in O(E log(E)) over all the available
+     * processors. The Users are numbered in ascending order of ID, so that neighbours sorted by number are sorted by ID, and
+     * the relationships are put in order of instant -- then of position in the list -- by one parallel merge sort of keys
+     * packing the rank of the instant with the position. For each direction, a counting sort then distributes the
+     * relationships to their rows in that order; each row is sorted by neighbour (in parallel, row by row), all but the
+     * earliest of any duplicates dropped, and 'recent' read off from the order of the relationships.
+     */
+    private static final class EdgeImport {
+        private static final int LEAF_SIZE = 1 << 14;    // The number of keys, relationships or rows' relationships handled by a single task.
+        private static final int MAX_SIZE  = EdgeFile.MAX_SIZE;    // The most relationships an edge file may hold.
+
+        private static final int NUMBER = 0;             // The kinds of Step.
+        private static final int SORT   = 1;
+        private static final int FILL   = 2;
+
+        private int size;                                // Declare the number of relationships listed.
+        private int[] src    = new int[1024];            // Declare the follower of each relationship, by ID and then by number.
+        private int[] dst    = new int[1024];            // Declare the User followed, likewise.
+        private long[] times = new long[1024];           // Declare the instant of each relationship.
+
+        private int[] uids;                              // Declare the ID of each User number, ascending.
+        private long[] instants;                         // Declare the distinct instants, ascending.
+        private int[] order;                             // Declare the relationships, earliest first.
+
+        /* The current direction: the neighbour of each relationship, and the rows laid out by the counting sort. */
+        private int[] neighbours;
+        private int[] start;                             // Declare the first slot of each row.
+        private int[] slots;                             // Declare the relationship in each slot, earliest first within a row.
+        private long[] keys;                             // Declare the neighbour and position of each slot, sorted within a row.
+        private int[] positions;                         // Declare the position within the written row of each slot, or -1.
+        private int[] offsets;
+        private int[] ids;
+        private long[] rowTimes;
+        private int[] recent;
+
+        /* The state of the CSV parser, between windows of the file. */
+        private final long[] field = new long[3];
+        private int fieldNo;
+        private long value;
+        private boolean negative;
+        private boolean digits;
+        private long line = 1;
+
+        private void add(int uid1, int uid2, long time) throws IOException {
+            if (time == RESERVED) {
+                throw new IOException("The instant " + RESERVED + " is reserved");
+            }
+            if (size == src.length) {
+                if (size == MAX_SIZE) {
+                    throw new IOException("Too many relationships for one edge file");
+                }
+                int capacity = (int) Math.min(MAX_SIZE, 2L * size);
+                int[] s   = new int[capacity];
+                int[] d   = new int[capacity];
+                long[] t  = new long[capacity];
+                System.arraycopy(src, 0, s, 0, size);
+                System.arraycopy(dst, 0, d, 0, size);
+                System.arraycopy(times, 0, t, 0, size);
+                src   = s;
+                dst   = d;
+                times = t;
+            }
+            src[size]   = uid1;
+            dst[size]   = uid2;
+            times[size] = time;
+            size++;
+        }
+
+        /* ---------- Reading functions ---------- */
+        public static EdgeImport readBinary(Path path) throws IOException {
+            /**
+             * Read a list of 16-byte records -- the follower's ID, the followed User's ID and the instant -- mapping the
+             * file a window at a time.
+             */
+            EdgeImport list = new EdgeImport();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long length = channel.size();
+                if ((length % EdgeLog.RECORD) != 0) {
+                    throw new IOException("Not a list of " + EdgeLog.RECORD + "-byte records: " + path);
+                }
+                for (long at = 0; at < length; at += (1 << 30)) {
+                    ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, at, Math.min(length - at, 1 << 30));
+                    while (buffer.hasRemaining()) {
+                        int uid1  = buffer.getInt();
+                        int uid2  = buffer.getInt();
+                        long time = buffer.getLong();
+                        if (time == EdgeLog.REMOVED) {
+                            throw new IOException("A removal is not a relationship: record " + list.size + " of " + path);
+                        }
+                        list.add(uid1, uid2, time);
+                    }
+                }
+            }
+            return list;
+        }
+
+        public static EdgeImport readCsv(Path path) throws IOException {
+            /**
+             * Read a list of lines "follower,followed,milliseconds", mapping the file a window at a time; blank lines,
+             * spaces and carriage returns are ignored.
+             */
+            EdgeImport list = new EdgeImport();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long length = channel.size();
+                for (long at = 0; at < length; at += (1 << 30)) {
+                    ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, at, Math.min(length - at, 1 << 30));
+                    while (buffer.hasRemaining()) {
+                        list.parse(buffer.get(), path);
+                    }
+                }
+            }
+            list.parse((byte) '\n', path);
+            return list;
+        }
+
+        private void parse(byte c, Path path) throws IOException {
+            if ((c >= '0') && (c <= '9')) {
+                value  = (value * 10) + (c - '0');
+                digits = true;
+                if (value > (1L << 62)) {
+                    throw new IOException("Number out of range at line " + line + " of " + path);
+                }
+            } else if ((c == '-') && !digits && !negative) {
+                negative = true;
+            } else if ((c == ',') || (c == '\n')) {
+                if ((c == '\n') && (fieldNo == 0) && !digits && !negative) {
+                    line++;                              // A blank line.
+                    return;
+                }
+                if (!digits || (fieldNo == 3)) {
+                    throw new IOException("Malformed relationship at line " + line + " of " + path);
+                }
+                field[fieldNo++] = negative ? -value : value;
+                value    = 0;
+                negative = false;
+                digits   = false;
+
+                if (c == '\n') {
+                    if ((fieldNo != 3) || (field[0] != (int) field[0]) || (field[1] != (int) field[1])) {
+                        throw new IOException("Malformed relationship at line " + line + " of " + path);
+                    }
+                    add((int) field[0], (int) field[1], field[2]);
+                    fieldNo = 0;
+                    line++;
+                }
+            } else if ((c != ' ') && (c != '\r') && (c != '\t')) {
+                throw new IOException("Unexpected character '" + (char) c + "' at line " + line + " of " + path);
+            }
+        }
+
+        /* ---------- Writing functions ---------- */
+        public void write(Path path) throws IOException {
+            /**
+             * Write the relationships as an edge file at the given path, and force it to disk.
+             */
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+
+            /* Number the Users and rank the instants, each by a parallel sort of the distinct values... */
+            long[] all = new long[2 * size];
+            for (int i = 0; i < size; i++) {
+                all[2 * i]       = src[i];
+                all[(2 * i) + 1] = dst[i];
+            }
+            pool.invoke(new LongSort(all, new long[all.length], 0, all.length));
+            int n = distinct(all);
+            uids = new int[n];
+            for (int i = 0; i < n; i++) {
+                uids[i] = (int) all[i];
+            }
+
+            all = new long[size];
+            System.arraycopy(times, 0, all, 0, size);
+            pool.invoke(new LongSort(all, new long[size], 0, size));
+            instants = new long[distinct(all)];
+            System.arraycopy(all, 0, instants, 0, instants.length);
+
+            /* ...then order the relationships by instant and position, from keys packing the two. */
+            keys = new long[size];
+            pool.invoke(new Step(NUMBER, 0, size));
+            pool.invoke(new LongSort(keys, all, 0, size));
+            order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = (int) keys[i];
+            }
+            all = null;
+
+            start     = new int[n + 1];
+            slots     = new int[size];
+            positions = new int[size];
+            offsets   = new int[n + 1];
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                long at = EdgeFile.HEADER;
+                EdgeFile.Section section = new EdgeFile.Section(channel, at);
+                for (int i = 0; i < n; i++) {
+                    section.putInt(uids[i]);
+                }
+                section.flush();
+                at = EdgeFile.align(at + (4L * n));
+
+                int e = build(dst, src);
+                at    = writeRows(channel, at, e);
+                build(src, dst);
+                at    = writeRows(channel, at, e);
+                EdgeFile.pad(channel, at);
+
+                ByteBuffer header = ByteBuffer.allocate(EdgeFile.HEADER);
+                header.putInt(EdgeFile.MAGIC).putInt(n).putLong(e).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+            }
+        }
+
+        private static int distinct(long[] sorted) {
+            /**
+             * Move the distinct values of the sorted array to its front, returning their number.
+             */
+            int n = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if ((n == 0) || (sorted[i] != sorted[n - 1])) {
+                    sorted[n++] = sorted[i];
+                }
+            }
+            return n;
+        }
+
+        private static int find(int[] sorted, int x) {
+            int lo = 0;
+            int hi = sorted.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] < x) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private static int find(long[] sorted, long x) {
+            int lo = 0;
+            int hi = sorted.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] < x) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private int build(int[] rows, int[] neighbours) {
+            /**
+             * Lay out one direction -- each relationship in the row of the User in 'rows' -- returning the number of
+             * relationships once duplicates are dropped.
+             */
+            this.neighbours = neighbours;
+            int n = uids.length;
+
+            /* A counting sort distributes the relationships, earliest first, to their rows... */
+            for (int i = 0; i <= n; i++) {
+                start[i]   = 0;
+                offsets[i] = 0;
+            }
+            for (int i = 0; i < size; i++) {
+                start[rows[i] + 1]++;
+            }
+            for (int i = 0; i < n; i++) {
+                start[i + 1] += start[i];
+            }
+            for (int i = 0; i < size; i++) {
+                int edge = order[i];
+                slots[start[rows[edge]] + offsets[rows[edge]]++] = edge;
+            }
+
+            /* ...each row is sorted by neighbour, counting the relationships kept in 'offsets'... */
+            ForkJoinPool.commonPool().invoke(new Step(SORT, 0, n));
+            int e = 0;
+            for (int i = 0; i < n; i++) {
+                int kept   = offsets[i];
+                offsets[i] = e;
+                e         += kept;
+            }
+            offsets[n] = e;
+
+            /* ...and the rows are filled in. */
+            ids      = new int[e];
+            rowTimes = new long[e];
+            recent   = new int[e];
+            ForkJoinPool.commonPool().invoke(new Step(FILL, 0, n));
+            return e;
+        }
+
+        private void sortRow(int row) {
+            /**
+             * Sort the slots of the row by neighbour and, for each neighbour, position, marking every slot but the first
+             * (earliest) for each neighbour with -1; the number kept is left in offsets[row].
+             */
+            int from = start[row];
+            int to   = start[row + 1];
+            for (int j = from; j < to; j++) {
+                keys[j] = (((long) neighbours[slots[j]]) << 32) | (j - from);
+            }
+            sortAscending(keys, from, to - 1);
+
+            int kept = 0;
+            for (int j = from; j < to; j++) {
+                if ((j > from) && ((keys[j] >>> 32) == (keys[j - 1] >>> 32))) {
+                    positions[from + (int) keys[j]] = -1;
+                } else {
+                    positions[from + (int) keys[j]] = kept++;
+                }
+            }
+            offsets[row] = kept;
+        }
+
+        private void fillRow(int row) {
+            /**
+             * Write the neighbours' IDs of the row in ascending order, with their instants, and 'recent': the positions
+             * in the row, most recent first and, of those at the same instant, in the order listed.
+             */
+            int from = start[row];
+            int to   = start[row + 1];
+            int out  = offsets[row];
+
+            for (int j = from; j < to; j++) {
+                int q = positions[j];
+                if (q >= 0) {
+                    int edge           = slots[j];
+                    ids[out + q]       = uids[neighbours[edge]];
+                    rowTimes[out + q]  = times[edge];
+                }
+            }
+
+            int r = out;
+            for (int j = to - 1; j >= from; ) {
+                long time = times[slots[j]];
+                int first = j;
+                while ((first > from) && (times[slots[first - 1]] == time)) {
+                    first--;
+                }
+                for (int k = first; k <= j; k++) {
+                    if (positions[k] >= 0) {
+                        recent[r++] = positions[k];
+                    }
+                }
+                j = first - 1;
+            }
+        }
+
+        private long writeRows(FileChannel channel, long at, int e) throws IOException {
+            int n = uids.length;
+            EdgeFile.Section section = new EdgeFile.Section(channel, at);
+            for (int i = 0; i <= n; i++) {
+                section.putInt(offsets[i]);
+            }
+            section.flush();
+            at = EdgeFile.align(at + (4L * (n + 1)));
+
+            section = new EdgeFile.Section(channel, at);
+            for (int i = 0; i < e; i++) {
+                section.putInt(ids[i]);
+            }
+            section.flush();
+            at = EdgeFile.align(at + (4L * e));
+
+            section = new EdgeFile.Section(channel, at);
+            for (int i = 0; i < e; i++) {
+                section.putLong(rowTimes[i]);
+            }
+            section.flush();
+            at = EdgeFile.align(at + (8L * e));
+
+            section = new EdgeFile.Section(channel, at);
+            for (int i = 0; i < e; i++) {
+                section.putInt(recent[i]);
+            }
+            section.flush();
+            return EdgeFile.align(at + (4L * e));
+        }
+
+        /**
+         * One step of the import over the relationships -- or rows -- [from, to), as a fork/join task: NUMBER replaces the
+         * IDs of each relationship by User numbers and packs its key, SORT sorts rows and FILL fills them in. The range is
+         * split in halves until at most LEAF_SIZE relationships remain.
+         */
+        @SuppressWarnings("serial")
+        private final class Step extends RecursiveAction {
+            private final int kind;
+            private final int from;
+            private final int to;
+
+            private Step(int kind, int from, int to) {
+                this.kind = kind;
+                this.from = from;
+                this.to   = to;
+            }
+
+            protected void compute() {
+                int weight = (kind == NUMBER) ? (to - from) : (start[to] - start[from]);
+                if (((to - from) > 1) && (weight > LEAF_SIZE)) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new Step(kind, from, mid), new Step(kind, mid, to));
+                    return;
+                }
+
+                for (int i = from; i < to; i++) {
+                    if (kind == NUMBER) {
+                        src[i]  = find(uids, src[i]);
+                        dst[i]  = find(uids, dst[i]);
+                        keys[i] = (((long) find(instants, times[i])) << 32) | i;
+                    } else if (kind == SORT) {
+                        sortRow(i);
+                    } else {
+                        fillRow(i);
+                    }
+                }
+            }
+        }
+
+        /**
+         * A parallel merge sort of keys[from, to), as a fork/join task: ranges of at most LEAF_SIZE keys are sorted
+         * sequentially, and each pair of halves merged through the buffer.
+         */
+        @SuppressWarnings("serial")
+        private static final class LongSort extends RecursiveAction {
+            private final long[] keys;
+            private final long[] buffer;
+            private final int from;
+            private final int to;
+
+            private LongSort(long[] keys, long[] buffer, int from, int to) {
+                this.keys   = keys;
+                this.buffer = buffer;
+                this.from   = from;
+                this.to     = to;
+            }
+
+            protected void compute() {
+                if ((to - from) <= LEAF_SIZE) {
+                    sortAscending(keys, from, to - 1);
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                invokeAll(new LongSort(keys, buffer, from, mid), new LongSort(keys, buffer, mid, to));
+
+                int i = from;
+                int j = mid;
+                for (int k = from; k < to; k++) {
+                    if ((j == to) || ((i < mid) && (keys[i] <= keys[j]))) {
+                        buffer[k] = keys[i++];
+                    } else {
+                        buffer[k] = keys[j++];
+                    }
+                }
+                System.arraycopy(buffer, from, keys, from, to - from);
+            }
+        }
+    }
+
+    /* ------------------------------ Implementations for read-optimised snapshots (FollowerSnapshot) ----------------------------- */
+    /**
+     * An immutable compressed sparse row (CSR) copy of the follower graph. Users are addressed by Adjacency.index; for each
+     * direction, the neighbours of user i occupy positions offsets[i] (inclusive) to offsets[i + 1] (exclusive) of the
+     * neighbour array -- as indices, most recent first -- with the instants of the relationships in the parallel times array.
+     * An edge thus costs 12 bytes per direction, against its B-Tree slots and its record in the EdgeTable.
+     */
+    private final class FollowerSnapshot {
+        private final long version;
+        private final int[] uids;               // The User ID of each index.
+
+        private final int[] followerOffsets;
+        private final int[] followers;
+        private final long[] followerTimes;
+
+        private final int[] followOffsets;
+        private final int[] follows;
+        private final long[] followTimes;
+
+        private FollowerSnapshot(long version, Adjacency[] all) {
+            this.version = version;
+            int n = all.length;
+            uids            = new int[n];
+            followerOffsets = new int[n + 1];
+            followOffsets   = new int[n + 1];
+
+            /* The first pass lays out the offsets... */
+            for (int i = 0; i < n; i++) {
+                uids[i]                = all[i].uid;
+                followerOffsets[i + 1] = followerOffsets[i] + FollowerStore.this.getSize(all[i], true);
+                followOffsets[i + 1]   = followOffsets[i] + FollowerStore.this.getSize(all[i], false);
+            }
+
+            followers     = new int[followerOffsets[n]];
+            followerTimes = new long[followerOffsets[n]];
+            follows       = new int[followOffsets[n]];
+            followTimes   = new long[followOffsets[n]];
+
+            /* ...and the second copies each B-Tree and row of the edge file, merged chronologically, into its row. */
+            for (int i = 0; i < n; i++) {
+                recent(all[i], true, Long.MIN_VALUE, followers, followerTimes, followerOffsets[i]);
+                recent(all[i], false, Long.MIN_VALUE, follows, followTimes, followOffsets[i]);
+            }
+            toIndices(followers);
+            toIndices(follows);
+        }
+
+        private void toIndices(int[] neighbours) {
+            for (int j = 0; j < neighbours.length; j++) {
+                neighbours[j] = users.get(neighbours[j]).index;
+            }
+        }
+
+        private int[] toUserArray(int[] offsets, int[] neighbours, int i) {
+            int[] result = new int[offsets[i + 1] - offsets[i]];
+            for (int j = 0; j < result.length; j++) {
+                result[j] = uids[neighbours[offsets[i] + j]];
+            }
+            return result;
+        }
+
+        public int getSize() {
+            return uids.length;
+        }
+
+        public int[] getFollowers(int i) {
+            return toUserArray(followerOffsets, followers, i);
+        }
+
+        public int[] getFollows(int i) {
+            return toUserArray(followOffsets, follows, i);
+        }
+
+        public int getNumFollowers(int i) {
+            return followerOffsets[i + 1] - followerOffsets[i];
+        }
+
+        public int countFollowersSince(int i, long since) {
+            /**
+             * Return the number of followers of user i at or after the given instant, by binary search of their row.
+             */
+            int lo = followerOffsets[i];
+            int hi = followerOffsets[i + 1];
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (followerTimes[mid] >= since) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo - followerOffsets[i];
+        }
+
+        public int[] getFollowersSince(int i, long since) {
+            int[] result = new int[countFollowersSince(i, since)];
+            for (int j = 0; j < result.length; j++) {
+                result[j] = uids[followers[followerOffsets[i] + j]];
+            }
+            return result;
+        }
+
+        public int getNumFollows(int i) {
+            return followOffsets[i + 1] - followOffsets[i];
+        }
+    }
+
+    /* ------------------------------ Implementations for membership checks (IntSet) ----------------------------- */
+    /**
+     * Create an open-addressing hash set of ints from scratch, answering 'contains' in O(1) expected time however large
+     * the set. Collisions are resolved by linear probing and the table doubles whenever it becomes half full; 0 marks an
+     * empty slot, so membership of 0 itself is recorded separately.
+     */
+    private static final class IntSet {
+        private int[] slots = new int[4];
+        private int size;
+        private boolean hasZero;
+
+        public int getSize() {
+            return size;
+        }
+
+        private static int location(int key, int length) {
+            int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & (length - 1);
+        }
+
+        public boolean contains(int key) {
+            if (key == 0) {
+                return hasZero;
+            }
+            for (int i = location(key, slots.length); slots[i] != 0; i = (i + 1) & (slots.length - 1)) {
+                if (slots[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean add(int key) {
+            /**
+             * Add the given key, returning false if it was already present.
+             */
+            if (key == 0) {
+                if (hasZero) {
+                    return false;
+                }
+                hasZero = true;
+                size++;
+                return true;
+            }
+
+            if (contains(key)) {
+                return false;
+            }
+
+            if (2 * (size + 1) > slots.length) {
+                int[] old = slots;
+                slots = new int[old.length * 2];
+                for (int i = 0; i < old.length; i++) {
+                    if (old[i] != 0) {
+                        place(old[i]);
+                    }
+                }
+            }
+            place(key);
+            size++;
+            return true;
+        }
+
+        public boolean remove(int key) {
+            /**
+             * Remove the given key, returning false if it was absent. The keys after it in its probe sequence are shifted
+             * back into the gap (a backward-shift deletion), so that no marker of a deleted slot is needed.
+             */
+            if (key == 0) {
+                if (!hasZero) {
+                    return false;
+                }
+                hasZero = false;
+                size--;
+                return true;
+            }
+
+            int mask = slots.length - 1;
+            int i    = location(key, slots.length);
+            while (slots[i] != key) {
+                if (slots[i] == 0) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+
+            for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+                /* The key at j may fill the gap at i unless its home slot lies cyclically within (i, j]. */
+                int home = location(slots[j], slots.length);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    slots[i] = slots[j];
+                    i = j;
+                }
+            }
+            slots[i] = 0;
+            size--;
+            return true;
+        }
+
+        public int[] toArray() {
+            /**
+             * Return the keys, in no particular order.
+             */
+            int[] result = new int[size];
+            int k = 0;
+            if (hasZero) {
+                result[k++] = 0;
+            }
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] != 0) {
+                    result[k++] = slots[i];
+                }
+            }
+            return result;
+        }
+
+        private void place(int key) {
+            int i = location(key, slots.length);
+            while (slots[i] != 0) {
+                i = (i + 1) & (slots.length - 1);
+            }
+            slots[i] = key;
+        }
+    }
+
+    /* ------------------------------ Implementations for deletions (Tombstones) ----------------------------- */
+    /**
+     * Create an open-addressing hash set of relationships -- the ID of the other User with the instant of the relationship
+     * -- from scratch, after IntSet. A relationship removed is not deleted from the B-Trees, SortedIds or edge file, which
+     * are not built for deletion, but recorded here; the queries skip any relationship in the set, and compaction later
+     * rebuilds the structures without them. The instant is part of the key because a relationship may be removed and
+     * added again, leaving both instances in the structures. The instant EMPTY marks an empty slot. For counting by
+     * instant, a sorted copy of the instants is built when first needed after a change, and then binary searched.
+     */
+    private static final class Tombstones {
+        private static final long EMPTY = RESERVED;
+
+        private int[] ids    = new int[4];
+        private long[] times = { EMPTY, EMPTY, EMPTY, EMPTY };
+        private int size;
+        private volatile long[] sorted;               // The instants in ascending order, or null if changed since.
+
+        public int getSize() {
+            return size;
+        }
+
+        private static int location(int id, long time, int length) {
+            int h = (id * 0x9E3779B9) ^ ((int) (time ^ (time >>> 32)) * 0x85EBCA6B);
+            return (h ^ (h >>> 16)) & (length - 1);
+        }
+
+        private int slot(int id, long time) {
+            /**
+             * Return the slot holding the given relationship or, if absent, the empty slot at which it belongs.
+             */
+            int i = location(id, time, ids.length);
+            while ((times[i] != EMPTY) && ((ids[i] != id) || (times[i] != time))) {
+                i = (i + 1) & (ids.length - 1);
+            }
+            return i;
+        }
+
+        public boolean contains(int id, long time) {
+            return (size > 0) && (times[slot(id, time)] != EMPTY);
+        }
+
+        public int countSince(long since) {
+            /**
+             * Return the number of relationships at or after the given instant: a binary search of the sorted instants,
+             * which are rebuilt in O(T log(T)) by the first count after a change. The caller holds at least the read lock,
+             * so concurrent counts may each rebuild them, but never see them part-built.
+             */
+            if (size == 0) {
+                return 0;
+            }
+
+            long[] instants = sorted;
+            if (instants == null) {
+                instants = new long[size];
+                int c = 0;
+                for (int i = 0; i < times.length; i++) {
+                    if (times[i] != EMPTY) {
+                        instants[c++] = times[i];
+                    }
+                }
+                Arrays.sort(instants);
+                sorted = instants;
+            }
+
+            int lo = 0;
+            int hi = instants.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (instants[mid] < since) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return instants.length - lo;
+        }
+
+        public boolean add(int id, long time) {
+            if (contains(id, time)) {
+                return false;
+            }
+
+            if (2 * (size + 1) > ids.length) {
+                int[] oldIds    = ids;
+                long[] oldTimes = times;
+                ids   = new int[oldIds.length * 2];
+                times = new long[oldIds.length * 2];
+                for (int i = 0; i < times.length; i++) {
+                    times[i] = EMPTY;
+                }
+                for (int i = 0; i < oldIds.length; i++) {
+                    if (oldTimes[i] != EMPTY) {
+                        int j    = slot(oldIds[i], oldTimes[i]);
+                        ids[j]   = oldIds[i];
+                        times[j] = oldTimes[i];
+                    }
+                }
+            }
+
+            int i    = slot(id, time);
+            ids[i]   = id;
+            times[i] = time;
+            size++;
+            sorted = null;
+            return true;
+        }
+
+        public boolean remove(int id, long time) {
+            /**
+             * Remove the given relationship, returning false if it was absent, by backward-shift deletion as in IntSet.
+             */
+            int i = slot(id, time);
+            if (times[i] == EMPTY) {
+                return false;
+            }
+
+            int mask = ids.length - 1;
+            for (int j = (i + 1) & mask; times[j] != EMPTY; j = (j + 1) & mask) {
+                int home = location(ids[j], times[j], ids.length);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    ids[i]   = ids[j];
+                    times[i] = times[j];
+                    i = j;
+                }
+            }
+            times[i] = EMPTY;
+            size--;
+            sorted = null;
+            return true;
+        }
+    }
+
+    /* ------------------------------ Implementations for intersections (SortedIds) ----------------------------- */
+    /**
+     * An array of IDs kept in ascending order, with the instant of each relationship in a parallel array. IDs are appended
+     * to an unsorted tail, which is sorted and merged into the sorted prefix only when the set is next read; a User
+     * gaining many followers between two mutual queries thus pays one O(T log(T) + N) merge rather than T insertions.
+     */
+    private static final class SortedIds {
+        private int[] ids    = new int[4];
+        private long[] times = new long[4];
+        private int size;
+        private int sorted;                           // ids[0..sorted) is in ascending order; ids[sorted..size) is the unsorted tail.
+
+        public int getSize() {
+            return size;
+        }
+
+        public void add(int id, long time) {
+            if (size == ids.length) {
+                int[] moreIds    = new int[size * 2];
+                long[] moreTimes = new long[size * 2];
+                System.arraycopy(ids, 0, moreIds, 0, size);
+                System.arraycopy(times, 0, moreTimes, 0, size);
+                ids   = moreIds;
+                times = moreTimes;
+            }
+            ids[size]   = id;
+            times[size] = time;
+
+            /* An ID larger than all before it extends the sorted prefix directly. */
+            if ((sorted == size) && ((size == 0) || (ids[size - 1] < id))) {
+                sorted++;
+            }
+            size++;
+        }
+
+        public SortedIds merge(SortedIds delta, EdgeFile.Rows rows, int row, Tombstones dead) {
+            /**
+             * Make this set the union of the given set and a row of the edge file, in ascending order and without the
+             * relationships in 'dead' (which may be null), returning this set; a set used in this way is a reusable buffer.
+             */
+            delta.sort();
+            int m = rows.getSize(row);
+            int n = delta.size;
+
+            if (ids.length < m + n) {
+                ids   = new int[Math.max(m + n, ids.length * 2)];
+                times = new long[ids.length];
+            }
+
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while ((i < m) || (j < n)) {
+                if ((j == n) || ((i < m) && (rows.getId(row, i) < delta.ids[j]))) {
+                    ids[k]   = rows.getId(row, i);
+                    times[k] = rows.getTime(row, i);
+                    i++;
+                } else {
+                    ids[k]   = delta.ids[j];
+                    times[k] = delta.times[j];
+                    j++;
+                }
+                if ((dead == null) || !dead.contains(ids[k], times[k])) {
+                    k++;
+                }
+            }
+            size   = k;
+            sorted = size;
+            return this;
+        }
+
+        public synchronized void sort() {
+            /**
+             * Sort the tail and merge it, from the back, into the sorted prefix. Readers holding only a read lock may call
+             * this concurrently, so it is synchronized; every reader of the arrays calls it first, so that none reads them
+             * while they are being merged.
+             */
+            if (sorted == size) {
+                return;
+            }
+            int t = size - sorted;
+            int[] tailIds    = new int[t];
+            long[] tailTimes = new long[t];
+            System.arraycopy(ids, sorted, tailIds, 0, t);
+            System.arraycopy(times, sorted, tailTimes, 0, t);
+            sortAscending(tailIds, tailTimes, 0, t - 1);
+
+            int i = sorted - 1;
+            int j = t - 1;
+            for (int k = size - 1; j >= 0; k--) {
+                if ((i >= 0) && (ids[i] > tailIds[j])) {
+                    ids[k]   = ids[i];
+                    times[k] = times[i];
+                    i--;
+                } else {
+                    ids[k]   = tailIds[j];
+                    times[k] = tailTimes[j];
+                    j--;
+                }
+            }
+            sorted = size;
+        }
+    }
+
+    /* ------------------------------ Implementations for membership checks (AdjacencySet) ----------------------------- */
+    /**
+     * A set of User IDs which starts as a hashed IntSet and switches, once it holds more than THRESHOLD IDs, to a RoaringSet;
+     * a few large sets (the followers of popular Users) thereby account for little of the space.
+     */
+    private static final class AdjacencySet {
+        private static final int THRESHOLD = 4096;
+
+        private IntSet small = new IntSet();
+        private RoaringSet large;
+
+        public int getSize() {
+            return (large == null) ? small.getSize() : large.getCardinality();
+        }
+
+        public boolean contains(int id) {
+            return (large == null) ? small.contains(id) : large.contains(id);
+        }
+
+        public boolean remove(int id) {
+            return (large == null) ? small.remove(id) : large.remove(id);
+        }
+
+        public boolean add(int id) {
+            if (large != null) {
+                return large.add(id);
+            }
+            if (!small.add(id)) {
+                return false;
+            }
+
+            if (small.getSize() > THRESHOLD) {
+                RoaringSet r = new RoaringSet();
+                int[] ids = small.toArray();
+                for (int i = 0; i < ids.length; i++) {
+                    r.add(ids[i]);
+                }
+                r.optimise();
+                large = r;
+                small = null;
+            }
+            return true;
+        }
+
+        public int[] toArray() {
+            return (large == null) ? small.toArray() : large.toArray();
+        }
+
+        public static int andCardinality(AdjacencySet x, AdjacencySet y) {
+            /**
+             * Return the number of IDs in both sets.
+             */
+            if ((x.large != null) && (y.large != null)) {
+                return x.large.andCardinality(y.large);
+            }
+            if (x.getSize() > y.getSize()) {
+                AdjacencySet swap = x;
+                x = y;
+                y = swap;
+            }
+
+            int[] ids = x.toArray();
+            int k = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (y.contains(ids[i])) {
+                    k++;
+                }
+            }
+            return k;
+        }
     }
 
-    /* ------------------------------ Implementations for follower store by ID *and* date (FollowerTree) ----------------------------- */
+    /* ------------------------------ Implementations for compressed bitmaps (RoaringSet) ----------------------------- */
     /**
-     * Create a BinaryTree data type from scratch.
+     * Create a compressed bitmap data type from scratch, after the 'Roaring' bitmaps of Chambi, Lemire et al. The 32-bit space
+     * is split into chunks of 2^16 IDs sharing their high 16 bits; each non-empty chunk is a Container of the low 16 bits, held
+     * in whichever of three forms is smallest:
+     *      - an ArrayContainer, a sorted array of at most 4096 values (2 bytes each), for sparse chunks;
+     *      - a BitmapContainer, 1024 words of 64 bits (8KB), for dense chunks;
+     *      - a RunContainer, a sorted array of (start, length) runs, for consecutive values.
+     * The high 16 bits of the non-empty chunks are kept in a sorted array alongside their containers, so that 'contains' is
+     * two binary searches (or a single bit test) and intersections and unions proceed chunk by chunk.
      */
-    private class FollowerTree  {
+    private static final class RoaringSet {
+        private static final int ARRAY_MAX = 4096;    // Beyond 4096 values, an array is larger than a bitmap.
 
-        private static final int childMax = 4;    // Every internal node contains a maximum of (childMax) children; the number of elements of any node is thus (childMax - 1) by definition.
+        private char[] keys = new char[4];
+        private Container[] containers = new Container[4];
+        private int size;                             // The number of containers.
+        private int cardinality;                      // The number of IDs.
 
-        private final class Node {
-            private int childNo;                                       // Declare a variable to store the number of children a node currently has.
-            private NodeData[] ChildArray = new NodeData[childMax];    // Declare an array of children, of size 4 (max. child nodes).
-
-            private Node(int c) {
-                this.childNo = c;                                      // Construct a node with c children.
-            }
+        public int getCardinality() {
+            return cardinality;
         }
 
-        private final class NodeData {
+        private int find(char key) {
             /**
-             * Generic configuration for B-Tree entries; reference DateTree
-             * in order to allow followers and 'follows' to be sorted chronologically.
+             * Binary search for the given high bits; as in java.util.Arrays, a missing key returns -(insertion point) - 1.
              */
-            private int key;
-            private Node next;
-            private DateTree followers;                                // Declare a chronologically sorted B-Tree to store followers.
-            private DateTree follows;                                  // Declare a chronologically sorted B-Tree to store 'follows', i.e., those whom a user is following.
-
-            public NodeData(int key, Node next) {
-                followers = new DateTree();
-                follows   = new DateTree();
-                this.key  = key;
-                this.next = next;
+            int lo = 0;
+            int hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < key) {
+                    lo = mid + 1;
+                } else if (keys[mid] > key) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
             }
+            return -(lo + 1);
         }
 
-        /* -- Generic configuration for the BinaryTree -- */
-        private Node root;                                             // Declare the root of the BinaryTree.
-        private int size;                                              // Declare a variable to store the number of users associated with followers and follows in the BinaryTree.
-        private int height;                                            // Declare a variable to monitor the height of the BinaryTree.
-        private int c;                                                 // Declare a variable to monitor the children per node.
-        private Follow[] TopUsers;
-
-        /* Constructors, Getters and Setters */
-        public FollowerTree() {
-            root = new Node(0);
+        public boolean contains(int id) {
+            int i = find((char) (id >>> 16));
+            return (i >= 0) && containers[i].contains((char) id);
         }
 
-        public int getSize() {
-            return size;
-        }
+        public boolean add(int id) {
+            char key = (char) (id >>> 16);
+            int i    = find(key);
 
-        public int getHeight() {
-            return height;
-        }
+            if (i < 0) {
+                i = -i - 1;
+                insertContainer(i, key, new ArrayContainer());
+            }
 
-        public DateTree getFollows(int key) {
-            return findFollows(root, key, height);
-        }
+            Container c = containers[i];
+            int before  = c.getCardinality();
+            containers[i] = c.add((char) id);
 
-        public DateTree getFollowers(int key) {
-            return findFollowers(root, key, height);
+            if (containers[i].getCardinality() == before) {
+                return false;
+            }
+            cardinality++;
+            return true;
         }
 
-        public int getNumFollowers(int key) {
-            return getFollowers(key).getSize();
-        }
-        /* --------------------------------- */
+        public boolean remove(int id) {
+            int i = find((char) (id >>> 16));
+            if (i < 0) {
+                return false;
+            }
 
-        /* ------ Checking functions ------- */
-        public boolean checkExistsFollower(int key) {
-            /**
-             * Check if the given key is in the ID tree (FollowerTree).
-             */
-            c = 0;
-            searchForID(root, key, height);
-            return (c != 0);
+            Container c = containers[i];
+            int before  = c.getCardinality();
+            containers[i] = c.remove((char) id);
+
+            if (containers[i].getCardinality() == before) {
+                return false;
+            }
+            cardinality--;
+            if (containers[i].getCardinality() == 0) {
+                System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+                System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+                size--;
+                containers[size] = null;
+            }
+            return true;
         }
 
-        public boolean isAFollower(int key, int followedKey) {
-            /**
-              * Return true if 'key' is a follower of 'followedKey'.
-              */
-            return getFollowers(followedKey).checkExistsDate(key);
+        private void insertContainer(int i, char key, Container c) {
+            if (size == keys.length) {
+                char[] moreKeys = new char[size * 2];
+                Container[] more = new Container[size * 2];
+                System.arraycopy(keys, 0, moreKeys, 0, size);
+                System.arraycopy(containers, 0, more, 0, size);
+                keys       = moreKeys;
+                containers = more;
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(containers, i, containers, i + 1, size - i);
+            keys[i]       = key;
+            containers[i] = c;
+            size++;
         }
 
-        /* ------- Sorting functions ------- */
-        private void swap(Follow[] TopUsers, int i, int j) {
-            /**
-             * Swap the elements at indices i and j of the array TopUsers; called by subsequent
-             * methods in order to chronologically order Users in terms of quantity of followers.
-             */
-            Follow swap = TopUsers[i];
-            TopUsers[i] = TopUsers[j];
-            TopUsers[j] = swap;
+        private void append(char key, Container c) {
+            if (c.getCardinality() > 0) {
+                insertContainer(size, key, c);
+                cardinality += c.getCardinality();
+            }
         }
 
-        int part(Follow[] TopUsers, int left, int right) {
+        public void optimise() {
             /**
-             * Partition.
+             * Convert each container to a RunContainer wherever that is smaller.
              */
-            int i = left - 1;
-            int j = right;
-
-            while (true) {
-                while ((TopUsers[++i].count)   < (TopUsers[right].count));
-                while ((TopUsers[right].count) < (TopUsers[--j].count)) {
-                    if (j == left) {
-                        break;
-                    }
-                }
-                if (i >= j) {
-                    break;
-                }
-                swap(TopUsers, i, j);
+            for (int i = 0; i < size; i++) {
+                containers[i] = containers[i].optimise();
             }
-
-            swap(TopUsers, i, right);
-            return i;
         }
 
-        private void sort(Follow[] TopUsers, int left, int right) {
+        public int[] toArray() {
             /**
-             * Called by the method getTopUsers(). Functionally a quick sort, constituted by the
-             * methods swap() and part() (i.e., a partition-exchange sort).
+             * Return the IDs in ascending (unsigned) order.
              */
-            if (right <= left) {
-                return;
+            int[] result = new int[cardinality];
+            int at = 0;
+            for (int i = 0; i < size; i++) {
+                at = containers[i].fill(keys[i] << 16, result, at);
             }
-
-            int i = part(TopUsers, left, right);
-            sort(TopUsers, left, i-1);
-            sort(TopUsers, i+1, right);
+            return result;
         }
 
-        private Node splitNode(Node currentNode) {
+        public int andCardinality(RoaringSet other) {
             /**
-             * Method for B-Tree node splitting.
+             * Return the number of IDs in both this set and the other, without building the intersection.
              */
-            Node tempNode = new Node(childMax/2);    // Create new Node with (childMax/2) children.
-            currentNode.childNo  =  (childMax/2);
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while ((i < size) && (j < other.size)) {
+                if (keys[i] < other.keys[j]) {
+                    i++;
+                } else if (keys[i] > other.keys[j]) {
+                    j++;
+                } else {
+                    k += andCardinality(containers[i++], other.containers[j++]);
+                }
+            }
+            return k;
+        }
 
+        public RoaringSet and(RoaringSet other) {
             /**
-             * Iterate through to associate the indices of the old Node's rightmost children with
-             * the indices new Node's leftmost children.
+             * Return the intersection of this set and the other.
              */
-            for (int i = 0; i < (childMax/2); i++) {
-                tempNode.ChildArray[i] = currentNode.ChildArray[(childMax/2) + i];
+            RoaringSet result = new RoaringSet();
+            int i = 0;
+            int j = 0;
+            while ((i < size) && (j < other.size)) {
+                if (keys[i] < other.keys[j]) {
+                    i++;
+                } else if (keys[i] > other.keys[j]) {
+                    j++;
+                } else {
+                    result.append(keys[i], and(containers[i++], other.containers[j++]));
+                }
             }
-
-            return tempNode;
+            return result;
         }
 
-        /* ------ Inserting functions ------ */
-        private Node insert(Node currentNode, int key, int height) {
+        public RoaringSet or(RoaringSet other) {
             /**
-             * Method for B-Tree element insertion.
+             * Return the union of this set and the other.
              */
-            int i;
-            NodeData t = new NodeData(key, null);
-
-            /* Considers case where the node is external, i.e., a leaf */
-            if (height == 0) {
-                for (i = 0; i < currentNode.childNo; i++) {
-                    /**
-                     * Use native comparison function to return true iff any children of the current node
-                     * joined strictly earlier than the instant represented by 'date'. If true, break.
-                     */ 
-                    if ((currentNode.ChildArray[i].key) < key) {
-                        break;
-                    }
+            RoaringSet result = new RoaringSet();
+            int i = 0;
+            int j = 0;
+            while ((i < size) || (j < other.size)) {
+                if ((j == other.size) || ((i < size) && (keys[i] < other.keys[j]))) {
+                    result.append(keys[i], containers[i].copy());
+                    i++;
+                } else if ((i == size) || (keys[i] > other.keys[j])) {
+                    result.append(other.keys[j], other.containers[j].copy());
+                    j++;
+                } else {
+                    result.append(keys[i], or(containers[i++], other.containers[j++]));
                 }
             }
-            /* Considers case where the node is internal */
-            else {
-                for (i = 0; i < currentNode.childNo; i++) {
-                    if (((i + 1) == currentNode.childNo) || ((currentNode.ChildArray[i + 1].key) < key)) {
-                        Node inserted = insert(currentNode.ChildArray[i++].next, key, (height - 1));
-                        if (inserted == null) {
-                            return null;
-                        }
-                        t.key  = inserted.ChildArray[0].key;
-                        t.next = inserted;
-                        break;
-                    }
-                }
+            return result;
+        }
+
+        /* ---------- Operations between containers ---------- */
+        /**
+         * An ArrayContainer is combined with any other container by probing each of its (at most 4096) values; all other
+         * pairs are combined word by word, as bitmaps.
+         */
+        private static int andCardinality(Container a, Container b) {
+            if (a instanceof ArrayContainer) {
+                return ((ArrayContainer) a).countIn(b);
+            }
+            if (b instanceof ArrayContainer) {
+                return ((ArrayContainer) b).countIn(a);
             }
+            long[] x = a.toWords();
+            long[] y = b.toWords();
+            int k = 0;
+            for (int w = 0; w < x.length; w++) {
+                k += Long.bitCount(x[w] & y[w]);
+            }
+            return k;
+        }
 
-            for (int j = currentNode.childNo; j > i; j--) {
-                currentNode.ChildArray[j] = currentNode.ChildArray[j - 1];
+        private static Container and(Container a, Container b) {
+            if (a instanceof ArrayContainer) {
+                return ((ArrayContainer) a).filter(b);
             }
+            if (b instanceof ArrayContainer) {
+                return ((ArrayContainer) b).filter(a);
+            }
+            long[] x = a.toWords();
+            long[] y = b.toWords();
+            long[] z = new long[x.length];
+            for (int w = 0; w < x.length; w++) {
+                z[w] = x[w] & y[w];
+            }
+            return fromWords(z);
+        }
 
-            currentNode.ChildArray[i] = t;
-            currentNode.childNo++;
-            if (currentNode.childNo < childMax) {
-                return null;
-            } else {
-                return splitNode(currentNode);
+        private static Container or(Container a, Container b) {
+            if ((a instanceof ArrayContainer) && (b instanceof ArrayContainer)
+                    && (a.getCardinality() + b.getCardinality() <= ARRAY_MAX)) {
+                return ((ArrayContainer) a).merge((ArrayContainer) b);
             }
+            long[] x = a.toWords();
+            long[] y = b.toWords();
+            long[] z = new long[x.length];
+            for (int w = 0; w < x.length; w++) {
+                z[w] = x[w] | y[w];
+            }
+            return fromWords(z);
         }
 
-        public boolean insertPair(int key) {
+        private static Container fromWords(long[] words) {
             /**
-             * Method for Follower B-Tree Date-Follow pair insertion.
+             * Return the smaller of an ArrayContainer and a BitmapContainer holding the given bits.
              */
-            Node inserted = insert(root, key, height);
-            size++;
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                n += Long.bitCount(words[w]);
+            }
+            if (n > ARRAY_MAX) {
+                return new BitmapContainer(words, n);
+            }
 
-            if (inserted == null) {
-                return true;
+            char[] values = new char[n];
+            int k = 0;
+            for (int w = 0; w < words.length; w++) {
+                for (long bits = words[w]; bits != 0; bits &= (bits - 1)) {
+                    values[k++] = (char) ((w << 6) + Long.numberOfTrailingZeros(bits));
+                }
             }
+            return new ArrayContainer(values, n);
+        }
 
-            /* Split root */
-            Node t = new Node(2);
-            t.ChildArray[0] = new NodeData(root.ChildArray[0].key, root);
-            t.ChildArray[1] = new NodeData(inserted.ChildArray[0].key, inserted);
-            root = t;
-            height++;
+        /* ---------- Containers ---------- */
+        private abstract static class Container {
+            abstract int getCardinality();
 
-            return true;
-        }
+            abstract boolean contains(char low);
 
-        public boolean insertFollow(int key, int followKey, Date date) {
-            /**
-             * Method for Follower B-Tree Follow insertion.
-             */
+            abstract Container add(char low);           // Returns the container now holding the value, which may be of another form.
 
-            /**
-             * If the User has no followers and no follows -- i.e., if it is
-             * not in the FollowerTree -- insert it into the tree.
-             */
-            if (!checkExistsFollower(key)) {
-                insertPair(key);
+            abstract Container remove(char low);        // As above.
+
+            abstract long[] toWords();                  // Returns the container as 1024 words; the result must not be modified.
+
+            abstract int fill(int high, int[] out, int at);
+
+            abstract Container copy();
+
+            Container optimise() {
+                /**
+                 * Return a RunContainer of the same values if that is smaller (4 bytes per run, against 2 bytes per
+                 * value or 8KB), this container otherwise.
+                 */
+                RunContainer r = RunContainer.of(this);
+                int bytes = (this instanceof BitmapContainer) ? 8192 : 2 * getCardinality();
+                return (4 * r.runs < bytes) ? r : this;
             }
+        }
 
-            DateTree follows = getFollows(key);    // Declare a DateTree within which to store follows.
+        private static final class ArrayContainer extends Container {
+            private char[] values;
+            private int n;
 
-            /**
-             * If the follow exists in the User's tree,
-             * do not insert it.
-             */
-            if (follows.checkExistsDate(followKey)) {
-                return false;
+            private ArrayContainer() {
+                this(new char[4], 0);
             }
 
-            follows.insertPair(new FollowPair(date, followKey));
-            return true;
-        }
+            private ArrayContainer(char[] values, int n) {
+                this.values = values;
+                this.n      = n;
+            }
 
-        public boolean insertFollower(int key, int followerKey, Date date) {
-            /**
-             * Method for Follower B-Tree Follower insertion; exact analogue of
-             * the above method for followers as opposed to follows.
-             */
-            if (!checkExistsFollower(key)) {
-                 insertPair(key);
+            int getCardinality() {
+                return n;
             }
 
-            DateTree followers = getFollowers(key);
+            private int find(char low) {
+                int lo = 0;
+                int hi = n - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (values[mid] < low) {
+                        lo = mid + 1;
+                    } else if (values[mid] > low) {
+                        hi = mid - 1;
+                    } else {
+                        return mid;
+                    }
+                }
+                return -(lo + 1);
+            }
 
-            if (followers.checkExistsDate(followerKey)) {
-                return false;
+            boolean contains(char low) {
+                return find(low) >= 0;
             }
 
-            followers.insertPair(new FollowPair(date, followerKey));
-            return true;
-        }
+            Container add(char low) {
+                int i = find(low);
+                if (i >= 0) {
+                    return this;
+                }
+                if (n == ARRAY_MAX) {
+                    return new BitmapContainer(toWords(), n).add(low);
+                }
 
-        /* ------ Searching functions ------ */
-        private DateTree findFollows(Node x, int key, int height) {
-            /**
-             * Return those indices of ChildArray which store as elements
-             * the follows of the user. Used by the method getFollows().
-             */
+                i = -i - 1;
+                if (n == values.length) {
+                    char[] more = new char[Math.min(n * 2, ARRAY_MAX)];
+                    System.arraycopy(values, 0, more, 0, n);
+                    values = more;
+                }
+                System.arraycopy(values, i, values, i + 1, n - i);
+                values[i] = low;
+                n++;
+                return this;
+            }
 
-            NodeData[] ChildArray = x.ChildArray;
+            Container remove(char low) {
+                int i = find(low);
+                if (i >= 0) {
+                    System.arraycopy(values, i + 1, values, i, n - i - 1);
+                    n--;
+                }
+                return this;
+            }
 
-            /* Considers case where the node is external, i.e., a leaf */
-            if (height == 0) {
-                for (int j = 0; j < x.childNo; j++) {
-                    if (key == ChildArray[j].key) {
-                        return ChildArray[j].follows;
-                    }
+            long[] toWords() {
+                long[] words = new long[1024];
+                for (int i = 0; i < n; i++) {
+                    words[values[i] >>> 6] |= 1L << values[i];
                 }
+                return words;
             }
 
-            /* Considers case where the node is internal */
-            else {
-                for (int j = 0; j < x.childNo; j++) {
-                    if ((j + 1) == x.childNo || (ChildArray[j + 1].key) < key) {
-                        return findFollows(ChildArray[j].next, key, height-1);
-                    }
+            int fill(int high, int[] out, int at) {
+                for (int i = 0; i < n; i++) {
+                    out[at++] = high | values[i];
                 }
+                return at;
             }
-            return null;
-        }
 
-        private DateTree findFollowers(Node x, int key, int height) {
-            /**
-             * Return those indices of ChildArray which store as elements
-             * the followers of the user. Used by the method getFollowers().
-             */
+            Container copy() {
+                char[] v = new char[n];
+                System.arraycopy(values, 0, v, 0, n);
+                return new ArrayContainer(v, n);
+            }
 
-            NodeData[] ChildArray = x.ChildArray;
+            int countIn(Container other) {
+                int k = 0;
+                for (int i = 0; i < n; i++) {
+                    if (other.contains(values[i])) {
+                        k++;
+                    }
+                }
+                return k;
+            }
 
-            /* Considers case where the node is external, i.e., a leaf */
-            if (height == 0) {
-                for (int j = 0; j < x.childNo; j++) {
-                    if (key == ChildArray[j].key) {
-                        return ChildArray[j].followers;
+            Container filter(Container other) {
+                char[] v = new char[n];
+                int k = 0;
+                for (int i = 0; i < n; i++) {
+                    if (other.contains(values[i])) {
+                        v[k++] = values[i];
                     }
                 }
+                return new ArrayContainer(v, k);
             }
 
-            /* Considers case where the node is internal */
-            else {
-                for (int j = 0; j < x.childNo; j++) {
-                    if ((j + 1) == x.childNo || (ChildArray[j+1].key) < key) {
-                        return findFollowers(ChildArray[j].next, key, height-1);
+            Container merge(ArrayContainer other) {
+                char[] v = new char[n + other.n];
+                int i = 0;
+                int j = 0;
+                int k = 0;
+                while ((i < n) || (j < other.n)) {
+                    if ((j == other.n) || ((i < n) && (values[i] < other.values[j]))) {
+                        v[k++] = values[i++];
+                    } else if ((i == n) || (values[i] > other.values[j])) {
+                        v[k++] = other.values[j++];
+                    } else {
+                        v[k++] = values[i++];
+                        j++;
                     }
                 }
+                return new ArrayContainer(v, k);
             }
-            return null;
         }
 
-        private void searchForID(Node x, int key, int height) {
-            /**
-              * Searching function for User IDs.
-              */
-            NodeData[] ChildArray = x.ChildArray;
+        private static final class BitmapContainer extends Container {
+            private long[] words;
+            private int n;
 
-            /* Considers case where the node is external, i.e., a leaf */
-            if  (height == 0) {
-                for (int j = 0; j < x.childNo; j++) {
-                    if (key == ChildArray[j].key) {
-                        c++;
-                    }
+            private BitmapContainer(long[] words, int n) {
+                this.words = words;
+                this.n     = n;
+            }
+
+            int getCardinality() {
+                return n;
+            }
+
+            boolean contains(char low) {
+                return (words[low >>> 6] & (1L << low)) != 0;
+            }
+
+            Container add(char low) {
+                long bit = 1L << low;
+                if ((words[low >>> 6] & bit) == 0) {
+                    words[low >>> 6] |= bit;
+                    n++;
                 }
+                return this;
             }
 
-            /* Considers case where the node is internal */
-            else {
-                for (int j = 0; j < x.childNo; j++) {
-                    if ((j + 1) == x.childNo || key > ChildArray[j + 1].key) {
-                        searchForID(ChildArray[j].next, key, height-1);
+            Container remove(char low) {
+                long bit = 1L << low;
+                if ((words[low >>> 6] & bit) != 0) {
+                    words[low >>> 6] &= ~bit;
+                    n--;
+                    if (n <= ARRAY_MAX) {
+                        return fromWords(words);
                     }
                 }
+                return this;
             }
-        }
 
-        private void searchFollows(Node x, int height) {
-            /**
-             * Searching function for follows.
-             */
-            NodeData[] ChildArray = x.ChildArray;
+            long[] toWords() {
+                return words;
+            }
 
-            /* Considers case where the node is external, i.e., a leaf */
-            if (height == 0) {
-                for (int j = 0; j < x.childNo; j++) {
-                    TopUsers[c] = (new Follow(ChildArray[j].key, ChildArray[j].followers.getSize()));
-                    c++;
+            int fill(int high, int[] out, int at) {
+                for (int w = 0; w < words.length; w++) {
+                    for (long bits = words[w]; bits != 0; bits &= (bits - 1)) {
+                        out[at++] = high | ((w << 6) + Long.numberOfTrailingZeros(bits));
+                    }
                 }
+                return at;
             }
 
-            /* Considers case where the node is internal */
-            else {
-                for (int j = 0; j < x.childNo; j++) {
-                    searchFollows(ChildArray[j].next, height-1);
-                }
+            Container copy() {
+                return new BitmapContainer(words.clone(), n);
             }
         }
 
-        /* -------- 'Get' functions -------- */
-        public int[] getMutualFollowers(int key1, int key2) {
-            /**
-             * Return an array of those users who are followers of the users with IDs
-             * corresponding to the parameters 'key1' and 'key2'.
-             */
-            FollowPair[] a;
-            DateTree     b;
+        private static final class RunContainer extends Container {
+            private char[] starts;
+            private char[] lengths;                     // The length of each run, less one.
+            private int runs;
+            private int n;
 
-            if (getFollowers(key1).getSize() < getFollowers(key2).getSize()) {
-                a = getFollowers(key1).toArray();
-                b = getFollowers(key2);
-            } else {
-                a = getFollowers(key2).toArray();
-                b = getFollowers(key1);
+            private RunContainer(char[] starts, char[] lengths, int runs, int n) {
+                this.starts  = starts;
+                this.lengths = lengths;
+                this.runs    = runs;
+                this.n       = n;
             }
 
-            DateTree mutual = new DateTree();
+            private static RunContainer of(Container c) {
+                /**
+                 * Return the values of the given container as runs.
+                 */
+                int[] values = new int[c.getCardinality()];
+                c.fill(0, values, 0);
 
-            for (int i = 0; i < a.length; i++) {
-                FollowPair x = b.getUser(a[i].userID);
-                if (x != null) {
-                    if (x.whenJoined.before(a[i].whenJoined)) {
-                        x.whenJoined = a[i].whenJoined;
+                char[] starts  = new char[values.length];
+                char[] lengths = new char[values.length];
+                int runs = 0;
+                for (int i = 0; i < values.length; i++) {
+                    if ((runs > 0) && (values[i] == starts[runs - 1] + lengths[runs - 1] + 1)) {
+                        lengths[runs - 1]++;
+                    } else {
+                        starts[runs]  = (char) values[i];
+                        lengths[runs] = 0;
+                        runs++;
                     }
-                    mutual.insertPair(x);
                 }
-            }
-            return mutual.toUserArray();
-        }
 
-        public int[] getMutualFollows(int key1, int key2) {
-            /**
-             * Return an array of those users who follow the users with IDs corresponding
-             * to the parameters 'key1' and 'key2'.
-             */
-            FollowPair[] a;
-            DateTree     b;
-
-            if (getFollows(key1).getSize() < getFollows(key2).getSize()) {
-                a = getFollows(key1).toArray();
-                b = getFollows(key2);
-            } else {
-                a = getFollows(key2).toArray();
-                b = getFollows(key1);
+                char[] s = new char[runs];
+                char[] l = new char[runs];
+                System.arraycopy(starts, 0, s, 0, runs);
+                System.arraycopy(lengths, 0, l, 0, runs);
+                return new RunContainer(s, l, runs, values.length);
             }
 
-            DateTree mutual = new DateTree();
+            int getCardinality() {
+                return n;
+            }
 
-            for (int i = 0; i < a.length; i++) {
-                FollowPair x = b.getUser(a[i].userID);
-                if (x != null) {
-                    if (x.whenJoined.before(a[i].whenJoined)) {
-                        x.whenJoined = a[i].whenJoined;
+            boolean contains(char low) {
+                /* Binary search for the last run starting at or before 'low'. */
+                int lo = 0;
+                int hi = runs - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (starts[mid] <= low) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid - 1;
                     }
-                    mutual.insertPair(x);
                 }
+                return (hi >= 0) && (low - starts[hi] <= lengths[hi]);
             }
-            return mutual.toUserArray();
-        }
 
-        public int[] getTopUsers() {
-            TopUsers    = new Follow[size];
-            int[] array = new int[size];
-
-            c = 0;
+            Container add(char low) {
+                /**
+                 * Runs are produced by optimise(); a further value is added to the equivalent array or bitmap.
+                 */
+                if (contains(low)) {
+                    return this;
+                }
+                Container c = (n < ARRAY_MAX) ? fromWords(toWords()) : new BitmapContainer(toWords(), n);
+                return c.add(low);
+            }
 
-            searchFollows(root,height);
-            sort(TopUsers, 0, (TopUsers.length - 1));
+            Container remove(char low) {
+                if (!contains(low)) {
+                    return this;
+                }
+                return fromWords(toWords()).remove(low);
+            }
 
-            c = 0;
+            long[] toWords() {
+                long[] words = new long[1024];
+                for (int r = 0; r < runs; r++) {
+                    int end = starts[r] + lengths[r];
+                    for (int v = starts[r]; v <= end; v++) {
+                        words[v >>> 6] |= 1L << v;
+                    }
+                }
+                return words;
+            }
 
-            for (int i = (TopUsers.length - 1); i >= 0; i--) {
-                array[c] = TopUsers[i].id;
-                c++;
+            int fill(int high, int[] out, int at) {
+                for (int r = 0; r < runs; r++) {
+                    int end = starts[r] + lengths[r];
+                    for (int v = starts[r]; v <= end; v++) {
+                        out[at++] = high | v;
+                    }
+                }
+                return at;
             }
 
-            return array;
-        }
+            Container copy() {
+                return new RunContainer(starts.clone(), lengths.clone(), runs, n);
+            }
 
-        private class Follow {
-            private int count;
-            private int id;
-            private Follow(int newid, int size) {
-                id    = newid;
-                count = size;
+            Container optimise() {
+                return this;
             }
         }
     }
 
-    private class FollowPair {
-        private Date whenJoined;
-        private int userID;
+    /* ------------------------------ Implementations for shared edge records (EdgeTable) ----------------------------- */
+    /**
+     * Every relationship held in the records, stored once: the follower (source), the followed User (target) and the
+     * instant of each edge in parallel primitive arrays, indexed by edge ID. Both directions of a relationship -- the
+     * followed User's followers and the follower's 'follows' -- are B-Trees of the same edge ID, so they cannot disagree.
+     *
+     * The arrays are split into chunks of CHUNK edges which, once allocated, never move; a new chunk is published by
+     * replacing the (volatile) array of chunks, so an edge is read without a lock by any thread which has learnt its ID
+     * under a stripe lock. Each edge counts the B-Trees holding it; when compaction has dropped it from both, its ID is
+     * reused.
+     */
+    private static final class EdgeTable {
+        private static final int CHUNK_BITS = 12;
+        private static final int CHUNK      = 1 << CHUNK_BITS;
 
-        private FollowPair(Date date, int iduser) {
-            this.whenJoined = date;
-            userID          = iduser;
+        private static final class Chunk {
+            private final int[] src    = new int[CHUNK];     // Declare the follower of each edge.
+            private final int[] dst    = new int[CHUNK];     // Declare the followed User of each edge.
+            private final long[] times = new long[CHUNK];    // Declare the instant of each edge.
+            private final byte[] refs  = new byte[CHUNK];    // Declare the number of B-Trees holding each edge.
         }
-    }
 
-    /* ------------------------------ Implementations for follower store by date (DateTree) ----------------------------- */
-    private class DateTree {
-        private static final int childMax = 4;    // Every internal node contains a maximum of (childMax) children; the number of elements of any node is thus (childMax - 1) by definition.
+        private volatile Chunk[] chunks = new Chunk[0];
+        private int size;                                    // Declare the number of edge IDs ever allocated.
+        private int[] free = new int[16];                    // Declare the IDs released, for reuse.
+        private int freeNo;
+
+        public int getSource(int edge) {
+            return chunks[edge >>> CHUNK_BITS].src[edge & (CHUNK - 1)];
+        }
 
-        private final class Node {
-            private int childNo;                                       // Declare a variable to store the number of children a node currently has.
-            private NodeData[] ChildArray = new NodeData[childMax];    // Declare an array of children, of size 4 (max. child nodes).
+        public int getTarget(int edge) {
+            return chunks[edge >>> CHUNK_BITS].dst[edge & (CHUNK - 1)];
+        }
 
-            private Node(int c) {
-                childNo = c;                                           // Construct a node with c children.
-            }
+        public long getTime(int edge) {
+            return chunks[edge >>> CHUNK_BITS].times[edge & (CHUNK - 1)];
         }
 
-        private final class NodeData {
+        public synchronized int add(int uid1, int uid2, long time) {
             /**
-             * whenJoined and genUser constitute a key-value pair. Internal nodes use whenJoined and next;
-             * external (leaf) nodes use whenJoined and genUser.
+             * Store a new edge, held by two B-Trees, and return its ID.
              */
-            private Date whenJoined;
-            private FollowPair genUser;
-            private Node next;
-
-            public NodeData(Date whenJoined, FollowPair genUser, Node next) {
-                this.whenJoined = whenJoined;    // genUser.getDateJoined();
-                this.genUser    = genUser;
-                this.next       = next;
+            int edge;
+            if (freeNo > 0) {
+                edge = free[--freeNo];
+            } else {
+                edge = size++;
+                if ((edge >>> CHUNK_BITS) == chunks.length) {
+                    Chunk[] more = new Chunk[chunks.length + 1];
+                    System.arraycopy(chunks, 0, more, 0, chunks.length);
+                    more[chunks.length] = new Chunk();
+                    chunks = more;
+                }
             }
 
+            Chunk c = chunks[edge >>> CHUNK_BITS];
+            int j   = edge & (CHUNK - 1);
+            c.src[j]   = uid1;
+            c.dst[j]   = uid2;
+            c.times[j] = time;
+            c.refs[j]  = 2;
+            return edge;
         }
 
-        /* -- Generic configuration for the BinaryTree -- */
-        private Node root;                                             // Declare the root of the BinaryTree.
-        private int size;                                              // Declare a variable to store the number of users paired with dates ('key-value pairs') in the BinaryTree.
-        private int height;                                            // Declare a variable to monitor the height of the BinaryTree.
-        private int c;                                                 // Declare a variable to monitor the children per node.
-        private FollowPair Temp;
-
-        /* Constructors, Getters and Setters */
-        public DateTree() {
-            root = new Node(0);
+        public synchronized void retain(int edge) {
+            chunks[edge >>> CHUNK_BITS].refs[edge & (CHUNK - 1)]++;
         }
 
-        public int getSize() {
-            return size;
+        public synchronized void release(int[] edges) {
+            /**
+             * Record that one B-Tree no longer holds each of the given edges, freeing those which no B-Tree holds.
+             */
+            for (int i = 0; i < edges.length; i++) {
+                Chunk c = chunks[edges[i] >>> CHUNK_BITS];
+                if (--c.refs[edges[i] & (CHUNK - 1)] == 0) {
+                    if (freeNo == free.length) {
+                        int[] more = new int[free.length * 2];
+                        System.arraycopy(free, 0, more, 0, freeNo);
+                        free = more;
+                    }
+                    free[freeNo++] = edges[i];
+                }
+            }
         }
+    }
 
-        public int getHeight() {
-           return height;
-        }
+    /* ------------------------------ Implementations for follower store by date (DateTree) ----------------------------- */
+    private class DateTree {
 
-        public FollowPair getUser(int key) {
-            Temp = null;
-            c = 0;
-            search(root, key, height);
-            return Temp;
+        /**
+         * The edges of one direction of a record, in a BPlusTree whose entries pair the key ~(instant) -- so that ascending
+         * order is the most recent first -- with the edge ID; edges at the same instant keep the order in which they were
+         * inserted. An edge costs a long and an int per direction, and a search reads the keys of each node in place
+         * rather than the instant of each edge from the EdgeTable.
+         */
+        private final boolean followers;    // Declare whether the tree holds followers (each edge's source) or 'follows' (its target).
+        private final BPlusTree index;      // Declare the B+Tree of (~instant, edge ID) entries.
+
+        /* Constructors, Getters and Setters */
+        public DateTree(boolean followers) {
+            this.followers = followers;
+            this.index     = new BPlusTree();
         }
-        /* --------------------------------- */
 
-        /* ------ Checking functions ------- */
-        public boolean checkExistsDate(int key) {
-            /**
-              * Check if the given key is in the date tree (DateTree).
-              */
-            c = 0;
-            searchForID(root, key, height);
-            return (c != 0);
+        public int getSize() {
+            return index.getSize();
         }
 
-        /* ------- Sorting functions ------- */
-        private Node splitNode(Node currentNode) {
-            /**
-             * Method for B-Tree node splitting.
-             */
-            Node tempNode = new Node(childMax/2);    // Create new Node with (childMax/2) children.
-            currentNode.childNo  =  (childMax/2);
+        public int getHeight() {
+           return index.getHeight();
+        }
 
+        public int getUser(int edge) {
             /**
-             * Iterate through to associate the indices of the old Node's rightmost children with
-             * the indices new Node's leftmost children.
+             * Return the ID of the User at the other end of the given edge: its follower, in a tree of followers.
              */
-            for (int i = 0; i < (childMax/2); i++) {
-                tempNode.ChildArray[i] = currentNode.ChildArray[(childMax/2) + i];
-            }
-            return tempNode;
+            return followers ? edgeTable.getSource(edge) : edgeTable.getTarget(edge);
         }
+        /* --------------------------------- */
 
         /* ------ Inserting functions ------ */
-        public void insertPair(FollowPair genUser) {
+        public void insertEdge(int edge) {
             /**
-             * Method for B-Tree Date-User pair insertion.
+             * Method for B+Tree edge insertion.
              */
-            Date date = genUser.whenJoined;
-
-            Node inserted = insert(root, date, genUser, height);
-            size++;
-
-            if (inserted == null) {
-                return;
-            }
-
-            /* Split root */
-            Node t = new Node(2);
-            t.ChildArray[0] = new NodeData(root.ChildArray[0].whenJoined, null, root);
-            t.ChildArray[1] = new NodeData(inserted.ChildArray[0].whenJoined, null, inserted);
-            root = t;
-            height++;
+            index.insert(~edgeTable.getTime(edge), edge);
         }
 
-        private Node insert(Node currentNode, Date date, FollowPair genUser, int height) {
+        public void build(int[] edges, int n) {
             /**
-             * Method for B-Tree element insertion.
+             * Replace the contents of the tree with the first n of the given edges, which must be most recent first,
+             * building it bottom-up in O(n).
              */
-            int i;
-            NodeData t = new NodeData(date, genUser, null);
-
-            /* Considers case where the node is external, i.e., a leaf */
-            if (height == 0) {
-                for (i = 0; i < currentNode.childNo; i++) {
-                    /**
-                      * Use native comparison function to return true iff any children of the current node
-                      * joined strictly earlier than the instant represented by 'date'. If true, break.
-                      */ 
-                    if ((currentNode.ChildArray[i].whenJoined).before(date)) {
-                        break;
-                    }
-                }
-            }
-            /* Considers case where the node is internal */
-            else {
-                for (i = 0; i < currentNode.childNo; i++) {
-                    if (((i + 1) == currentNode.childNo) || (currentNode.ChildArray[i + 1].whenJoined).before(date)) {
-                        Node inserted = insert(currentNode.ChildArray[i++].next, date, genUser, (height - 1));
-                        if (inserted == null) {
-                            return null;
-                        }
-                        t.whenJoined = inserted.ChildArray[0].whenJoined;
-                        t.next       = inserted;
-                        break;
-                    }
-                }
-            }
-
-            for (int j = currentNode.childNo; j > i; j--) {
-                currentNode.ChildArray[j] = currentNode.ChildArray[j - 1];
-            }
-
-            currentNode.ChildArray[i] = t;
-            currentNode.childNo++;
-            if (currentNode.childNo < childMax) {
-                return null;
-            } else {
-                return splitNode(currentNode);
+            long[] keys = new long[n];
+            for (int j = 0; j < n; j++) {
+                keys[j] = ~edgeTable.getTime(edges[j]);
             }
+            index.build(keys, edges, n);
         }
 
         /* ------ Searching functions ------ */
-        private void search(Node x, int key, int height) {
-            NodeData[] ChildArray = x.ChildArray;
-
-            /* Considers case where the node is external, i.e., a leaf */
-            if (height == 0) {
-                for (int j = 0; j < x.childNo; j++) {
-                    if (key == ChildArray[j].genUser.userID) {
-                        Temp = ChildArray[j].genUser;
-                    }
-                }
-            }
-
-            /* Considers case where the node is internal */
-            else {
-                for (int j = 0; j < x.childNo; j++) {
-                    search(ChildArray[j].next, key, height-1);
-                }
-            }
+        public int countSince(long since) {
+            /**
+             * Return the number of edges at or after the given instant, in O(log(N)): those whose key is at most ~since,
+             * a prefix of the tree.
+             */
+            return index.rankAfter(~since);
         }
 
-        private void searchForID(Node x, int key, int height) {
-            NodeData[] ChildArray = x.ChildArray;
-
-            /* Considers case where the node is external, i.e., a leaf */
-            if (height == 0) {
-                for (int j = 0; j < x.childNo; j++) {
-                    if (key == ChildArray[j].genUser.userID) {
-                        c++;
-                        return;
-                    }
-                }
-            }
-            /* Considers case where the node is internal */
-            else {
-                for (int j = 0; j < x.childNo; j++) {
-                    searchForID(ChildArray[j].next, key, height-1);
+        public int find(long date, int uid) {
+            /**
+             * Return the ID of the edge with the given User at the given instant, or -1 if there is none: a descent to the
+             * first edge at the instant, then a scan of those at the same instant.
+             */
+            long key = ~date;
+            BPlusTree.Cursor cursor = index.seek(key);
+            while (cursor.hasNext() && (cursor.peekKey() == key)) {
+                int edge = cursor.next();
+                if (getUser(edge) == uid) {
+                    return edge;
                 }
             }
+            return -1;
         }
 
         /* ---------- toArray Methods ---------- */
         /**
-         * Functions used (indirectly, for toArray(*)) in the main methods.
+         * Functions used (indirectly, for toArray(*)) in the main methods; each reads the linked leaves with a Cursor of
+         * its own, so that concurrent readers may share the tree.
          */
-        public FollowPair[] toArray() {
-            c = 0;
-
-            FollowPair[]  result = new FollowPair[size];
-            toArray(root, height, result);
-
-            return result;
+        public int[] toArray() {
+            return index.values(0, index.getSize());
         }
 
-        private void toArray(Node currentNode, int height, FollowPair[] result) {
-            NodeData[] ChildArray = currentNode.ChildArray;
-
-            if (height == 0) {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    result[c] = ChildArray[j].genUser;
-                    c++;
-                }
-            } else {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    toArray(ChildArray[j].next, height-1, result);
-                }
-            }
+        public int[] toArraySince(long since) {
+            /**
+             * Return the edges at or after the given instant, most recent first, in O(log(N) + K).
+             */
+            return index.values(0, countSince(since));
         }
 
         public int[] toUserArray() {
-            c = 0;
-
-            int[] result = new int[size];
-            toUserArray(root, height, result);
-
-            return result;
-        }
-
-        private void toUserArray(Node currentNode, int height, int[] result) {
-            NodeData[] ChildArray = currentNode.ChildArray;
-
-            if (height == 0) {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    result[c] = ChildArray[j].genUser.userID;
-                    c++;
-                }
-            } else {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    toUserArray(ChildArray[j].next, height-1, result);
-                }
+            int[] result = toArray();
+            for (int j = 0; j < result.length; j++) {
+                result[j] = getUser(result[j]);
             }
+            return result;
         }
     }
-}
\ No newline at end of file
+}
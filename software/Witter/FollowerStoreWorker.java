@@ -0,0 +1,277 @@
+/**
+ * CS126 Design of Information Structures
+ * FollowerStoreWorker.java
+ *
+ * One partition of a PartitionedFollowerStore, run as a process of its own: a FollowerStore served over a socket. The
+ * coordinator sends each relationship to the partitions of both of its Users, so that a worker holds every follower
+ * and every 'follows' of the Users it owns (those whose ID hashes to its partition) -- and, incidentally, one side of
+ * the relationships of some Users it does not own, which it never reports as theirs.
+ *
+ * The protocol is a sequence of requests on each connection, each answered in turn: an operation byte and its
+ * arguments, then a status byte (OK or ERROR, followed by a message) and the result. IDs, counts and lengths are ints;
+ * instants are longs in milliseconds; every value is big-endian, as written by DataOutputStream.
+ *
+ * Complexity analyses of the main methods:
+ *        -- serve()
+ *              O(1) per request besides the FollowerStore method it calls, except TOP: O(L P) for the L owned Users
+ *              reported out of P partitions, whose Users are interleaved in the leaderboard.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Date;
+
+public class FollowerStoreWorker {
+
+    /* The operations of the protocol. */
+    static final byte ADD        = 1;    // uid1, uid2, time -> boolean
+    static final byte REMOVE     = 2;    // uid1, uid2 -> boolean
+    static final byte FOLLOWERS  = 3;    // uid -> int[]
+    static final byte FOLLOWS    = 4;    // uid -> int[]
+    static final byte TIMED      = 5;    // uid, boolean followers -> (id, time)[]
+    static final byte IS         = 6;    // uid1, uid2 -> boolean
+    static final byte COUNT      = 7;    // uid -> int
+    static final byte MUTUAL     = 8;    // uid1, uid2, boolean followers -> int[]
+    static final byte TOP        = 9;    // limit -> (uid, count)[]
+    static final byte SHUTDOWN   = 10;   // -> nothing
+
+    static final byte OK    = 0;
+    static final byte ERROR = 1;
+
+    private final FollowerStore store;
+    private final int partition;       // Declare the index of this partition.
+    private final int partitions;      // Declare the number of partitions.
+    private final ServerSocket server;
+
+    public FollowerStoreWorker(FollowerStore store, int partition, int partitions, int port) throws IOException {
+        this.store      = store;
+        this.partition  = partition;
+        this.partitions = partitions;
+        this.server     = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public static void main(String[] args) throws IOException {
+        /**
+         * Run a worker: FollowerStoreWorker port partition partitions [directory]. The store is persistent if a
+         * directory is given. Once listening, the worker writes "LISTENING <port>" to standard output -- so that a
+         * port of 0 may be chosen by the system and reported to the launcher -- and serves until told to shut down.
+         */
+        if (args.length < 3) {
+            System.err.println("Usage: FollowerStoreWorker port partition partitions [directory]");
+            System.exit(2);
+        }
+        int port       = Integer.parseInt(args[0]);
+        int partition  = Integer.parseInt(args[1]);
+        int partitions = Integer.parseInt(args[2]);
+        FollowerStore store = (args.length > 3) ? FollowerStore.open(new File(args[3])) : new FollowerStore();
+
+        FollowerStoreWorker worker = new FollowerStoreWorker(store, partition, partitions, port);
+        System.out.println("LISTENING " + worker.getPort());
+        System.out.flush();
+        worker.serve();
+    }
+
+    public void serve() throws IOException {
+        /**
+         * Accept connections until shut down, serving each on a thread of its own; the FollowerStore is thread-safe.
+         */
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (server.isClosed()) {
+                    break;
+                }
+                throw e;
+            }
+            socket.setTcpNoDelay(true);
+
+            Thread connection = new Thread() {
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        System.err.println("Partition " + partition + ": " + e);
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // The connection is already lost.
+                        }
+                    }
+                }
+            };
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        DataInputStream in   = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        while (true) {
+            byte op;
+            try {
+                op = in.readByte();
+            } catch (EOFException e) {
+                return;
+            }
+
+            if (op == SHUTDOWN) {
+                out.writeByte(OK);
+                out.flush();
+                shutdown();
+                return;
+            }
+
+            /* The arguments are read in full before the store is called, so that a failure leaves the stream aligned. */
+            int uid1         = 0;
+            int uid2         = 0;
+            long time        = 0;
+            boolean followers = false;
+            if ((op == ADD) || (op == REMOVE) || (op == IS) || (op == MUTUAL)) {
+                uid1 = in.readInt();
+                uid2 = in.readInt();
+            } else {
+                uid1 = in.readInt();
+            }
+            if (op == ADD) {
+                time = in.readLong();
+            }
+            if ((op == TIMED) || (op == MUTUAL)) {
+                followers = in.readBoolean();
+            }
+
+            try {
+                respond(op, uid1, uid2, time, followers, out);
+            } catch (RuntimeException e) {
+                out.writeByte(ERROR);
+                out.writeUTF(String.valueOf(e));
+            }
+            out.flush();
+        }
+    }
+
+    private void respond(byte op, int uid1, int uid2, long time, boolean followers, DataOutputStream out) throws IOException {
+        /**
+         * Call the store, and write the status and result; a RuntimeException thrown by the store is reported as ERROR,
+         * which is possible since nothing is written until the store has answered.
+         */
+        if (op == ADD) {
+            boolean added = store.addFollower(uid1, uid2, new Date(time));
+            out.writeByte(OK);
+            out.writeBoolean(added);
+        } else if (op == REMOVE) {
+            boolean removed = store.removeFollower(uid1, uid2);
+            out.writeByte(OK);
+            out.writeBoolean(removed);
+        } else if ((op == FOLLOWERS) || (op == FOLLOWS)) {
+            int[] ids = (op == FOLLOWERS) ? store.getFollowers(uid1) : store.getFollows(uid1);
+            out.writeByte(OK);
+            writeInts(out, ids);
+        } else if (op == TIMED) {
+            long[] pairs = store.getTimed(uid1, followers);
+            out.writeByte(OK);
+            out.writeInt(pairs.length / 2);
+            for (int i = 0; i < pairs.length; i += 2) {
+                out.writeInt((int) pairs[i]);
+                out.writeLong(pairs[i + 1]);
+            }
+        } else if (op == IS) {
+            boolean follows = store.isAFollower(uid1, uid2);
+            out.writeByte(OK);
+            out.writeBoolean(follows);
+        } else if (op == COUNT) {
+            int count = store.getNumFollowers(uid1);
+            out.writeByte(OK);
+            out.writeInt(count);
+        } else if (op == MUTUAL) {
+            int[] ids = followers ? store.getMutualFollowers(uid1, uid2) : store.getMutualFollows(uid1, uid2);
+            out.writeByte(OK);
+            writeInts(out, ids);
+        } else if (op == TOP) {
+            writeTop(out, uid1);
+        } else {
+            throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+
+    private void writeTop(DataOutputStream out, int limit) throws IOException {
+        /**
+         * Write the (at most 'limit') Users owned by this partition with the most followers, with their counts. The
+         * leaderboard also ranks Users owned elsewhere, by partial counts, so ever longer prefixes of it are taken until
+         * enough owned Users are found; owned Users keep their relative order, since their counts here are complete.
+         */
+        int[] uids   = new int[Math.min(limit, 1024)];
+        int[] counts = new int[uids.length];
+        int found    = 0;
+
+        int taken = 0;
+        for (int prefix = Math.max(16, limit); found < limit; prefix *= 2) {
+            int[] top = store.getTopUsers(prefix);
+            for (int i = taken; (i < top.length) && (found < limit); i++) {
+                if (PartitionedFollowerStore.partition(top[i], partitions) == partition) {
+                    if (found == uids.length) {
+                        uids   = grow(uids, (int) Math.min(limit, 2L * found));
+                        counts = grow(counts, uids.length);
+                    }
+                    uids[found]   = top[i];
+                    counts[found] = store.getNumFollowers(top[i]);
+                    found++;
+                }
+            }
+            if ((top.length < prefix) || (prefix > (Integer.MAX_VALUE / 2))) {
+                break;
+            }
+            taken = top.length;
+        }
+
+        out.writeByte(OK);
+        out.writeInt(found);
+        for (int i = 0; i < found; i++) {
+            out.writeInt(uids[i]);
+            out.writeInt(counts[i]);
+        }
+    }
+
+    private static int[] grow(int[] array, int length) {
+        int[] more = new int[length];
+        System.arraycopy(array, 0, more, 0, array.length);
+        return more;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ids) throws IOException {
+        out.writeInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            out.writeInt(ids[i]);
+        }
+    }
+
+    private void shutdown() throws IOException {
+        /**
+         * Stop accepting connections and close the store, flushing a persistent one.
+         */
+        server.close();
+        store.close();
+    }
+}
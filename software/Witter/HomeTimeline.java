@@ -0,0 +1,503 @@
+/**
+ * CS126 Design of Information Structures
+ * HomeTimeline.java
+ *
+ * For displaying a User's home timeline -- the weets of everyone that User follows, most recent first -- I combined
+ * the three stores with 2 further data structures:
+ *      - a binary heap, for a k-way merge of the (already chronologically sorted) weets of each followee;
+ *      - an Inbox per User, i.e., a bounded sorted array into which weets are pushed when they are posted.
+ *
+ * Weets are delivered by one of two strategies, chosen for each follow when it is made, by the number of followers
+ * the followed author then has:
+ *      - fan-out-on-write: if the author has at most 'fanoutThreshold' followers, each new weet is pushed into the
+ *        Inbox of the follower, so reading it back costs nothing further;
+ *      - fan-out-on-read: otherwise the author's weets are fetched from the WeetStore when a timeline is read, as
+ *        pushing to millions of Inboxes on every weet would be prohibitive.
+ * The decision is recorded with the follow, so that a later change in the author's number of followers moves no
+ * weets between the strategies. A threshold of 0 disables the Inboxes entirely, and every timeline is then assembled
+ * on read.
+ *
+ * An Inbox keeps only its most recent weets; below the latest instant of a weet it discarded, the merge continues
+ * with the fanned-out authors read from the WeetStore instead.
+ *
+ * Complexity analyses of the main methods:
+ *        -- addWeet()
+ *              O(A log(I)): Insertion into the Inbox (of capacity I) of each of the A followers to whom the author's weets are pushed.
+ *
+ *        -- getHomeTimeline()
+ *              O(F (log(W) + L) + L log(F)): For F followees, each read by author (W weets apiece) up to L = limit weets, then L weets taken from the heap.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import uk.ac.warwick.java.cs126.models.User;
+import uk.ac.warwick.java.cs126.models.Weet;
+
+import java.util.Arrays;
+import java.util.Date;
+
+public class HomeTimeline {
+
+    private UserStore users;
+    private WeetStore weets;
+    private FollowerStore followers;
+
+    private int fanoutThreshold;                    // Authors with at most this many followers are fanned out on write.
+    private int inboxCapacity;                      // The number of weets retained in each Inbox.
+    private InboxTable inboxes = new InboxTable();
+
+    public HomeTimeline(UserStore users, WeetStore weets, FollowerStore followers) {
+        /**
+         * Construct a timeline which is assembled entirely on read.
+         */
+        this(users, weets, followers, 0, 0);
+    }
+
+    public HomeTimeline(UserStore users, WeetStore weets, FollowerStore followers, int fanoutThreshold, int inboxCapacity) {
+        this.users           = users;
+        this.weets           = weets;
+        this.followers       = followers;
+        this.fanoutThreshold = fanoutThreshold;
+        this.inboxCapacity   = inboxCapacity;
+    }
+
+    public boolean addWeet(Weet weet) {
+        /**
+         * Add the weet to the WeetStore and push it into the Inbox of each follower whose follow of the author was
+         * fanned out on write.
+         */
+        if (!weets.addWeet(weet)) {
+            return false;
+        }
+
+        Inbox author = inboxes.find(weet.getUserId());
+        if (author != null) {
+            for (int i = 0; i < author.audience.size; i++) {
+                inboxes.get(author.audience.ids[i]).insert(weet);
+            }
+        }
+        return true;
+    }
+
+    public boolean addFollower(int uid1, int uid2, Date followDate) {
+        /**
+         * Add the follower relationship (uid1 follows uid2) to the FollowerStore; if uid2 has at most
+         * 'fanoutThreshold' followers, record the follow as fanned out on write and backfill the Inbox of uid1
+         * with the weets uid2 posted before the relationship existed.
+         */
+        if (!followers.addFollower(uid1, uid2, followDate)) {
+            return false;
+        }
+
+        if ((inboxCapacity > 0) && (followers.getNumFollowers(uid2) <= fanoutThreshold)) {
+            inboxes.get(uid2).audience.add(uid1);
+            Inbox inbox = inboxes.get(uid1);
+            inbox.sources.add(uid2);
+
+            /* One weet beyond the capacity, so that any weet left out raises the floor of the Inbox. */
+            User usr = users.getUser(uid2);
+            if (usr != null) {
+                Weet[] posted = weets.getWeetsByUser(usr, null, inboxCapacity + 1);
+                for (int i = 0; i < posted.length; i++) {
+                    inbox.insert(posted[i]);
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean removeFollower(int uid1, int uid2) {
+        /**
+         * Remove the follower relationship (uid1 follows uid2) from the FollowerStore, together with its
+         * fan-out record and any of uid2's weets pushed into the Inbox of uid1.
+         */
+        if (!followers.removeFollower(uid1, uid2)) {
+            return false;
+        }
+
+        Inbox author = inboxes.find(uid2);
+        if (author != null) {
+            author.audience.remove(uid1);
+        }
+        Inbox inbox = inboxes.find(uid1);
+        if ((inbox != null) && inbox.sources.remove(uid2)) {
+            inbox.purge(uid2);
+        }
+        return true;
+    }
+
+    public Weet[] getHomeTimeline(int uid, int limit) {
+        /**
+         * Return at most 'limit' weets posted by the users whom the given user follows, with the most
+         * recently posted weet first; an empty array if 'limit' is not positive.
+         */
+        if (limit <= 0) {
+            return new Weet[0];
+        }
+
+        int[] follows   = followers.getFollows(uid);
+        Inbox inbox     = inboxes.find(uid);
+        Weet[][] stream = new Weet[follows.length + 1][];
+        int[] pushed    = new int[follows.length];
+        int k = 0;
+        int p = 0;
+
+        for (int i = 0; i < follows.length; i++) {
+            if ((inbox != null) && inbox.sources.contains(follows[i])) {
+                pushed[p++] = follows[i];
+                continue;
+            }
+            User usr = users.getUser(follows[i]);
+            if (usr != null) {
+                stream[k++] = weets.getWeetsByUser(usr, null, limit);
+            }
+        }
+
+        if (p == 0) {
+            return merge(stream, k, limit);
+        }
+
+        /**
+         * The Inbox holds the weets of the fanned-out followees, complete only after its floor. Should the merge
+         * reach the floor, it is resumed there with those followees read from the WeetStore in the Inbox's place.
+         */
+        Arrays.sort(pushed, 0, p);
+        stream[k] = inbox.toArray(pushed, p);
+        Weet[] result = merge(stream, k + 1, limit);
+
+        int c = 0;
+        while ((c < result.length) && (result[c].getDateWeeted().getTime() > inbox.floor)) {
+            c++;
+        }
+        if ((c == limit) || (inbox.floor == Long.MIN_VALUE)) {
+            return result;
+        }
+
+        Date floor = new Date(inbox.floor);
+        for (int s = 0; s < k; s++) {
+            stream[s] = until(stream[s], inbox.floor);
+        }
+        for (int i = 0; i < p; i++) {
+            User usr = users.getUser(pushed[i]);
+            if (usr != null) {
+                stream[k++] = weets.getWeetsByUser(usr, floor, limit - c);
+            }
+        }
+
+        Weet[] rest  = merge(stream, k, limit - c);
+        Weet[] whole = new Weet[c + rest.length];
+        System.arraycopy(result, 0, whole, 0, c);
+        System.arraycopy(rest, 0, whole, c, rest.length);
+        return whole;
+    }
+
+    private Weet[] until(Weet[] a, long floor) {
+        /**
+         * Return the weets of a stream posted no later than 'floor', still with the most recent first.
+         */
+        int i = 0;
+        while ((i < a.length) && (a[i].getDateWeeted().getTime() > floor)) {
+            i++;
+        }
+        Weet[] rest = new Weet[a.length - i];
+        System.arraycopy(a, i, rest, 0, rest.length);
+        return rest;
+    }
+
+    /* ------------------------------ Implementations for the k-way merge (binary heap) ----------------------------- */
+    private Weet[] merge(Weet[][] stream, int k, int limit) {
+        /**
+         * Merge the first k streams, each sorted such that the most recent weet is first, into a single array of
+         * at most 'limit' weets. A max-heap of stream indices, ordered by the date of each stream's current weet,
+         * yields the most recent remaining weet in O(log(k)); the merge stops as soon as 'limit' weets are taken.
+         */
+        int[] cursor = new int[k];
+        int[] heap   = new int[k];
+        int n = 0;
+
+        for (int s = 0; s < k; s++) {
+            if (advance(stream, s, cursor)) {
+                heap[n] = s;
+                siftUp(heap, n, stream, cursor);
+                n++;
+            }
+        }
+
+        long total = 0;
+        for (int s = 0; s < k; s++) {
+            total += stream[s].length;
+        }
+
+        Weet[] result = new Weet[(int) Math.min(limit, total)];
+        int c = 0;
+
+        while ((n > 0) && (c < limit)) {
+            int s = heap[0];
+            result[c++] = stream[s][cursor[s]++];
+
+            if (advance(stream, s, cursor)) {
+                siftDown(heap, n, stream, cursor);
+            } else {
+                heap[0] = heap[--n];
+                siftDown(heap, n, stream, cursor);
+            }
+        }
+
+        if (c < result.length) {
+            Weet[] trimmed = new Weet[c];
+            System.arraycopy(result, 0, trimmed, 0, c);
+            return trimmed;
+        }
+        return result;
+    }
+
+    private boolean advance(Weet[][] stream, int s, int[] cursor) {
+        /**
+         * Move the cursor of stream s past any null entries, returning false once the stream is exhausted.
+         */
+        Weet[] a = stream[s];
+
+        while (cursor[s] < a.length) {
+            if (a[cursor[s]] != null) {
+                return true;
+            }
+            cursor[s]++;
+        }
+        return false;
+    }
+
+    private boolean later(Weet[][] stream, int[] cursor, int s, int t) {
+        return stream[s][cursor[s]].getDateWeeted().after(stream[t][cursor[t]].getDateWeeted());
+    }
+
+    private void siftUp(int[] heap, int i, Weet[][] stream, int[] cursor) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!later(stream, cursor, heap[i], heap[parent])) {
+                return;
+            }
+            int swap     = heap[i];
+            heap[i]      = heap[parent];
+            heap[parent] = swap;
+            i            = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int n, Weet[][] stream, int[] cursor) {
+        int i = 0;
+
+        while (true) {
+            int largest = i;
+            int left    = (2 * i) + 1;
+            int right   = left + 1;
+
+            if ((left < n) && later(stream, cursor, heap[left], heap[largest])) {
+                largest = left;
+            }
+            if ((right < n) && later(stream, cursor, heap[right], heap[largest])) {
+                largest = right;
+            }
+            if (largest == i) {
+                return;
+            }
+            int swap      = heap[i];
+            heap[i]       = heap[largest];
+            heap[largest] = swap;
+            i             = largest;
+        }
+    }
+
+    /* ------------------------------ Implementations for fan-out-on-write (Inbox) ----------------------------- */
+    /**
+     * Create a bounded Inbox data type from scratch; weets are kept in an array sorted such that the most recent
+     * weet is *last*, so that the common case -- a newly posted weet -- is an append. Once the capacity is reached,
+     * the oldest weet is discarded, and the floor raised to its instant: every weet pushed since is retained if it
+     * is later than the floor. The Inbox also records the fan-out follows its User takes part in: the authors whose
+     * weets are pushed to it (sources) and the followers its own weets are pushed to (audience).
+     */
+    private class Inbox {
+
+        private Weet[] items   = new Weet[4];
+        private int size;
+        private long floor     = Long.MIN_VALUE;     // The latest instant of a weet discarded, if any.
+        private IdSet sources  = new IdSet();
+        private IdSet audience = new IdSet();
+
+        public void insert(Weet weet) {
+            Date date = weet.getDateWeeted();
+            int lo = 0;
+            int hi = size;
+
+            /* Binary search for the first weet posted strictly after 'date'. */
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (items[mid].getDateWeeted().after(date)) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+
+            if (size == inboxCapacity) {
+                if (lo == 0) {
+                    floor = Math.max(floor, date.getTime());                 // Older than everything retained.
+                    return;
+                }
+                floor = Math.max(floor, items[0].getDateWeeted().getTime());
+                System.arraycopy(items, 1, items, 0, lo - 1);                // Discard the oldest weet.
+                items[lo - 1] = weet;
+                return;
+            }
+
+            if (size == items.length) {
+                Weet[] more = new Weet[Math.min(items.length * 2, inboxCapacity)];
+                System.arraycopy(items, 0, more, 0, size);
+                items = more;
+            }
+            System.arraycopy(items, lo, items, lo + 1, size - lo);
+            items[lo] = weet;
+            size++;
+        }
+
+        public void purge(int uid) {
+            /**
+             * Remove the weets of the given author.
+             */
+            int c = 0;
+            for (int i = 0; i < size; i++) {
+                if (items[i].getUserId() != uid) {
+                    items[c++] = items[i];
+                }
+            }
+            for (int i = c; i < size; i++) {
+                items[i] = null;
+            }
+            size = c;
+        }
+
+        public Weet[] toArray(int[] uids, int n) {
+            /**
+             * Return the weets posted after the floor by the first n of the given (sorted) authors, with the most
+             * recent weet first.
+             */
+            Weet[] result = new Weet[size];
+            int c = 0;
+
+            for (int i = size - 1; (i >= 0) && (items[i].getDateWeeted().getTime() > floor); i--) {
+                if (Arrays.binarySearch(uids, 0, n, items[i].getUserId()) >= 0) {
+                    result[c++] = items[i];
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Create a set of User IDs from scratch, as a sorted array; membership is a binary search.
+     */
+    private class IdSet {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        public boolean contains(int uid) {
+            return Arrays.binarySearch(ids, 0, size, uid) >= 0;
+        }
+
+        public void add(int uid) {
+            int i = Arrays.binarySearch(ids, 0, size, uid);
+            if (i >= 0) {
+                return;
+            }
+            i = -(i + 1);
+
+            if (size == ids.length) {
+                int[] more = new int[size * 2];
+                System.arraycopy(ids, 0, more, 0, size);
+                ids = more;
+            }
+            System.arraycopy(ids, i, ids, i + 1, size - i);
+            ids[i] = uid;
+            size++;
+        }
+
+        public boolean remove(int uid) {
+            int i = Arrays.binarySearch(ids, 0, size, uid);
+            if (i < 0) {
+                return false;
+            }
+            System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+            size--;
+            return true;
+        }
+    }
+
+    /**
+     * Create a HashTable of Inboxes, keyed by User ID, from scratch; analogous to UserStore.HashTable, though the
+     * table doubles once it holds as many Inboxes as it has buckets.
+     */
+    private class InboxTable {
+
+        private final class Entry {
+            private int uid;
+            private Inbox inbox;
+            private Entry next;
+
+            private Entry(int uid, Inbox inbox, Entry next) {
+                this.uid   = uid;
+                this.inbox = inbox;
+                this.next  = next;
+            }
+        }
+
+        private Entry[] table = new Entry[97];
+        private int size;
+
+        private int location(int uid, int length) {
+            return (uid & 0x7fffffff) % length;
+        }
+
+        public Inbox find(int uid) {
+            for (Entry e = table[location(uid, table.length)]; e != null; e = e.next) {
+                if (e.uid == uid) {
+                    return e.inbox;
+                }
+            }
+            return null;
+        }
+
+        public Inbox get(int uid) {
+            /**
+             * Return the Inbox of the given user, creating it if necessary.
+             */
+            Inbox inbox = find(uid);
+            if (inbox != null) {
+                return inbox;
+            }
+
+            if (size == table.length) {
+                Entry[] old = table;
+                table = new Entry[(old.length * 2) + 1];
+                for (int i = 0; i < old.length; i++) {
+                    for (Entry e = old[i]; e != null; ) {
+                        Entry next = e.next;
+                        int l      = location(e.uid, table.length);
+                        e.next     = table[l];
+                        table[l]   = e;
+                        e          = next;
+                    }
+                }
+            }
+
+            inbox = new Inbox();
+            int l = location(uid, table.length);
+            table[l] = new Entry(uid, inbox, table[l]);
+            size++;
+            return inbox;
+        }
+    }
+}
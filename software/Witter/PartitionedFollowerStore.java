@@ -0,0 +1,593 @@
+/**
+ * CS126 Design of Information Structures
+ * PartitionedFollowerStore.java
+ *
+ * For follower graphs too large for one process, the relationships are hash-partitioned by User across several
+ * FollowerStoreWorker processes, and this coordinator answers the FollowerStore queries over sockets. Each User is
+ * owned by one partition, chosen by a Fibonacci hash of their ID; a relationship is sent to the partitions of both of
+ * its Users, so that the owner of a User holds all of their followers and all of their 'follows'. Queries about one User
+ * are therefore routed to a single worker, and only those about several -- mutuals of Users owned by different
+ * partitions, and the top Users -- are scattered to several and their results merged here:
+ *        -- mutuals: both Users' lists, each most recent first with its instants, are merged by instant, so that each
+ *           mutual is met first at the later of its two instants -- the order of FollowerStore -- without a sort;
+ *        -- top Users: each worker returns its own Users with the most followers, and the lists are merged by count.
+ *
+ * A request is written to every worker involved before any reply is read, so the workers answer in parallel. Each
+ * worker is reached through one connection, used by one request at a time; the two sides of a relationship are
+ * written under a lock striped by the pair, so that they are applied in the same order on both partitions.
+ *
+ * That ordering holds only within one coordinator: the workers apply each request as it arrives, and do not order the
+ * writes of different coordinators against each other, so two coordinators updating the same pair could leave its two
+ * sides disagreeing. The design is therefore one coordinator per set of workers -- the one which launch()es them; the
+ * constructor taking the addresses of running workers is package-private, for tests and tools which know that no
+ * other coordinator is attached.
+ *
+ * Complexity analyses of the main methods (P partitions; each also a round trip to one or more workers):
+ *        -- addFollower()
+ *              O(log(N)) on each of two workers, in parallel.
+ *
+ *        -- getFollowers(), getFollows(), isAFollower(), getNumFollowers()
+ *              As FollowerStore, on the owner of the User.
+ *
+ *        -- getMutualFollowers(), getMutualFollows()
+ *              As FollowerStore if both Users have the same owner; otherwise O(M + N) to merge their lists of sizes M and N.
+ *
+ *        -- getTopUsers()
+ *              O(L P): The best L of each worker, merged by repeatedly taking the greatest head.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+public class PartitionedFollowerStore implements IFollowerStore {
+
+    private static final int STRIPES = 256;
+
+    private final Connection[] workers;                // Declare one connection per partition, by index.
+    private final Process[] processes;                 // Declare the worker processes launched by this coordinator, or null.
+    private final Object[] stripes = new Object[STRIPES];
+
+    PartitionedFollowerStore(InetSocketAddress[] workers) throws IOException {
+        /**
+         * Coordinate the running workers at the given addresses; worker i must serve partition i of workers.length, and
+         * no other coordinator may update them meanwhile.
+         */
+        this(workers, null);
+    }
+
+    private PartitionedFollowerStore(InetSocketAddress[] addresses, Process[] processes) throws IOException {
+        this.workers   = new Connection[addresses.length];
+        this.processes = processes;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        for (int i = 0; i < addresses.length; i++) {
+            workers[i] = new Connection(i, addresses[i]);
+        }
+    }
+
+    public static PartitionedFollowerStore launch(int partitions, File directory) throws IOException {
+        /**
+         * Start the given number of worker processes on this machine, each a JVM running FollowerStoreWorker on a port
+         * of the system's choosing, and coordinate them. If a directory is given, worker i keeps a persistent store in
+         * its subdirectory "partition-i". The workers are shut down by close().
+         */
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String path = System.getProperty("java.class.path");
+
+        Process[] processes = new Process[partitions];
+        InetSocketAddress[] addresses = new InetSocketAddress[partitions];
+        try {
+            for (int i = 0; i < partitions; i++) {
+                ProcessBuilder builder = (directory == null)
+                    ? new ProcessBuilder(java, "-cp", path, FollowerStoreWorker.class.getName(), "0", "" + i, "" + partitions)
+                    : new ProcessBuilder(java, "-cp", path, FollowerStoreWorker.class.getName(), "0", "" + i, "" + partitions,
+                                         new File(directory, "partition-" + i).getPath());
+                builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+                processes[i] = builder.start();
+            }
+
+            /* Each worker reports the port it is listening on once its store is open. */
+            for (int i = 0; i < partitions; i++) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(processes[i].getInputStream()));
+                String line = reader.readLine();
+                if ((line == null) || !line.startsWith("LISTENING ")) {
+                    throw new IOException("Partition " + i + " failed to start");
+                }
+                int port     = Integer.parseInt(line.substring("LISTENING ".length()).trim());
+                addresses[i] = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            }
+            return new PartitionedFollowerStore(addresses, processes);
+        } catch (IOException e) {
+            for (int i = 0; i < partitions; i++) {
+                if (processes[i] != null) {
+                    processes[i].destroyForcibly();
+                }
+            }
+            throw e;
+        }
+    }
+
+    static int partition(int uid, int partitions) {
+        /**
+         * Return the partition owning the given User; Fibonacci hashing spreads consecutive IDs across partitions.
+         */
+        int h = uid * 0x9E3779B9;
+        return (int) ((((long) (h ^ (h >>> 16))) & 0xFFFFFFFFL) % partitions);
+    }
+
+    private Connection owner(int uid) {
+        return workers[partition(uid, workers.length)];
+    }
+
+    /* ------------------------------ Updates ----------------------------- */
+    public boolean addFollower(int uid1, int uid2, Date followDate) {
+        /**
+         * Add a follower relationship, on the owners of both Users; return true if it was added, as reported by the
+         * owner of the User followed.
+         */
+        return update(FollowerStoreWorker.ADD, uid1, uid2, followDate.getTime());
+    }
+
+    public boolean removeFollower(int uid1, int uid2) {
+        /**
+         * Remove a follower relationship, on the owners of both Users; return true if it existed.
+         */
+        return update(FollowerStoreWorker.REMOVE, uid1, uid2, 0);
+    }
+
+    private boolean update(byte op, int uid1, int uid2, long time) {
+        Connection follower = owner(uid1);
+        Connection followed = owner(uid2);
+
+        synchronized (stripes[(((uid1 * 31) + uid2) & 0x7FFFFFFF) % STRIPES]) {
+            Connection first  = (follower.index <= followed.index) ? follower : followed;
+            Connection second = (follower.index <= followed.index) ? followed : follower;
+
+            synchronized (first) {
+                synchronized (second) {
+                    first.writePair(op, uid1, uid2, time);
+                    if (second != first) {
+                        second.writePair(op, uid1, uid2, time);
+                    }
+
+                    /* Both replies are read, even if the first is an error, so that neither stream is left part-way. */
+                    boolean a = false;
+                    RuntimeException failure = null;
+                    try {
+                        a = first.readBoolean();
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                    boolean b = (second != first) ? second.readBoolean() : a;
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return (followed == first) ? a : b;
+                }
+            }
+        }
+    }
+
+    /* ------------------------------ Queries routed to one owner ----------------------------- */
+    public int[] getFollowers(int uid) {
+        /**
+         * Return the IDs of the followers of the given User, most recent first, from their owner.
+         */
+        Connection c = owner(uid);
+        synchronized (c) {
+            c.writeUser(FollowerStoreWorker.FOLLOWERS, uid);
+            return c.readInts(c.readStatus());
+        }
+    }
+
+    public int[] getFollows(int uid) {
+        Connection c = owner(uid);
+        synchronized (c) {
+            c.writeUser(FollowerStoreWorker.FOLLOWS, uid);
+            return c.readInts(c.readStatus());
+        }
+    }
+
+    public boolean isAFollower(int uid1, int uid2) {
+        /**
+         * Return true if the User with ID uid1 follows the User with ID uid2, from the owner of uid2.
+         */
+        Connection c = owner(uid2);
+        synchronized (c) {
+            c.writePair(FollowerStoreWorker.IS, uid1, uid2, 0);
+            return c.readBoolean();
+        }
+    }
+
+    public int getNumFollowers(int uid) {
+        Connection c = owner(uid);
+        synchronized (c) {
+            c.writeUser(FollowerStoreWorker.COUNT, uid);
+            try {
+                return c.readStatus().readInt();
+            } catch (IOException e) {
+                throw c.failed(e);
+            }
+        }
+    }
+
+    /* ------------------------------ Queries gathered from several owners ----------------------------- */
+    public int[] getMutualFollowers(int uid1, int uid2) {
+        /**
+         * Return the IDs of the Users that follow both given Users, sorted such that the most recent relationship (the
+         * later of the two instants) is first.
+         */
+        return getMutual(uid1, uid2, true);
+    }
+
+    public int[] getMutualFollows(int uid1, int uid2) {
+        return getMutual(uid1, uid2, false);
+    }
+
+    private int[] getMutual(int uid1, int uid2, boolean followers) {
+        Connection a = owner(uid1);
+        Connection b = owner(uid2);
+
+        if (a == b) {
+            synchronized (a) {
+                a.writeMutual(uid1, uid2, followers);
+                return a.readInts(a.readStatus());
+            }
+        }
+
+        Connection first  = (a.index < b.index) ? a : b;
+        Connection second = (a.index < b.index) ? b : a;
+        TimedList x;
+        TimedList y;
+        synchronized (first) {
+            synchronized (second) {
+                a.writeTimed(uid1, followers);
+                b.writeTimed(uid2, followers);
+                x = a.readTimed();
+                y = b.readTimed();
+            }
+        }
+        return merge(x, y);
+    }
+
+    private static int[] merge(TimedList x, TimedList y) {
+        /**
+         * Return the IDs in both lists -- each most recent first -- ordered by the later of their two instants, most
+         * recent first. The lists are merged by instant, and each ID in both is taken where it is first met, i.e., at the
+         * later of its instants; O(M + N), with a hashed lookup of the instant of each ID in the other list.
+         */
+        TimeTable inX = new TimeTable(x);
+        TimeTable inY = new TimeTable(y);
+
+        int[] result = new int[Math.min(x.size, y.size)];
+        int k = 0;
+        int i = 0;
+        int j = 0;
+        while ((i < x.size) || (j < y.size)) {
+            if ((j == y.size) || ((i < x.size) && (x.times[i] >= y.times[j]))) {
+                long other = inY.get(x.ids[i]);
+                if ((other != TimeTable.ABSENT) && (other <= x.times[i])) {
+                    result[k++] = x.ids[i];
+                }
+                i++;
+            } else {
+                long other = inX.get(y.ids[j]);
+                if ((other != TimeTable.ABSENT) && (other < y.times[j])) {
+                    result[k++] = y.ids[j];
+                }
+                j++;
+            }
+        }
+
+        int[] mutual = new int[k];
+        System.arraycopy(result, 0, mutual, 0, k);
+        return mutual;
+    }
+
+    public int[] getTopUsers() {
+        return getTopUsers(Integer.MAX_VALUE);
+    }
+
+    public int[] getTopUsers(int limit) {
+        /**
+         * Return the IDs of at most 'limit' Users, sorted such that the User with the most followers is first: the best
+         * of each partition's own Users, merged by count.
+         */
+        int n = workers.length;
+        int[][] uids   = new int[n][];
+        int[][] counts = new int[n][];
+        gatherTop(0, limit, uids, counts);
+
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            total += uids[i].length;
+        }
+        int[] result = new int[Math.min(total, limit)];
+        int[] head   = new int[n];
+        for (int k = 0; k < result.length; k++) {
+            int best = -1;
+            for (int i = 0; i < n; i++) {
+                if ((head[i] < uids[i].length) && ((best < 0) || (counts[i][head[i]] > counts[best][head[best]]))) {
+                    best = i;
+                }
+            }
+            result[k] = uids[best][head[best]++];
+        }
+        return result;
+    }
+
+    private void gatherTop(int i, int limit, int[][] uids, int[][] counts) {
+        /**
+         * Take the monitor of every connection, in order, then write the request to every worker before reading any
+         * reply, so that the workers answer in parallel.
+         */
+        if (i < workers.length) {
+            synchronized (workers[i]) {
+                gatherTop(i + 1, limit, uids, counts);
+            }
+            return;
+        }
+
+        for (int j = 0; j < workers.length; j++) {
+            workers[j].writeUser(FollowerStoreWorker.TOP, limit);
+        }
+        RuntimeException failure = null;
+        for (int j = 0; j < workers.length; j++) {
+            try {
+                workers[j].readTop(j, uids, counts);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /* ------------------------------ Lifecycle ----------------------------- */
+    public void close() throws IOException {
+        /**
+         * Close the connections and, if this coordinator launched the workers, shut them down.
+         */
+        for (int i = 0; i < workers.length; i++) {
+            synchronized (workers[i]) {
+                try {
+                    if (processes != null) {
+                        workers[i].out.writeByte(FollowerStoreWorker.SHUTDOWN);
+                        workers[i].out.flush();
+                        workers[i].in.readByte();
+                    }
+                } catch (IOException e) {
+                    // The worker has gone already.
+                } finally {
+                    workers[i].socket.close();
+                }
+            }
+        }
+
+        if (processes != null) {
+            for (int i = 0; i < processes.length; i++) {
+                try {
+                    if (!processes[i].waitFor(10, TimeUnit.SECONDS)) {
+                        processes[i].destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    processes[i].destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /* ------------------------------ Implementations for worker connections (Connection) ----------------------------- */
+    /**
+     * The connection to one worker. Callers hold its monitor from writing a request until its reply has been read; a
+     * failure of the connection is rethrown as an UncheckedIOException, since the store's methods declare none.
+     */
+    private static final class Connection {
+        private final int index;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private Connection(int index, InetSocketAddress address) throws IOException {
+            this.index  = index;
+            this.socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            in  = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        private UncheckedIOException failed(IOException e) {
+            return new UncheckedIOException("Partition " + index + ": " + e.getMessage(), e);
+        }
+
+        private void writeUser(byte op, int uid) {
+            try {
+                out.writeByte(op);
+                out.writeInt(uid);
+                out.flush();
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        private void writePair(byte op, int uid1, int uid2, long time) {
+            try {
+                out.writeByte(op);
+                out.writeInt(uid1);
+                out.writeInt(uid2);
+                if (op == FollowerStoreWorker.ADD) {
+                    out.writeLong(time);
+                }
+                out.flush();
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        private void writeMutual(int uid1, int uid2, boolean followers) {
+            try {
+                out.writeByte(FollowerStoreWorker.MUTUAL);
+                out.writeInt(uid1);
+                out.writeInt(uid2);
+                out.writeBoolean(followers);
+                out.flush();
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        private void writeTimed(int uid, boolean followers) {
+            try {
+                out.writeByte(FollowerStoreWorker.TIMED);
+                out.writeInt(uid);
+                out.writeBoolean(followers);
+                out.flush();
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        private DataInputStream readStatus() {
+            /**
+             * Read the status of a reply, returning the stream positioned at its result; an ERROR reported by the worker
+             * is rethrown as an IllegalStateException.
+             */
+            try {
+                if (in.readByte() != FollowerStoreWorker.OK) {
+                    throw new IllegalStateException("Partition " + index + ": " + in.readUTF());
+                }
+                return in;
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        private boolean readBoolean() {
+            DataInputStream in = readStatus();
+            try {
+                return in.readBoolean();
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        private int[] readInts(DataInputStream in) {
+            try {
+                int[] ids = new int[in.readInt()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = in.readInt();
+                }
+                return ids;
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        private TimedList readTimed() {
+            DataInputStream in = readStatus();
+            try {
+                TimedList list = new TimedList(in.readInt());
+                for (int i = 0; i < list.size; i++) {
+                    list.ids[i]   = in.readInt();
+                    list.times[i] = in.readLong();
+                }
+                return list;
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        private void readTop(int i, int[][] uids, int[][] counts) {
+            DataInputStream in = readStatus();
+            try {
+                int n     = in.readInt();
+                uids[i]   = new int[n];
+                counts[i] = new int[n];
+                for (int j = 0; j < n; j++) {
+                    uids[i][j]   = in.readInt();
+                    counts[i][j] = in.readInt();
+                }
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+    }
+
+    /**
+     * The followers (or 'follows') of one User, most recent first, with the instant of each relationship alongside.
+     */
+    private static final class TimedList {
+        private final int size;
+        private final int[] ids;
+        private final long[] times;
+
+        private TimedList(int size) {
+            this.size  = size;
+            this.ids   = new int[size];
+            this.times = new long[size];
+        }
+    }
+
+    /**
+     * An open-addressing hash table from the IDs of a TimedList to their instants, with linear probing; it is built
+     * once, at most half full, and never resized.
+     */
+    private static final class TimeTable {
+        private static final long ABSENT = Long.MIN_VALUE;
+
+        private final int[] keys;
+        private final long[] values;
+        private final boolean[] used;
+
+        private TimeTable(TimedList list) {
+            int capacity = 2;
+            while (capacity < (2 * list.size)) {
+                capacity *= 2;
+            }
+            keys   = new int[capacity];
+            values = new long[capacity];
+            used   = new boolean[capacity];
+            for (int i = 0; i < list.size; i++) {
+                int j = slot(list.ids[i]);
+                keys[j]   = list.ids[i];
+                values[j] = list.times[i];
+                used[j]   = true;
+            }
+        }
+
+        private int slot(int key) {
+            int h = key * 0x9E3779B9;
+            int j = (h ^ (h >>> 16)) & (keys.length - 1);
+            while (used[j] && (keys[j] != key)) {
+                j = (j + 1) & (keys.length - 1);
+            }
+            return j;
+        }
+
+        public long get(int key) {
+            int j = slot(key);
+            return used[j] ? values[j] : ABSENT;
+        }
+    }
+}
@@ -4,23 +4,23 @@
  * 
  * For storing Users, I implemented 2 data structures:
  *      - a Hash Table for basic non-sorted operations (adding and getting);
- *      - a B-Tree sorted by the dates the Users joined.
+ *      - a B+Tree (BPlusTree) sorted by the dates the Users joined.
  *
  * Complexity analyses of the main methods:
  *        -- addUser()
- *              O(log(M) + 1): One tree insertion, one table insertion.
+ *              O(log(M) + 1): One table insertion and, if the User is new, one tree insertion.
  *
  *        -- getUser()
  *              O(1): Simple retrieval from a table.
  *
  *        -- getUsers()
- *              O(N): Traversal of a sorted B-Tree.
+ *              O(N): Traversal of the linked leaves of a sorted B+Tree.
  *
  *        -- getUsersContaining()
  *              O(N): As above.
  *
  *        -- getUsersJoinedBefore()
- *              O(N): As above.
+ *              O(log(M) + K): A search for the first User joined before the date, then K Users in order.
  *
  *
  * @author: Zak Edwards
@@ -44,8 +44,11 @@ public class UserStore implements IUserStore {
         /**
          * Use both tree and table.
          */
+        if (!table.addUserToStore(usr.getName(), usr)) {
+            return false;
+        }
         tree.insertPair(usr);
-        return table.addUserToStore(usr.getName(), usr);
+        return true;
     }
 
     public User getUser(int uid) {
@@ -59,7 +62,7 @@ public class UserStore implements IUserStore {
     public User[] getUsers() {
         /**
          * Returns an array of Users sorted by date joined, with the most recently joined user first;
-         * due to the sorted nature, the BinaryTree (or B-Tree) data type is utilised henceforth.
+         * due to the sorted nature, the BinaryTree (a B+Tree) data type is utilised henceforth.
          */
         return tree.toArray();
     }
@@ -273,144 +276,44 @@ public class UserStore implements IUserStore {
 
     /* ------------------------------ Implementations for user store by date (BinaryTree)  ----------------------------- */
     /**
-     * Create a BinaryTree data type from scratch.
+     * Index the Users by date joined in a BPlusTree, whose entries pair the key ~(date joined) -- so that ascending
+     * order is the most recently joined first -- with the position of the User in an array of those added; Users
+     * joined at the same instant keep the order in which they were added.
      */
     private class BinaryTree  {
 
-        private int childMax = 4;    // Every internal node contains a maximum of (childMax) children; the number of elements of any node is thus (childMax - 1) by definition.
-
-        private final class Node {
-            private int childNo;                                       // Declare a variable to store the number of children a node currently has.
-            private NodeData[] ChildArray = new NodeData[childMax];    // Declare an array of children, of size 4 (max. child nodes).
-
-            private Node(int c) {
-                this.childNo = c;                                      // Construct a node with c children.
-            }
-        }
-
-        private final class NodeData {
-            /**
-             * whenJoined and genUser constitute a key-value pair. Internal nodes use whenJoined and next;
-             * external (leaf) nodes use whenJoined and genUser.
-             */
-            private Date whenJoined;
-            private User genUser;
-            private Node next;
-
-            public NodeData(Date whenJoined, User genUser, Node next) {
-                this.whenJoined = whenJoined;    // genUser.getDateJoined();
-                this.genUser    = genUser;
-                this.next       = next;
-            }
-        }
-
-        /* -- Generic configuration for the BinaryTree -- */
-        private Node root;                                             // Declare the root of the BinaryTree.
-        private int size;                                              // Declare a variable to store the number of users paired with dates ('key-value pairs') in the BinaryTree.
-        private int height;                                            // Declare a variable to monitor the height of the BinaryTree.
-        private int c;                                                 // Declare a variable to monitor the children per node.
-        private boolean altered;                                       // Declare a variable to monitor the state of the tree; i.e., monitor if a node has been *inserted*.
+        private BPlusTree index = new BPlusTree();    // Declare the B+Tree of (~date joined, position) entries.
+        private User[] users    = new User[16];       // Declare the Users in the order they were added, by position.
+        private int size;                             // Declare the number of Users in the BinaryTree.
+        private boolean altered;                      // Declare a variable to monitor the state of the tree; i.e., monitor if a node has been *inserted*.
 
         /* Constructors, Getters and Setters */
-        public BinaryTree() {
-            root = new Node(0);
-        }
-
         public int getSize() {
             return size;
         }
 
         public int getHeight() {
-            return height;
+            return index.getHeight();
         }
         /* --------------------------------- */
 
-        private Node splitNode(Node currentNode) {
-            /**
-             * Method for B-Tree node splitting.
-             */
-            Node tempNode = new Node(childMax/2);    // Create new Node with (childMax/2) children
-            currentNode.childNo  =  (childMax/2);
-
-            /**
-             * Iterate through to associate the indices of the old Node's rightmost children with
-             * the indices new Node's leftmost children.
-             */
-            for (int i = 0; i < (childMax/2); i++) {
-                tempNode.ChildArray[i] = currentNode.ChildArray[(childMax/2) + i];
-            }
-            return tempNode;
-        }
-
-        private Node insert(Node currentNode, Date date, User genUser, int height) {
-            /**
-             * Method for B-Tree element insertion.
-             */
-            int i;
-            NodeData t = new NodeData(date, genUser, null);
-
-            /* Considers case where the node is external, i.e., a leaf */
-            if  (height == 0) {
-                for (i = 0; i < currentNode.childNo; i++) {
-                /**
-                 * Use native comparison function to return true iff any children of the current node
-                 * joined strictly earlier than the instant represented by 'date'. If true, break.
-                 */ 
-                    if ((currentNode.ChildArray[i].whenJoined).before(date)) {
-                        break;
-                    }
-                }
-            }
-            /* Considers case where the node is internal */
-            else {
-                for (i = 0; i < currentNode.childNo; i++) {
-                    if (((i + 1) == currentNode.childNo) || (currentNode.ChildArray[i + 1].whenJoined).before(date)) {
-                        Node inserted = insert(currentNode.ChildArray[i++].next, date, genUser, (height - 1));
-                        if (inserted == null) {
-                            return null;
-                        }
-                        t.whenJoined = inserted.ChildArray[0].whenJoined;
-                        t.next       = inserted;
-                        break;
-                    }
-                }
-            }
-
-            for (int j = currentNode.childNo; j > i; j--) {
-                currentNode.ChildArray[j] = currentNode.ChildArray[j - 1];
-            }
-
-            currentNode.ChildArray[i] = t;
-            currentNode.childNo++;
-            if (currentNode.childNo < childMax) {
-                return null;
-            } else {
-                return splitNode(currentNode);
-            }
-        }
-
         public void insertPair(User genUser) {
             /**
-             * Method for B-Tree Date-User pair insertion.
+             * Method for B+Tree Date-User pair insertion.
              */
-            Node inserted = insert(root, genUser.getDateJoined(), genUser, height);
-            altered = true;    // The tree's state has been altered, i.e., we have a new insertion.
-            size++;
-
-            if (inserted == null) {
-                return;
+            if (size == users.length) {
+                User[] more = new User[2 * size];
+                System.arraycopy(users, 0, more, 0, size);
+                users = more;
             }
-
-            /* Split root */
-            Node t = new Node(2);
-            t.ChildArray[0] = new NodeData(root.ChildArray[0].whenJoined, null, root);
-            t.ChildArray[1] = new NodeData(inserted.ChildArray[0].whenJoined, null, inserted);
-            root = t;
-            height++;
+            users[size] = genUser;
+            index.insert(~genUser.getDateJoined().getTime(), size);
+            size++;
+            altered = true;    // The tree's state has been altered, i.e., we have a new insertion.
         }
 
         /* Declare an array of users. */
-        private User[] UserArray;
+        private User[] UserArray = new User[0];
 
         /* ---------- toArray Methods ---------- */
         /**
@@ -418,26 +321,14 @@ public class UserStore implements IUserStore {
          */
         public User[] toArray() {
             /**
-             * Used by getUsers() for returning a chronological array of users.
+             * Used by getUsers() for returning a chronological array of users; the array is kept until the next
+             * insertion.
              */
-
-            /* If no insertions have been carried out, return the array of users with no further operations */
-            if (altered == false) {
-                return UserArray;
-            }
-            /**
-             * Otherwise, define a new array duArray (If M is the number of Date-User pairs, duArray has size M),
-             * make a call to an overloaded method with the generics of the B-Tree and duArray as parameters,
-             * set UserArray equal to the new array and force UserArray to return by setting 'altered' to false.
-             */
-            else {
-                c = 0;
-                altered = false;
-                User[] duArray = new User[size];
-                toArray(root, height, duArray);
-                UserArray = duArray;
-                return duArray;
+            if (altered) {
+                UserArray = toArray(0, size);
+                altered   = false;
             }
+            return UserArray;
         }
 
         public User[] toArray(String query) {
@@ -445,108 +336,40 @@ public class UserStore implements IUserStore {
              * Used by getUsersContaining(String query) for returning a chronological array of users
              * whose names contain the given string.
              */
-            c = 0;
+            User[] duArray = new User[size];
+            int c = 0;
 
-            User[] duArray = new User[size];    // If M is the number of Date-User pairs,   duArray has size M. 
-            User[] chArray = new User[c];       // If N is the number of children per node, chArray has size N. 
+            BPlusTree.Cursor cursor = index.at(0);
+            while (cursor.hasNext()) {
+                User genUser = users[cursor.next()];
+                if ((genUser.getName()).contains(query)) {    // Return true if the username contains the given string.
+                    duArray[c++] = genUser;
+                }
+            }
 
-            /**
-             * Make a call to an overloaded method with the generics of the B-Tree, the to-be-queried array
-             * and the given query as parameters.
-             */
-            toArray(root, height, duArray, query);
-            /**
-             * Clone duArray into chArray for indices up to and including 'c', in order to return
-             * exclusively those users requested.
-             */
-            chArray = duArray.clone();
+            User[] chArray = new User[c];
+            System.arraycopy(duArray, 0, chArray, 0, c);
             return chArray;
         }
 
         public User[] toArray(Date date) {
             /**
              * Used by getUsersJoinedBefore(Date dateBefore) for returning a chronological array of users
-             * who joined before a given date. Exact analogue of the above with a different parameter.
+             * who joined before a given date: those whose key is greater than ~date, which follow the rest.
              */
-            c = 0;
-
-            User[] duArray = new User[size];
-            User[] chArray = new User[c]; 
-
-            toArray(root, height, duArray, date);
-            chArray = duArray.clone();
-            return chArray;
+            return toArray(index.rankAfter(~date.getTime()), size);
         }
 
-        private void toArray(Node currentNode, int height, User[] duArray) {
-            /**
-             * Overloaded function that takes the parameters passed by toArray().
-             * -> return duArray -> return UserArray
-             */
-            NodeData[] ChildArray = currentNode.ChildArray;
-
-            /**
-             * duArray is populated via iteration with precisely those indices of ChildArray that
-             * are of type User, thus producing a chronologically sorted array of all users in the B-Tree.
-             */
-            if (height == 0) {
-                for (int j = 0; j < currentNode.childNo; j++) {    // Cycle through Z up to the number of children belonging to the current node.
-                    duArray[c] = ChildArray[j].genUser;            // Associate the indices of duArray with the User-nodes of ChildArray.
-                    c++;
-                }
-            }
+        private User[] toArray(int from, int to) {
             /**
-             * If the height of the position is non-zero, traverse the tree downwards (and decrement the height variable accordingly)
-             * and make a recursive call.
+             * Return the Users of ranks [from, to) in the index.
              */
-            else {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    toArray(ChildArray[j].next, (height - 1), duArray);
-                }
-            }
-        }
-
-        private void toArray(Node currentNode, int height, User[] duArray, String query) {
-            /**
-             * Overloaded function that takes the parameters passed by toArray(String query).
-             */
-            NodeData[] ChildArray = currentNode.ChildArray;
-
-            /**
-             * An exact analogue of the above method, with the addition of a .contains() function for filtering.
-             */
-            if (height == 0) {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    if ((ChildArray[j].genUser.getName()).contains(query)) {    // Return true if the username contains the given string.
-                        duArray[c] = ChildArray[j].genUser;
-                        c++;
-                    }
-                }
-            } else {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    toArray(ChildArray[j].next, (height - 1), duArray, query);
-                }
-            }
-        }
-
-        private void toArray(Node currentNode, int height, User[] duArray, Date date) {
-            /**
-             * Overloaded function that takes the parameters passed by toArray(Date date).
-             */
-            NodeData[] ChildArray = currentNode.ChildArray;
-
-            if (height == 0) {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    if ((ChildArray[j].genUser.getDateJoined()).before(date)) {    // Return true if the user joined before the given date.
-                        duArray[c] = ChildArray[j].genUser;
-                        c++;
-                    }
-                }
-            } else {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    toArray(ChildArray[j].next, (height - 1), duArray, date);
-                }
+            User[] duArray = new User[to - from];
+            BPlusTree.Cursor cursor = index.at(from);
+            for (int i = 0; i < duArray.length; i++) {
+                duArray[i] = users[cursor.next()];
             }
+            return duArray;
         }
     }
-}
\ No newline at end of file
+}
@@ -4,12 +4,15 @@
  * 
  * For storing and displaying Users' weets, I implemented 3 data structures:
  *      - an array for non-sorted weet operations -- adding and getting, etc.;
- *      - a B-Tree for storing users by date joined, and sorting chronologically;
+ *      - a B+Tree (BPlusTree) for storing weets by date, and sorting chronologically;
  *      - a Linked List for displaying trending tags in a sorted manner.
  *
  * Complexity analyses of the main methods:
  *        -- addWeet()
- *              O(N): Insertion into a sorted array.
+ *              O(log(N)) amortised: Appending to the array, which doubles when full, a hashed duplicate check on the ID and one B+Tree insertion.
+ *
+ *        -- addWeets()
+ *              O(B log(B) + min(B log(N), N + B)): Sorting a batch of B weets, then either B B+Tree insertions or a single merge and rebuild.
  *
  *        -- getWeet()
  *              O(log(N)): Searching a sorted array of size N.
@@ -20,18 +23,32 @@
  *        -- getWeetsByUser()
  *              O(log(N)): Searching a sorted array of size N.
  *
+ *        -- getWeetsByUser(), with a limit
+ *              O(log(W) + K): A hashed lookup of the author's W weets, a search for the date, then the K most recent before it.
+ *
  *        -- getWeetsContaining()
- *              O(N): Traversal a sorted tree.
+ *              O(N): Traversal of the linked leaves of a sorted B+Tree.
  *
  *        -- getWeetsOn()
- *              O(N): As above.
+ *              O(log(N) + K): Two searches bounding the K weets posted at the instant.
  *
  *        -- getWeetsBefore()
- *              O(N): As above.
+ *              O(log(N) + K): A search for the first weet posted before the date, then K weets in order.
+ *
+ *        -- getWeetsWithTag()
+ *              O(1 + K): A hashed lookup of the tag's posting list, from which the K most recent weets are read.
  *
  *        -- getTrending()
  *              O(10): The method merely retrieves the initial ten items in the linked list, and add them to an array of size 10.
  *
+ * The results of getWeetsContaining(), getWeetsOn() and getWeetsBefore() are additionally held in a bounded,
+ * least-recently-used QueryCache; a repeated query is then O(K), a copy of its K results, and addWeet() drops
+ * only those entries whose query the new weet satisfies.
+ *
+ * Clients may also subscribe to a query once (by text, user or tag) and receive matching weets as they are added,
+ * through a java.util.concurrent.Flow.Publisher; addWeet() consults an index of the registered predicates, so only
+ * the subscriptions a weet can possibly match are examined.
+ *
  *
  * @author: Zak Edwards
  * @version: 1.0 10/03/15
@@ -51,6 +68,9 @@ import java.io.FileNotFoundException;
 import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.SubmissionPublisher;
 
 
 public class WeetStore implements IWeetStore {
@@ -64,14 +84,101 @@ public class WeetStore implements IWeetStore {
     BinaryTree tree         = new BinaryTree();            // Define a new BinaryTree, wherein users are stored by date joined
     TrendingLinkedList list = new TrendingLinkedList();    // Define a new TrendingLinkedList, wherein weets are stored by common usage
     WeetArray array         = new WeetArray();             // Define a new WeetArray, wherein weets are stored
+    QueryCache cache        = new QueryCache(1 << 20);     // Define a new QueryCache, wherein up to 1MB of query results are kept
+    PredicateIndex live     = new PredicateIndex();        // Define a new PredicateIndex, wherein live subscriptions are registered
+    TagIndex tags           = new TagIndex();              // Define a new TagIndex, wherein weet IDs are stored by hashtag
+    AuthorIndex authors     = new AuthorIndex();           // Define a new AuthorIndex, wherein weets are stored by author
 
     public boolean addWeet(Weet weet) {
         /**
          * Method for adding a new weet to the weets we already have saved in our store.
          */
-        return array.addWeetToStore(weet);
+        boolean added = array.addWeetToStore(weet);
+
+        if (added) {
+            tree.insertPair(weet);
+            authors.add(weet);
+
+            String[] weetTags = extractTags(weet.getMessage());
+            for (int i = 0; i < weetTags.length; i++) {
+                list.addTrending(weetTags[i], 1);
+                tags.add(weetTags[i], weet);
+            }
+
+            cache.invalidate(weet);
+            live.publish(weet);
+        }
+        return added;
+    }
+
+    public int addWeets(Weet[] batch) {
+        /**
+         * Add a batch of weets to the store, equivalent to (but considerably cheaper than) calling addWeet() on
+         * each in turn: duplicates -- by ID, within the batch or against the store -- are discarded, the remainder
+         * are sorted once, appended to the array with a single growth step, merged into the B+Tree in one pass and
+         * their hashtags counted once per distinct tag. Returns the number of weets added.
+         */
+        Weet[] fresh = array.excludeDuplicates(batch);
+
+        if (fresh.length == 0) {
+            return 0;
+        }
+
+        Arrays.sort(fresh, NEWEST_FIRST);
+        array.addWeetsToStore(fresh);
+        tree.insertAll(fresh);
+
+        /* Aggregate the hashtags of the batch by sorting them, so that each distinct tag updates the list once. */
+        String[][] perWeet = new String[fresh.length][];
+        int tagNo = 0;
+        for (int i = 0; i < fresh.length; i++) {
+            perWeet[i] = extractTags(fresh[i].getMessage());
+            tagNo     += perWeet[i].length;
+        }
+
+        /* Posting lists are fed oldest first, so that each addition is an append. */
+        String[] batchTags = new String[tagNo];
+        tagNo = 0;
+        for (int i = fresh.length - 1; i >= 0; i--) {
+            authors.add(fresh[i]);
+            for (int j = 0; j < perWeet[i].length; j++) {
+                tags.add(perWeet[i][j], fresh[i]);
+                batchTags[tagNo++] = perWeet[i][j];
+            }
+        }
+        Arrays.sort(batchTags);
+
+        for (int i = 0; i < batchTags.length; ) {
+            int j = i + 1;
+            while ((j < batchTags.length) && batchTags[j].equals(batchTags[i])) {
+                j++;
+            }
+            list.addTrending(batchTags[i], j - i);
+            i = j;
+        }
+
+        /* Precise invalidation costs O(entries) per weet; past the size of the cache it is cheaper to start afresh. */
+        if (fresh.length > cache.getCount()) {
+            cache.clear();
+        } else {
+            for (int i = 0; i < fresh.length; i++) {
+                cache.invalidate(fresh[i]);
+            }
+        }
+
+        for (int i = fresh.length - 1; i >= 0; i--) {
+            live.publish(fresh[i]);
+        }
+        return fresh.length;
     }
     
+    /* Orders weets such that the most recently posted weet is first. */
+    private static final Comparator<Weet> NEWEST_FIRST = new Comparator<Weet>() {
+        public int compare(Weet a, Weet b) {
+            return b.getDateWeeted().compareTo(a.getDateWeeted());
+        }
+    };
+
     public Weet getWeet(int wid) {
         /**
          * Returns the weet with the given ID ('wid'); sortedness is not necessary here,
@@ -99,13 +206,30 @@ public class WeetStore implements IWeetStore {
         return array.getWeetsByUserFromStore(usr);
     }
 
+    public Weet[] getWeetsByUser(User usr, Date until, int limit) {
+        /**
+         * Returns an array of at most 'limit' weets posted by the given user no later than 'until' (or at any
+         * time, if 'until' is null), with the most recently posted weet first. Unlike getWeetsByUser(User), no
+         * other user's weets are examined: the weets are read from the author's posting list.
+         */
+        if (limit <= 0) {
+            return new Weet[0];
+        }
+        return authors.getRecent(usr.getId(), (until == null) ? Long.MAX_VALUE : until.getTime(), limit);
+    }
+
     public Weet[] getWeetsContaining(String query) {
         /**
          * Returns an array of those weets containing the given String 'query', with the
-         * most recently posted weet first. Due to the sorted nature, the BinaryTree (or B-Tree)
+         * most recently posted weet first. Due to the sorted nature, the BinaryTree (a B+Tree)
          * data type is utilised henceforth.
          */
-        Weet[] a = tree.toArray(query);
+        Weet[] a = cache.get(QueryCache.CONTAINING, query, 0);
+
+        if (a == null) {
+            a = tree.toArray(query);
+            cache.put(QueryCache.CONTAINING, query, 0, a);
+        }
 
         if (a.length != 0) {
             return a;
@@ -117,14 +241,49 @@ public class WeetStore implements IWeetStore {
         /**
          * Returns an array of weets posted on a given date.
          */
-        return tree.toOnArray(dateOn);
+        Weet[] a = cache.get(QueryCache.ON, null, dateOn.getTime());
+
+        if (a == null) {
+            a = tree.toOnArray(dateOn);
+            cache.put(QueryCache.ON, null, dateOn.getTime(), a);
+        }
+        return a;
     }
 
     public Weet[] getWeetsBefore(Date dateBefore) {
         /**
          * Returns an array of weets posted before a given date.
          */
-        return tree.toArray(dateBefore);
+        Weet[] a = cache.get(QueryCache.BEFORE, null, dateBefore.getTime());
+
+        if (a == null) {
+            a = tree.toArray(dateBefore);
+            cache.put(QueryCache.BEFORE, null, dateBefore.getTime(), a);
+        }
+        return a;
+    }
+
+    public Weet[] getWeetsWithTag(String tag, int limit) {
+        /**
+         * Returns an array of at most 'limit' weets carrying exactly the given hashtag (so '#cat' does not match
+         * '#category'), with the most recently posted weet first; the leading '#' may be omitted. Unlike
+         * getWeetsContaining(), no message text is scanned: the weets are read from the tag's posting list.
+         * An empty tag, or a limit which is not positive, yields an empty array.
+         */
+        if ((tag.length() == 0) || (limit <= 0)) {
+            return new Weet[0];
+        }
+        if (tag.charAt(0) != '#') {
+            tag = "#" + tag;
+        }
+
+        int[] wids    = tags.getRecent(tag, limit);
+        Weet[] result = new Weet[wids.length];
+
+        for (int i = 0; i < wids.length; i++) {
+            result[i] = array.getWeetFromStore(wids[i]);
+        }
+        return result;
     }
 
     public String[] getTrending() {
@@ -135,10 +294,82 @@ public class WeetStore implements IWeetStore {
         return list.getTags();
     }
 
+    public LiveQuery subscribeContaining(String query) {
+        /**
+         * Returns a publisher of every weet subsequently added whose message contains the given String 'query'.
+         * Subscribers signal demand through Flow.Subscription.request(); closing the publisher ends the subscription.
+         */
+        return live.register(new LiveQuery(LiveQuery.CONTAINING, query, 0));
+    }
+
+    public LiveQuery subscribeByUser(User usr) {
+        /**
+         * Returns a publisher of every weet subsequently posted by the given user.
+         */
+        return live.register(new LiveQuery(LiveQuery.BY_USER, null, usr.getId()));
+    }
+
+    public LiveQuery subscribeWithTag(String tag) {
+        /**
+         * Returns a publisher of every weet subsequently added which carries the given hashtag; the
+         * leading '#' may be omitted. An empty tag, which no weet can carry, is rejected.
+         */
+        if (tag.length() == 0) {
+            throw new IllegalArgumentException("The hashtag must not be empty");
+        }
+        if (tag.charAt(0) != '#') {
+            tag = "#" + tag;
+        }
+        return live.register(new LiveQuery(LiveQuery.WITH_TAG, tag, 0));
+    }
+
+    public static String[] extractTags(String message) {
+        /**
+         * Return the distinct hashtags -- words beginning with '#' -- of the given message.
+         */
+        String[] words = message.split(" ");
+        String[] tags  = new String[words.length];
+        int n = 0;
+
+        for (int i = 0; i < words.length; i++) {
+            if ((words[i].length() > 1) && (words[i].charAt(0) == '#')) {
+                boolean seen = false;
+                for (int j = 0; j < n; j++) {
+                    if (tags[j].equals(words[i])) {
+                        seen = true;
+                        break;
+                    }
+                }
+                if (!seen) {
+                    tags[n++] = words[i];
+                }
+            }
+        }
+
+        String[] result = new String[n];
+        System.arraycopy(tags, 0, result, 0, n);
+        return result;
+    }
+
+    public long getCacheHits() {
+        /**
+         * Returns the number of queries answered from the QueryCache.
+         */
+        return cache.getHits();
+    }
+
+    public long getCacheMisses() {
+        /**
+         * Returns the number of queries which had to be computed from the store.
+         */
+        return cache.getMisses();
+    }
+
     /* ------------------------------ Implementations for displaying Weets (Array) ----------------------------- */
     public class WeetArray {
 
         private int count;        // Declare a variable for storing the number of non-null elements, i.e., weets.
+        private WeetTable ids = new WeetTable();    // Declare a table of the stored weets, hashed by ID.
         private int nullCount;    // Declare a variable for storing the number of null elements.
 
         /* Constructors, Getters and Setters */
@@ -198,71 +429,77 @@ public class WeetStore implements IWeetStore {
             /**
              * Primary method for adding weets to the store.
              */
-            boolean result = true;
-            String[] tags = weet.getMessage().split(" ");
 
-            for (int i = 0; i < weets.length; i++) {
-                /**
-                 * If the weet passed as an argument is equal to the weet associated
-                 * with any index of the array, return false; i.e., do not add the weet to the store.
-                 */
-                if  (weet == weets[i]) {
-                    result = false;
-                }
-                /**
-                 * If the result has remained true -- i.e., if the weet is distinct from other weets in
-                 * the array.
-                 */
-                else {                       
-                    if ((i == weets.length - 1) & (result != false)) {
-                        result = true;
-                        weets[count] = weet;
-                    }
-                    /*
-                    for (int j = 0; j < tags.length; j++) {
-                        if (tags[j].charAt(0) == '#') {
-                            list.addTrending(tags[j]);
-                        }
-                    }
-                    */
-                }
+            /**
+             * If a weet with the same ID is already in the store, return false; i.e., do not add the weet
+             * to the store. The IDs are hashed, so this no longer requires a scan of the array.
+             */
+            if (ids.get(weet.getId()) != null) {
+                return false;
             }
 
+            weets[count] = weet;
+            ids.put(weet);
+
             /* Weets are stored up to and including (weets.length - 1). */
             if (count   == capacity - 1) {
-                capacity = capacity + 1;                                   // Increase size by 1 for space efficiency.
+                capacity = capacity * 2;                                   // Double the size, so that the copies cost O(1) per weet.
                 Weet[] moreWeets = new Weet[capacity];                     // Declare an array of size 'capacity'.
-                System.arraycopy(weets, 0, moreWeets, 0, capacity - 1);    // Copy added weets into new array.
+                System.arraycopy(weets, 0, moreWeets, 0, count + 1);       // Copy added weets into new array.
                 weets = moreWeets;                                         // Make weets equal to larger array.
             }
 
-            /* Increment the count if a weet is added. */
-            if (result = true) {
-                count++;
+            /* Increment the count as a weet has been added. */
+            count++;
+            return true;
+        }
+
+        public Weet[] excludeDuplicates(Weet[] batch) {
+            /**
+             * Return those weets of the batch whose IDs are neither in the store nor earlier in the batch.
+             */
+            WeetTable seen = new WeetTable();
+            Weet[] fresh   = new Weet[batch.length];
+            int n = 0;
+
+            for (int i = 0; i < batch.length; i++) {
+                int wid = batch[i].getId();
+                if ((ids.get(wid) == null) && (seen.get(wid) == null)) {
+                    seen.put(batch[i]);
+                    fresh[n++] = batch[i];
+                }
             }
 
+            Weet[] result = new Weet[n];
+            System.arraycopy(fresh, 0, result, 0, n);
             return result;
         }
 
-        public Weet getWeetFromStore(int wid) {
+        public void addWeetsToStore(Weet[] fresh) {
             /**
-             * Used by the getWeet(int wid) method; returns the weet with the given ID ('wid').
+             * Append weets already known to be distinct from those in the store; the array grows
+             * at most once, to fit the whole batch -- and at least doubles, as in addWeetToStore().
              */
+            if (count + fresh.length >= capacity) {
+                capacity = Math.max(capacity * 2, count + fresh.length + 1);
+                Weet[] moreWeets = new Weet[capacity];
+                System.arraycopy(weets, 0, moreWeets, 0, count);
+                weets = moreWeets;
+            }
 
-            /* If the requested weet doesn't exist, null will be defaultly outputted. */
-            Weet getWeet  =  null;
+            System.arraycopy(fresh, 0, weets, count, fresh.length);
+            for (int i = 0; i < fresh.length; i++) {
+                ids.put(fresh[i]);
+            }
+            count += fresh.length;
+        }
 
+        public Weet getWeetFromStore(int wid) {
             /**
-             * Go through each weet in the weets array and check if the ID of each weet
-             * matches the given ID. If yes, then make getWeet equal to that weet.
+             * Used by the getWeet(int wid) method; returns the weet with the given ID ('wid'), or null
+             * if the requested weet doesn't exist.
              */
-            for (int j = 0; j < count + 1; j++) {
-                if (weets[j].getId() == wid) {
-                    getWeet = weets[j];
-                }
-            }
-
-            return getWeet;
+            return ids.get(wid);
         }
 
         public Weet[] getWeetsFromStore() {
@@ -304,13 +541,14 @@ public class WeetStore implements IWeetStore {
              * the allWeets array. Increment the variable storing the number of weets by the given user.
              */
             for (int i = 0; i < weets.length; i++) {
-                if (weets[i].getUserId() == uid) {
-                    weets[i] = allWeets[weetNo];
+                if ((weets[i] != null) && (weets[i].getUserId() == uid)) {
+                    allWeets[weetNo] = weets[i];
                     weetNo++;
                 }
             }
 
             /* Copy allWeets into the uidWeets array to eliminate null elements/sort the array. */
+            uidWeets = new Weet[weetNo];
             System.arraycopy(allWeets, 0, uidWeets, 0, uidWeets.length);
             //uidWeets = allWeets.clone();
             sortArray(uidWeets);
@@ -340,9 +578,10 @@ public class WeetStore implements IWeetStore {
             }
         }
 
-        private void addTrending(String tag) {
+        private void addTrending(String tag, int n) {
             /**
-             * Method for adding items to the tail of the linked list.
+             * Method for counting 'n' further uses of a tag. An unseen tag is added to the tail of the
+             * linked list; a counted tag is moved towards the head until the list is again sorted.
              */
             Node temp = head;
 
@@ -350,30 +589,51 @@ public class WeetStore implements IWeetStore {
              * Iterate through the elements of the linked list, starting at the head
              * of the list. If the tag exists, increment the counter.
              */
-            while (temp != null) {
-                if (temp.message.equals(tag)) {
-                    temp.counter++;
-                    while ((temp.previous != null) && (temp.counter > temp.previous.counter)) {
-                        Node aux = new Node(temp.message);
-                        aux.counter           = temp.counter;
-                        temp                  = temp.previous;
-                        temp.counter          = temp.previous.counter;
-                        temp.message          = temp.previous.message;
-                        temp.previous.counter = aux.counter;
-                        temp.previous.message = aux.message;
-                    }
-                    return;
-                }
+            while ((temp != null) && !temp.message.equals(tag)) {
                 temp = temp.next;
             }
 
-            if (head == null) {
-                head = tail = new Node(tag);
+            if (temp == null) {
+                temp = new Node(tag);
+                temp.counter  = n;
+                temp.previous = tail;
+                if (head == null) {
+                    head = temp;
+                } else {
+                    tail.next = temp;
+                }
+                tail = temp;
             } else {
-                Node tmp = new Node(tag);
-                tmp.previous = tail;
-                tail.next    = tmp;
-                tail         = tmp;
+                temp.counter += n;
+            }
+
+            /* Find the first node, walking towards the head, whose counter is at least that of temp. */
+            Node before = temp.previous;
+            while ((before != null) && (temp.counter > before.counter)) {
+                before = before.previous;
+            }
+
+            if (before == temp.previous) {
+                return;
+            }
+
+            /* Unlink temp... */
+            temp.previous.next = temp.next;
+            if (temp.next != null) {
+                temp.next.previous = temp.previous;
+            } else {
+                tail = temp.previous;
+            }
+
+            /* ...and relink it immediately after 'before' (or at the head). */
+            Node after = (before == null) ? head : before.next;
+            temp.previous  = before;
+            temp.next      = after;
+            after.previous = temp;
+            if (before == null) {
+                head = temp;
+            } else {
+                before.next = temp;
             }
         }
 
@@ -397,143 +657,95 @@ public class WeetStore implements IWeetStore {
 
     /* ------------------------------ Implementations for weet store by date (BinaryTree) ----------------------------- */
     /**
-     * Create a BinaryTree data type from scratch.
+     * Index the weets by date in a BPlusTree, whose entries pair the key ~(date weeted) -- so that ascending order
+     * is the most recent first -- with the position of the weet in an array of those added; weets posted at the same
+     * instant keep the order in which they were added.
      */
     private class BinaryTree  {
 
-        private int childMax = 4;    // Every internal node contains a maximum of (childMax) children; the number of elements of any node is thus (childMax - 1) by definition.
-        private final class Node {
-            private int childNo;                                       // Declare a variable to store the number of children a node currently has.
-            private NodeData[] ChildArray = new NodeData[childMax];    // Declare an array of ChildArray, of size 4 (max. child nodes).
-
-            private Node(int c) {
-                this.childNo = c;                                      // Construct a node with c children.
-            }
-        }
-
-        private final class NodeData {
-            /**
-             * whenWeeted and genWeet constitute a key-value pair. Internal nodes use whenWeeted and next;
-             * external (leaf) nodes use whenWeeted and genWeet.
-             */
-            private Date whenWeeted;
-            private Weet genWeet;
-            private Node next;
-
-            public NodeData(Date whenWeeted, Weet genWeet, Node next) {
-                this.whenWeeted = whenWeeted;    // genWeet.getDateWeeted();
-                this.genWeet    = genWeet;
-                this.next       = next;
-            }
-        }
-
-        /* -- Generic configuration for the BinaryTree -- */
-        private Node root;          // Declare the root of the BinaryTree.
-        private int size;           // Declare a variable to store the number of weets paired with dates ('key-value pairs') in the BinaryTree.
-        private int height;         // Declare a variable to monitor the height of the BinaryTree.
-        private int c;              // Declare a variable to monitor the children per node.
-        private boolean altered;    // Declare a variable to monitor the state of the tree; i.e., monitor if a node has been *inserted*.
+        private BPlusTree index = new BPlusTree();    // Declare the B+Tree of (~date weeted, position) entries.
+        private Weet[] weets    = new Weet[16];       // Declare the weets in the order they were added, by position.
+        private int size;                             // Declare the number of weets in the BinaryTree.
+        private boolean altered;                      // Declare a variable to monitor the state of the tree; i.e., monitor if a node has been *inserted*.
 
         /* Constructors, Getters and Setters */
-        private BinaryTree() {
-            root = new Node(0);
-        }
-
         private int getSize() {
             return size;
         }
 
         public int getHeight() {
-            return height;
+            return index.getHeight();
         }
         /* --------------------------------- */
 
-        private Node splitNode(Node currentNode) {
-            /**
-             * Method for B-Tree node splitting.
-             */
-            Node tempNode = new Node(childMax/2);    // Create new Node with (childMax/2) children
-            currentNode.childNo  =  (childMax/2);
+        private int append(Weet genWeet) {
+            if (size == weets.length) {
+                Weet[] more = new Weet[2 * size];
+                System.arraycopy(weets, 0, more, 0, size);
+                weets = more;
+            }
+            weets[size] = genWeet;
+            altered     = true;    // The tree's state has been altered, i.e., we have a new insertion.
+            return size++;
+        }
 
+        public void insertPair(Weet genWeet) {
             /**
-             * Iterate through to associate the indices of the old Node's rightmost children with
-             * the indices new Node's leftmost children.
+             * Method for B+Tree Date-Weet pair insertion.
              */
-            for (int i = 0; i < (childMax/2); i++) {
-                tempNode.ChildArray[i] = currentNode.ChildArray[(childMax/2) + i];
-            }
-            return tempNode;
+            index.insert(~genWeet.getDateWeeted().getTime(), append(genWeet));
         }
 
-        private Node insert(Node currentNode, Date date, Weet genWeet, int height) {
+        public void insertAll(Weet[] sorted) {
             /**
-             * Method for B-Tree element insertion.
+             * Method for B+Tree insertion of a batch of weets, sorted such that the most recent weet is first.
+             * B individual insertions cost O(B log(N)); if that exceeds a merge of the batch with the N weets
+             * already in the tree, the two sorted sequences are merged in a single pass and the tree is rebuilt
+             * bottom-up instead.
              */
-            int i;
-            NodeData t = new NodeData(date, genWeet, null);
+            int logN = 32 - Integer.numberOfLeadingZeros(size + 1);
 
-            /* Considers case where the node is external, i.e., a leaf */
-            if (height == 0) {
-                for (i = 0; i < currentNode.childNo; i++) {
-                    /**
-                     * Use native comparison function to return true iff any children of the current node
-                     * joined strictly earlier than the instant represented by 'date'. If true, break.
-                     */ 
-                    if ((currentNode.ChildArray[i].whenWeeted).before(date)) {
-                        break;
-                    }
-                }
-            }
-            /* Considers case where the node is internal */
-            else {
-                for (i = 0; i < currentNode.childNo; i++) {
-                    if (((i + 1) == currentNode.childNo) || (currentNode.ChildArray[i + 1].whenWeeted).before(date)) {
-                        Node inserted = insert(currentNode.ChildArray[i++].next, date, genWeet, (height - 1));
-                        if (inserted == null) {
-                            return null;
-                        }
-                        t.whenWeeted = inserted.ChildArray[0].whenWeeted;
-                        t.next       = inserted;
-                        break;
-                    }
+            if ((long) sorted.length * logN <= size) {
+                for (int i = 0; i < sorted.length; i++) {
+                    insertPair(sorted[i]);
                 }
+                return;
             }
 
-            for (int j = currentNode.childNo; j > i; j--) {
-                currentNode.ChildArray[j] = currentNode.ChildArray[j - 1];
+            int existing    = size;
+            long[] oldKeys  = index.keys(0, existing);
+            int[] oldValues = index.values(0, existing);
+            long[] keys     = new long[existing + sorted.length];
+            int[] values    = new int[keys.length];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+
+            /* Equal dates keep the existing weet first, as insertPair() would. */
+            while ((i < existing) && (j < sorted.length)) {
+                long key = ~sorted[j].getDateWeeted().getTime();
+                if (key < oldKeys[i]) {
+                    keys[k]     = key;
+                    values[k++] = append(sorted[j++]);
+                } else {
+                    keys[k]     = oldKeys[i];
+                    values[k++] = oldValues[i++];
+                }
             }
-
-            currentNode.ChildArray[i] = t;
-            currentNode.childNo++;
-            if (currentNode.childNo < childMax) {
-                return null;
-            } else {
-                return splitNode(currentNode);
+            while (i < existing) {
+                keys[k]     = oldKeys[i];
+                values[k++] = oldValues[i++];
             }
-        }
-
-        public void insertPair(Weet genWeet) {
-            /**
-             * Method for B-Tree Date-Weet pair insertion.
-             */
-            Node inserted = insert(root, genWeet.getDateWeeted(), genWeet, height);
-            altered       = true;    // The tree's state has been altered, i.e., we have a new insertion.
-            size++;
-
-            if (inserted == null) {
-                return;
+            while (j < sorted.length) {
+                keys[k]     = ~sorted[j].getDateWeeted().getTime();
+                values[k++] = append(sorted[j++]);
             }
 
-            /* Split root */
-            Node t = new Node(2);
-            t.ChildArray[0] = new NodeData(root.ChildArray[0].whenWeeted, null, root);
-            t.ChildArray[1] = new NodeData(inserted.ChildArray[0].whenWeeted, null, inserted);
-            root = t;
-            height++;
+            index.build(keys, values, k);
         }
 
         /* Declare an array of weets. */
-        private Weet[] WeetArray;
+        private Weet[] WeetArray = new Weet[0];
 
         /* ---------- toArray Methods ---------- */
         /**
@@ -541,26 +753,14 @@ public class WeetStore implements IWeetStore {
          */
         public Weet[] toArray() {
             /**
-             * Used by getWeets() for returning a chronological array of weets.
+             * Used by getWeets() for returning a chronological array of weets; the array is kept until the next
+             * insertion.
              */
-
-            /* If no insertions have been carried out, return the array of weets with no further operations */
-            if (altered == false) {
-                return WeetArray;
-            }
-            /**
-             * Otherwise, define a new array dwArray (If M is the number of Date-Weet pairs, dwArray has size M),
-             * make a call to an overloaded method with the generics of the B-Tree and dwArray as parameters,
-             * set WeetArray equal to the new array and force WeetArray to return by setting 'altered' to false.
-             */
-            else {
-                c = 0;
-                altered = false;
-                Weet[] dwArray = new Weet[size];
-                toArray(root, height, dwArray);
-                WeetArray = dwArray;
-                return dwArray;
+            if (altered) {
+                WeetArray = toArray(0, size);
+                altered   = false;
             }
+            return WeetArray;
         }
 
         public Weet[] toArray(String query) {
@@ -568,180 +768,755 @@ public class WeetStore implements IWeetStore {
              * Used by getWeetsContaining(String query) for returning a chronological array of weets
              * whose names contain the given string.
              */
-            c = 0;
+            Weet[] dwArray = new Weet[size];
+            int c = 0;
+
+            BPlusTree.Cursor cursor = index.at(0);
+            while (cursor.hasNext()) {
+                Weet genWeet = weets[cursor.next()];
+                if ((genWeet.getMessage()).contains(query)) {    // Return true if the weet contains the given string.
+                    dwArray[c++] = genWeet;
+                }
+            }
 
-            Weet[] dwArray = new Weet[size];    // If M is the number of Date-Weet pairs,   dwArray has size M. 
-            Weet[] chArray = new Weet[c];       // If N is the number of children per node, chArray has size N. 
+            Weet[] chArray = new Weet[c];
+            System.arraycopy(dwArray, 0, chArray, 0, c);
+            return chArray;
+        }
 
+        public Weet[] toArray(Date date) {
             /**
-             * Make a call to an overloaded method with the generics of the B-Tree, the to-be-queried array
-             * and the given query as parameters.
+             * Used by getWeetsBefore(Date dateBefore) for returning a chronological array of weets
+             * posted before a given date: those whose key is greater than ~date, which follow the rest.
              */
-            toArray(root, height, dwArray, query);
+            return toArray(index.rankAfter(~date.getTime()), size);
+        }
+
+        private Weet[] toOnArray(Date date) {
             /**
-             * Clone dwArray into chArray for indices up to and including 'c', in order to return
-             * exclusively those weets requested.
+             * Used by getWeetsOn(Date dateOn) for returning an array of weets posted on a given date: the
+             * consecutive entries whose key is exactly ~date.
              */
-            chArray = dwArray.clone();
-            return chArray;
+            long key = ~date.getTime();
+            return toArray(index.rank(key), index.rankAfter(key));
         }
 
-        public Weet[] toArray(Date date) {
+        private Weet[] toArray(int from, int to) {
             /**
-             * Used by getWeetsBefore(Date dateBefore) for returning a chronological array of weets
-             * posted before a given date. Exact analogue of the above with a different parameter.
+             * Return the weets of ranks [from, to) in the index.
              */
-            c = 0;
+            Weet[] dwArray = new Weet[to - from];
+            BPlusTree.Cursor cursor = index.at(from);
+            for (int i = 0; i < dwArray.length; i++) {
+                dwArray[i] = weets[cursor.next()];
+            }
+            return dwArray;
+        }
+    }
 
-            Weet[] dwArray = new Weet[size];
-            Weet[] chArray = new Weet[c]; 
+    /* ------------------------------ Implementations for caching query results (QueryCache) ----------------------------- */
+    /**
+     * Create a least-recently-used cache data type from scratch. Entries are keyed by the kind of query and
+     * its argument (a String for CONTAINING, the instant in milliseconds for ON and BEFORE), chained in a hash
+     * table for lookup and threaded onto a doubly linked list for recency; the least recently used entries are
+     * evicted whenever the estimated size of the cached arrays exceeds the byte budget.
+     */
+    public class QueryCache {
+
+        public static final int CONTAINING = 0;
+        public static final int ON         = 1;
+        public static final int BEFORE     = 2;
+
+        private static final int ENTRY_BYTES = 64;    // Estimated overhead of an Entry and its key, excluding the result array.
+        private static final int ARRAY_BYTES = 16;    // Estimated header of a Weet[]; each element then adds a further 4 bytes.
+
+        private final class Entry {
+            private int kind;
+            private String query;
+            private long when;
+            private Weet[] result;
+            private long bytes;
+            private Entry chain;                      // Next entry in the same hash table bucket.
+            private Entry newer;                      // Neighbours in the recency list.
+            private Entry older;
+
+            private Entry(int kind, String query, long when, Weet[] result) {
+                this.kind   = kind;
+                this.query  = query;
+                this.when   = when;
+                this.result = result;
+                this.bytes  = ENTRY_BYTES + ARRAY_BYTES + 4L * result.length + (query == null ? 0 : 2L * query.length());
+            }
+        }
 
-            toArray(root, height, dwArray, date);
-            chArray = dwArray.clone();
-            return chArray;
+        private Entry[] table = new Entry[64];
+        private Entry newest;                         // Head of the recency list.
+        private Entry oldest;                         // Tail of the recency list; the next entry to be evicted.
+        private int count;
+        private long bytes;
+        private long maxBytes;
+        private long hits;
+        private long misses;
+
+        /* Constructors, Getters and Setters */
+        public QueryCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+        /* --------------------------------- */
+
+        private int hash(int kind, String query, long when) {
+            int h = (query == null) ? (int) (when ^ (when >>> 32)) : query.hashCode();
+            h = (h * 31) + kind;
+            return (h ^ (h >>> 16)) & (table.length - 1);
         }
 
-        private void toArray(Node currentNode, int height, Weet[] dwArray) {
+        private boolean matches(Entry e, int kind, String query, long when) {
+            return (e.kind == kind) && (e.when == when) && ((query == null) ? e.query == null : query.equals(e.query));
+        }
+
+        public Weet[] get(int kind, String query, long when) {
             /**
-             * Overloaded function that takes the parameters passed by toArray().
-             * -> return dwArray -> return WeetArray
+             * Return a copy of the cached result of the given query, marking it as the most recently used;
+             * null is returned on a miss. The cached array itself is never handed out, so that a caller
+             * cannot alter the result seen by the next.
              */
-            NodeData[] ChildArray = currentNode.ChildArray;
+            for (Entry e = table[hash(kind, query, when)]; e != null; e = e.chain) {
+                if (matches(e, kind, query, when)) {
+                    unlink(e);
+                    linkNewest(e);
+                    hits++;
+                    return e.result.clone();
+                }
+            }
+            misses++;
+            return null;
+        }
 
+        public void put(int kind, String query, long when, Weet[] result) {
             /**
-             * dwArray is populated via iteration with precisely those indices of children that
-             * are of type Weet, thus producing a chronologically sorted array of all Weets in the B-Tree.
+             * Cache the result of the given query, evicting the least recently used entries
+             * until the byte budget is respected. Results larger than the budget are not cached; others
+             * are copied, as the caller goes on to return the given array.
              */
-            if (height == 0) {
-                for (int j = 0; j < currentNode.childNo; j++) {    // Cycle through Z up to the number of children belonging to the current node.
-                    dwArray[c] = ChildArray[j].genWeet;            // Associate the indices of dwArray with the Weet-nodes of ChildArray.
-                    c++;
-                }
+            Entry e = new Entry(kind, query, when, result);
+
+            if (e.bytes > maxBytes) {
+                return;
             }
+            remove(kind, query, when);
+            e.result = result.clone();
+
+            if (count >= table.length) {
+                resize();
+            }
+            int location       = hash(kind, query, when);
+            e.chain            = table[location];
+            table[location]    = e;
+            linkNewest(e);
+            count++;
+            bytes += e.bytes;
+
+            while (bytes > maxBytes) {
+                drop(oldest);
+            }
+        }
+
+        public void invalidate(Weet weet) {
             /**
-             * If the height of the position is non-zero, traverse the tree downwards (and decrement the height variable accordingly)
-             * and make a recursive call.
+             * Drop exactly those entries whose result the given (newly added) weet would belong to;
+             * entries for other queries remain valid and are kept.
              */
-            else {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    toArray(ChildArray[j].next, (height - 1), dwArray);
+            String message = weet.getMessage();
+            long when      = weet.getDateWeeted().getTime();
+            Entry e        = newest;
+
+            while (e != null) {
+                Entry next = e.older;
+                boolean stale;
+
+                if (e.kind == CONTAINING) {
+                    stale = message.contains(e.query);
+                } else if (e.kind == ON) {
+                    stale = (when == e.when);
+                } else {
+                    stale = (when < e.when);
+                }
+
+                if (stale) {
+                    drop(e);
+                }
+                e = next;
+            }
+        }
+
+        public void clear() {
+            table  = new Entry[64];
+            newest = null;
+            oldest = null;
+            count  = 0;
+            bytes  = 0;
+        }
+
+        private void remove(int kind, String query, long when) {
+            for (Entry e = table[hash(kind, query, when)]; e != null; e = e.chain) {
+                if (matches(e, kind, query, when)) {
+                    drop(e);
+                    return;
                 }
             }
         }
 
-        private Weet toArray(Node currentNode, Date date, int height) {
+        private void drop(Entry e) {
             /**
-             * Method for B-Tree element search?.
+             * Remove the given entry from both its hash table bucket and the recency list.
              */
-            NodeData[] ChildArray = currentNode.ChildArray;
+            int location = hash(e.kind, e.query, e.when);
 
-            /* Considers case where the node is external, i.e., a leaf */
-            if (height == 0) {
-                for (int i = 0; i < currentNode.childNo; i++) {
-                    /**
-                     * Use native comparison function to return true iff any children of the current node
-                     * joined strictly earlier than the instant represented by 'date'. If true, break.
-                     */ 
-                    if ((ChildArray[i].whenWeeted).after(date)) {
-                        return ChildArray[i].genWeet;
-                    }
+            if (table[location] == e) {
+                table[location] = e.chain;
+            } else {
+                Entry prev = table[location];
+                while (prev.chain != e) {
+                    prev = prev.chain;
                 }
+                prev.chain = e.chain;
+            }
+            unlink(e);
+            count--;
+            bytes -= e.bytes;
+        }
+
+        private void linkNewest(Entry e) {
+            e.older = newest;
+            e.newer = null;
+
+            if (newest != null) {
+                newest.newer = e;
+            }
+            newest = e;
+
+            if (oldest == null) {
+                oldest = e;
+            }
+        }
+
+        private void unlink(Entry e) {
+            if (e.newer != null) {
+                e.newer.older = e.older;
+            } else {
+                newest = e.older;
+            }
+
+            if (e.older != null) {
+                e.older.newer = e.newer;
+            } else {
+                oldest = e.newer;
+            }
+            e.newer = null;
+            e.older = null;
+        }
+
+        private void resize() {
+            /**
+             * Double the number of buckets and rehash every entry; the recency list is unaffected.
+             */
+            Entry[] old = table;
+            table = new Entry[old.length * 2];
+
+            for (int i = 0; i < old.length; i++) {
+                Entry e = old[i];
+                while (e != null) {
+                    Entry next      = e.chain;
+                    int location    = hash(e.kind, e.query, e.when);
+                    e.chain         = table[location];
+                    table[location] = e;
+                    e               = next;
+                }
+            }
+        }
+    }
+
+    /* ------------------------------ Implementations for live query subscriptions (PredicateIndex) ----------------------------- */
+    /**
+     * A single registered query. Each LiveQuery is a Flow.Publisher of the weets matching it; delivery and
+     * backpressure are delegated to SubmissionPublisher, which buffers up to a fixed number of weets per
+     * subscriber and never signals more than has been requested. addWeet() never blocks on a slow subscriber;
+     * a weet offered to a subscriber whose buffer is full is dropped for that subscriber only.
+     */
+    public class LiveQuery extends SubmissionPublisher<Weet> {
+
+        public static final int CONTAINING = 0;
+        public static final int BY_USER    = 1;
+        public static final int WITH_TAG   = 2;
+
+        private int kind;
+        private String query;
+        private int uid;
+        private long stamp = -1;    // The last dispatch this query was offered, so that it is matched at most once per weet.
+
+        private LiveQuery(int kind, String query, int uid) {
+            this.kind  = kind;
+            this.query = query;
+            this.uid   = uid;
+        }
+
+        public int getKind() {
+            return kind;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public int getUserId() {
+            return uid;
+        }
+
+        public void close() {
+            /**
+             * Deregister the query from the store and complete every subscriber.
+             */
+            live.deregister(this);
+            super.close();
+        }
+    }
+
+    /**
+     * Create a predicate index data type from scratch. Every LiveQuery is registered under a single String key:
+     *      - "u:<uid>" for user queries and "t:<tag>" for tag queries, matched exactly;
+     *      - "g:<trigram>" for text queries, keyed by the first three characters of the query; a weet can only
+     *        contain the query if it contains that trigram, so only the queries keyed by one of the weet's own
+     *        trigrams need to be checked with contains();
+     *      - "s:" for text queries shorter than three characters, which are always checked.
+     * Keys are chained in a hash table, so publishing a weet of length L costs O(L + T + m) lookups and checks
+     * for T tags and m candidate queries, independently of the total number of subscriptions.
+     */
+    public class PredicateIndex {
+
+        private final class Registration {
+            private String key;
+            private LiveQuery query;
+            private Registration next;
+
+            private Registration(String key, LiveQuery query, Registration next) {
+                this.key   = key;
+                this.query = query;
+                this.next  = next;
+            }
+        }
+
+        private Registration[] table = new Registration[97];
+        private int size;
+        private long dispatches;
+
+        public int getSize() {
+            return size;
+        }
+
+        private int hash(String key) {
+            return (key.hashCode() & 0x7fffffff) % table.length;
+        }
+
+        private String keyOf(LiveQuery q) {
+            if (q.kind == LiveQuery.BY_USER) {
+                return "u:" + q.uid;
+            }
+            if (q.kind == LiveQuery.WITH_TAG) {
+                return "t:" + q.query;
             }
-            /* Considers case where the node is internal */
-            else {
-                for (int i = 0; i < currentNode.childNo; i++) {
-                    if (((i + 1) == currentNode.childNo) || (ChildArray[i].whenWeeted).after(date)) {
-                        return toArray(ChildArray[i].next, date, height-1);
+            return (q.query.length() < 3) ? "s:" : "g:" + q.query.substring(0, 3);
+        }
+
+        public synchronized LiveQuery register(LiveQuery q) {
+            int location    = hash(keyOf(q));
+            table[location] = new Registration(keyOf(q), q, table[location]);
+            size++;
+            return q;
+        }
+
+        public synchronized void deregister(LiveQuery q) {
+            int location      = hash(keyOf(q));
+            Registration prev = null;
+
+            for (Registration r = table[location]; r != null; prev = r, r = r.next) {
+                if (r.query == q) {
+                    if (prev == null) {
+                        table[location] = r.next;
+                    } else {
+                        prev.next = r.next;
                     }
+                    size--;
+                    return;
                 }
             }
-            return null;
         }
 
-        private void toArray(Node currentNode, int height, Weet[] dwArray, String query) {
+        public synchronized void publish(Weet weet) {
             /**
-             * Overloaded function that takes the parameters passed by toArray(String query).
+             * Offer the given weet to every registered query it satisfies.
              */
-            NodeData[] ChildArray = currentNode.ChildArray;
+            if (size == 0) {
+                return;
+            }
+            dispatches++;
+            String message = weet.getMessage();
+
+            offer("u:" + weet.getUserId(), weet);
+
+            String[] tags = extractTags(message);
+            for (int i = 0; i < tags.length; i++) {
+                offer("t:" + tags[i], weet);
+            }
+
+            offer("s:", weet);
+            for (int i = 0; i + 3 <= message.length(); i++) {
+                offer("g:" + message.substring(i, i + 3), weet);
+            }
+        }
 
+        private void offer(String key, Weet weet) {
+            for (Registration r = table[hash(key)]; r != null; r = r.next) {
+                LiveQuery q = r.query;
+
+                if (!r.key.equals(key) || (q.stamp == dispatches)) {
+                    continue;
+                }
+                if ((q.kind == LiveQuery.CONTAINING) && !weet.getMessage().contains(q.query)) {
+                    continue;
+                }
+                q.stamp = dispatches;
+                q.offer(weet, null);
+            }
+        }
+    }
+
+    /* ------------------------------ Implementations for weets by ID (WeetTable) ----------------------------- */
+    /**
+     * Create an open-addressing hash table of weets, keyed by weet ID, from scratch. Collisions are resolved by
+     * linear probing, and the table doubles whenever it becomes half full.
+     */
+    public class WeetTable {
+
+        private Weet[] slots = new Weet[16];
+        private int size;
+
+        public int getSize() {
+            return size;
+        }
+
+        private int location(int wid, int length) {
+            int h = wid * 0x9E3779B9;    // Fibonacci hashing spreads consecutive IDs across the table.
+            return (h ^ (h >>> 16)) & (length - 1);
+        }
+
+        public Weet get(int wid) {
+            for (int i = location(wid, slots.length); slots[i] != null; i = (i + 1) & (slots.length - 1)) {
+                if (slots[i].getId() == wid) {
+                    return slots[i];
+                }
+            }
+            return null;
+        }
+
+        public void put(Weet weet) {
             /**
-             * An exact analogue of the above method, with the addition of a .contains() function for filtering.
+             * Insert a weet whose ID is not yet in the table.
              */
-            if (height == 0) {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    if ((ChildArray[j].genWeet.getMessage()).contains(query)) {    // Return true if the weet contains the given string.
-                        dwArray[c] = ChildArray[j].genWeet;
-                        c++;
+            if (2 * (size + 1) > slots.length) {
+                Weet[] old = slots;
+                slots = new Weet[old.length * 2];
+                for (int i = 0; i < old.length; i++) {
+                    if (old[i] != null) {
+                        place(old[i]);
+                    }
+                }
+            }
+            place(weet);
+            size++;
+        }
+
+        private void place(Weet weet) {
+            int i = location(weet.getId(), slots.length);
+            while (slots[i] != null) {
+                i = (i + 1) & (slots.length - 1);
+            }
+            slots[i] = weet;
+        }
+    }
+
+    /* ------------------------------ Implementations for weets by hashtag (TagIndex) ----------------------------- */
+    /**
+     * Create an inverted index of hashtags from scratch. Each tag maps, through a chained hash table, to a posting
+     * list: parallel arrays of weet IDs and the instants they were posted, sorted such that the most recent weet is
+     * *last*. Weets usually arrive in chronological order, making an addition an append; the K most recent weets
+     * are then simply the last K postings, read backwards.
+     */
+    public class TagIndex {
+
+        private final class Posting {
+            private String tag;
+            private int[] wids    = new int[4];
+            private long[] whens  = new long[4];
+            private int size;
+            private Posting next;                     // Next posting list in the same hash table bucket.
+
+            private Posting(String tag, Posting next) {
+                this.tag  = tag;
+                this.next = next;
+            }
+
+            private void add(int wid, long when) {
+                if (size == wids.length) {
+                    int[] moreWids   = new int[size * 2];
+                    long[] moreWhens = new long[size * 2];
+                    System.arraycopy(wids, 0, moreWids, 0, size);
+                    System.arraycopy(whens, 0, moreWhens, 0, size);
+                    wids  = moreWids;
+                    whens = moreWhens;
+                }
+
+                /* Binary search for the insertion point, which is the end of the list unless the weet is late. */
+                int i = size;
+                if ((size > 0) && (whens[size - 1] > when)) {
+                    int lo = 0;
+                    int hi = size;
+                    while (lo < hi) {
+                        int mid = (lo + hi) >>> 1;
+                        if (whens[mid] > when) {
+                            hi = mid;
+                        } else {
+                            lo = mid + 1;
+                        }
                     }
+                    i = lo;
+                    System.arraycopy(wids, i, wids, i + 1, size - i);
+                    System.arraycopy(whens, i, whens, i + 1, size - i);
                 }
+
+                wids[i]  = wid;
+                whens[i] = when;
+                size++;
             }
-            else {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    toArray(ChildArray[j].next, (height - 1), dwArray, query);
+        }
+
+        private Posting[] table = new Posting[64];
+        private int size;
+
+        public int getSize() {
+            return size;
+        }
+
+        private int location(String tag, int length) {
+            int h = tag.hashCode();
+            return (h ^ (h >>> 16)) & (length - 1);
+        }
+
+        private Posting find(String tag) {
+            for (Posting p = table[location(tag, table.length)]; p != null; p = p.next) {
+                if (p.tag.equals(tag)) {
+                    return p;
                 }
             }
+            return null;
         }
 
-        private void toArray(Node currentNode, int height, Weet[] dwArray, Date date) {
+        public void add(String tag, Weet weet) {
             /**
-             * Overloaded function that takes the parameters passed by toArray(Date date).
+             * Add the given weet to the posting list of the given tag, creating it if necessary.
              */
-            NodeData[] ChildArray = currentNode.ChildArray;
+            Posting p = find(tag);
 
-            if  (height == 0) {
-                 for (int j = 0; j < currentNode.childNo; j++) {
-                      if ((ChildArray[j].genWeet.getDateWeeted()).before(date)) {    // Return true if the weet was posted before the given date.
-                          dwArray[c] = ChildArray[j].genWeet;
-                          c++;
-                          }
-                      }
-                 }
-            else {
-                 for (int j = 0; j < currentNode.childNo; j++) {
-                      toArray(ChildArray[j].next, (height - 1), dwArray, date);
-                      }
-                 }
+            if (p == null) {
+                if (size == table.length) {
+                    resize();
+                }
+                int l    = location(tag, table.length);
+                p        = new Posting(tag, table[l]);
+                table[l] = p;
+                size++;
             }
+            p.add(weet.getId(), weet.getDateWeeted().getTime());
+        }
 
-        private void toArray(Node currentNode, Date date, int height, Weet[] dwArray) {
+        public int[] getRecent(String tag, int limit) {
             /**
-             * Overloaded function that takes the parameters passed by toOnArray(Date date).
+             * Return the IDs of at most 'limit' weets with the given tag, the most recent first.
              */
-            NodeData[] ChildArray = currentNode.ChildArray;
+            Posting p = find(tag);
 
-            if (height == 0) {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    if ((ChildArray[j].whenWeeted).equals(date)) {    // Return true if the weet was posted on the given date.
-                        dwArray[c] = ChildArray[j].genWeet;
-                        c++;
-                    }
-                    if ((ChildArray[j].whenWeeted).before(date)) { 
-                        return;
+            if ((p == null) || (limit <= 0)) {
+                return new int[0];
+            }
+
+            int[] result = new int[Math.min(limit, p.size)];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = p.wids[p.size - 1 - i];
+            }
+            return result;
+        }
+
+        private void resize() {
+            Posting[] old = table;
+            table = new Posting[old.length * 2];
+
+            for (int i = 0; i < old.length; i++) {
+                for (Posting p = old[i]; p != null; ) {
+                    Posting next = p.next;
+                    int l        = location(p.tag, table.length);
+                    p.next       = table[l];
+                    table[l]     = p;
+                    p            = next;
+                }
+            }
+        }
+    }
+
+    /* ------------------------------ Implementations for weets by author (AuthorIndex) ----------------------------- */
+    /**
+     * Create an index of weets by author from scratch, analogous to the TagIndex: each User ID maps, through a
+     * chained hash table, to the author's weets and the instants they were posted, sorted such that the most recent
+     * weet is *last*. The K most recent weets no later than a given instant are found by one binary search.
+     */
+    public class AuthorIndex {
+
+        private final class Posting {
+            private int uid;
+            private Weet[] weets = new Weet[4];
+            private long[] whens = new long[4];
+            private int size;
+            private Posting next;                     // Next posting list in the same hash table bucket.
+
+            private Posting(int uid, Posting next) {
+                this.uid  = uid;
+                this.next = next;
+            }
+
+            private void add(Weet weet, long when) {
+                if (size == weets.length) {
+                    Weet[] moreWeets = new Weet[size * 2];
+                    long[] moreWhens = new long[size * 2];
+                    System.arraycopy(weets, 0, moreWeets, 0, size);
+                    System.arraycopy(whens, 0, moreWhens, 0, size);
+                    weets = moreWeets;
+                    whens = moreWhens;
+                }
+
+                /* The insertion point is the end of the list unless the weet is late. */
+                int i = size;
+                if ((size > 0) && (whens[size - 1] > when)) {
+                    i = after(when);
+                    System.arraycopy(weets, i, weets, i + 1, size - i);
+                    System.arraycopy(whens, i, whens, i + 1, size - i);
+                }
+
+                weets[i] = weet;
+                whens[i] = when;
+                size++;
+            }
+
+            private int after(long when) {
+                /* Binary search for the first weet posted strictly after 'when'. */
+                int lo = 0;
+                int hi = size;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (whens[mid] > when) {
+                        hi = mid;
+                    } else {
+                        lo = mid + 1;
                     }
                 }
-            } else {
-                for (int j = 0; j < currentNode.childNo; j++) {
-                    toArray(ChildArray[j].next, date, (height - 1), dwArray);
+                return lo;
+            }
+        }
+
+        private Posting[] table = new Posting[64];
+        private int size;
+
+        public int getSize() {
+            return size;
+        }
+
+        private int location(int uid, int length) {
+            int h = uid * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & (length - 1);
+        }
+
+        private Posting find(int uid) {
+            for (Posting p = table[location(uid, table.length)]; p != null; p = p.next) {
+                if (p.uid == uid) {
+                    return p;
                 }
             }
+            return null;
         }
 
-        /* ---------- Exceptional toArray Method ---------- */
-        private Weet[] toOnArray(Date date) {
+        public void add(Weet weet) {
             /**
-             * Used by getWeetsOn(Date dateOn) for returning an array of weets posted on a given date.
-             * A differently named method is here required as the order and type of parameters would otherwise
-             * conflict with the method toArray(Date date). Calling the function of type toArray(root, height, dwArray, date)
-             * would lead to the execution of an inappropriate Date comparison between the given date and the weet's date.
+             * Add the given weet to the posting list of its author, creating it if necessary.
              */
-            c = 0;
+            int uid    = weet.getUserId();
+            Posting p  = find(uid);
 
-            Weet[] dwArray = new Weet[size];
-            Weet[] chArray = new Weet[c]; 
+            if (p == null) {
+                if (size == table.length) {
+                    resize();
+                }
+                int l    = location(uid, table.length);
+                p        = new Posting(uid, table[l]);
+                table[l] = p;
+                size++;
+            }
+            p.add(weet, weet.getDateWeeted().getTime());
+        }
 
-            toArray(root, date, height, dwArray);
-            chArray = dwArray.clone();
-            return chArray;
+        public Weet[] getRecent(int uid, long until, int limit) {
+            /**
+             * Return at most 'limit' weets of the given author posted no later than 'until', the most recent first.
+             */
+            Posting p = find(uid);
+
+            if (p == null) {
+                return new Weet[0];
+            }
+
+            int end       = p.after(until);
+            Weet[] result = new Weet[Math.min(limit, end)];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = p.weets[end - 1 - i];
+            }
+            return result;
+        }
+
+        private void resize() {
+            Posting[] old = table;
+            table = new Posting[old.length * 2];
+
+            for (int i = 0; i < old.length; i++) {
+                for (Posting p = old[i]; p != null; ) {
+                    Posting next = p.next;
+                    int l        = location(p.uid, table.length);
+                    p.next       = table[l];
+                    table[l]     = p;
+                    p            = next;
+                }
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,211 @@
+/**
+ * CS126 Design of Information Structures
+ * FollowerStoreBenchmark.java
+ *
+ * JMH benchmarks of the public queries and updates of the FollowerStore, over a store of the 'size' relationships of the
+ * WitterData set, among 'size' Users; the followed User of each relationship is Zipf-distributed, so that a few Users have
+ * most of the followers. Queries cycle through Users sampled by the same distribution, so that, as in use, the Users with
+ * the longest lists are asked for most. addFollower() and removeFollower() run against a store rebuilt every iteration.
+ *
+ * The maintenance methods -- open(), importEdges(), compact(), buildSnapshot() and close() -- are measured by their own
+ * effect on these queries rather than here; refreshInfluence() is called once in the set-up, so that
+ * getTopUsersByInfluence() measures the query alone.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services.bench;
+
+import uk.ac.warwick.java.cs126.services.FollowerStore;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FollowerStoreBenchmark {
+
+    static final int CANDIDATES = 64;                           // The number of candidates passed to getMutualFollowerCounts().
+    static final long MONTH     = 30L * 24 * 3600 * 1000;       // The interval of getFollowerCountHistory().
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"126"})
+    public long seed;
+
+    private FollowerStore store;     // Declare the store queried, built once per trial.
+    private int[] hot;               // Declare User IDs sampled by popularity.
+    private int[] cold;              // Declare User IDs sampled uniformly.
+    private Date[] dates;            // Declare the sampled instants, within the year the relationships were established.
+    private int[][] candidates;      // Declare the candidate lists of getMutualFollowerCounts().
+    private int next;                // Declare the position in the samples.
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        WitterData data = WitterData.shared(size, seed);
+        store = data.buildFollowerStore();
+        store.refreshInfluence();
+
+        hot  = data.sampleUsers(WitterData.SAMPLES, 0);
+        cold = new int[WitterData.SAMPLES];
+        for (int i = 0; i < cold.length; i++) {
+            cold[i] = data.followers[(int) (((long) i * data.size) / cold.length)];
+        }
+
+        Date[] sampled = data.sampleJoinDates(WitterData.SAMPLES, 1);
+        dates = new Date[sampled.length];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = new Date(sampled[i].getTime() + WitterData.YEAR);
+        }
+
+        int[] pool = data.sampleUsers(WitterData.SAMPLES * 4, 2);
+        candidates = new int[WitterData.SAMPLES][CANDIDATES];
+        for (int i = 0; i < candidates.length; i++) {
+            for (int j = 0; j < CANDIDATES; j++) {
+                candidates[i][j] = pool[((i * CANDIDATES) + j) % pool.length];
+            }
+        }
+    }
+
+    /* ------------------------------ Implementations for updating (Writes) ----------------------------- */
+    @State(Scope.Benchmark)
+    public static class Writes {
+        FollowerStore store;
+        WitterData data;
+        int fresh;        // Declare the number of relationships added.
+        int removed;      // Declare the number of relationships of the data set removed.
+
+        @Setup(Level.Iteration)
+        public void setUp(FollowerStoreBenchmark benchmark) {
+            data    = WitterData.shared(benchmark.size, benchmark.seed);
+            store   = data.buildFollowerStore();
+            fresh   = 0;
+            removed = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean addFollower(Writes writes) {
+        /**
+         * Add a relationship from a uniformly chosen User to a popular one, established after those of the data set.
+         */
+        int i    = writes.fresh++;
+        int uid1 = cold[WitterData.cycle(i)];
+        int uid2 = hot[WitterData.cycle(i * 31 + 7)];
+        return writes.store.addFollower(uid1, uid2, new Date(WitterData.START + (2 * WitterData.YEAR) + i));
+    }
+
+    @Benchmark
+    public boolean removeFollower(Writes writes) {
+        /**
+         * Remove the relationships of the data set in turn; once all are gone, each call finds none.
+         */
+        int i = (writes.removed++) % writes.data.size;
+        return writes.store.removeFollower(writes.data.followers[i], writes.data.followed[i]);
+    }
+
+    /* ------------------------------ Implementations for querying ----------------------------- */
+    @Benchmark
+    public int[] getFollowers() {
+        return store.getFollowers(hot[WitterData.cycle(next++)]);
+    }
+
+    @Benchmark
+    public int[] getFollows() {
+        return store.getFollows(cold[WitterData.cycle(next++)]);
+    }
+
+    @Benchmark
+    public boolean isAFollower() {
+        int i = next++;
+        return store.isAFollower(cold[WitterData.cycle(i)], hot[WitterData.cycle(i)]);
+    }
+
+    @Benchmark
+    public int getNumFollowers() {
+        return store.getNumFollowers(hot[WitterData.cycle(next++)]);
+    }
+
+    @Benchmark
+    public int[] getFollowersSince() {
+        int i = next++;
+        return store.getFollowersSince(hot[WitterData.cycle(i)], dates[WitterData.cycle(i)]);
+    }
+
+    @Benchmark
+    public int[] getFollowerCountHistory() {
+        Date from = new Date(WitterData.START + WitterData.YEAR);
+        Date to   = new Date(WitterData.START + (2 * WitterData.YEAR));
+        return store.getFollowerCountHistory(hot[WitterData.cycle(next++)], from, to, MONTH);
+    }
+
+    @Benchmark
+    public int[] getMutualFollowers() {
+        int i = next++;
+        return store.getMutualFollowers(hot[WitterData.cycle(i)], hot[WitterData.cycle(i + 1)]);
+    }
+
+    @Benchmark
+    public int[] getMutualFollows() {
+        int i = next++;
+        return store.getMutualFollows(cold[WitterData.cycle(i)], cold[WitterData.cycle(i + 1)]);
+    }
+
+    @Benchmark
+    public int getNumMutualFollowers() {
+        int i = next++;
+        return store.getNumMutualFollowers(hot[WitterData.cycle(i)], hot[WitterData.cycle(i + 1)]);
+    }
+
+    @Benchmark
+    public int[] getMutualFollowerCounts() {
+        int i = next++;
+        return store.getMutualFollowerCounts(hot[WitterData.cycle(i)], candidates[WitterData.cycle(i)]);
+    }
+
+    @Benchmark
+    public int[] getTopUsers() {
+        return store.getTopUsers(10);
+    }
+
+    @Benchmark
+    public int getRank() {
+        return store.getRank(hot[WitterData.cycle(next++)]);
+    }
+
+    @Benchmark
+    public int[] getTopUsersByInfluence() {
+        return store.getTopUsersByInfluence(10);
+    }
+
+    @Benchmark
+    public int[] getShortestFollowPath() {
+        int i = next++;
+        return store.getShortestFollowPath(cold[WitterData.cycle(i)], hot[WitterData.cycle(i)], 3);
+    }
+
+    @Benchmark
+    public int[] getRecommendations() {
+        return store.getRecommendations(cold[WitterData.cycle(next++)], 10);
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * CS126 Design of Information Structures
+ * UserStoreBenchmark.java
+ *
+ * JMH benchmarks of every public method of the UserStore, over a store of 'size' Users of the WitterData set. Queries
+ * cycle through arguments sampled as the data set was; addUser() runs against a store rebuilt every iteration, and grows
+ * it by the Users it adds, each allocated in the benchmark (and so counted in its bytes/op).
+ *
+ * The sizes stop at 10^5, here and in the default sizes of WitterBenchmarks: the table of Users by ID has a fixed 97
+ * chains, so building a larger store takes time quadratic in its size. Larger sizes may still be given to the runner.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services.bench;
+
+import uk.ac.warwick.java.cs126.models.User;
+import uk.ac.warwick.java.cs126.services.UserStore;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UserStoreBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"126"})
+    public long seed;
+
+    private UserStore store;     // Declare the store queried, built once per trial.
+    private int[] uids;          // Declare the sampled User IDs.
+    private String[] words;      // Declare the sampled substrings of names.
+    private Date[] dates;        // Declare the sampled instants.
+    private int next;            // Declare the position in the samples.
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        WitterData data = WitterData.shared(size, seed);
+        store = data.buildUserStore();
+        uids  = data.sampleUsers(WitterData.SAMPLES, 0);
+        words = data.sampleWords(WitterData.SAMPLES, 1);
+        dates = data.sampleJoinDates(WitterData.SAMPLES, 2);
+    }
+
+    /* ------------------------------ Implementations for adding (Writes) ----------------------------- */
+    @State(Scope.Benchmark)
+    public static class Writes {
+        UserStore store;
+        int fresh;
+
+        @Setup(Level.Iteration)
+        public void setUp(UserStoreBenchmark benchmark) {
+            store = WitterData.shared(benchmark.size, benchmark.seed).buildUserStore();
+            fresh = benchmark.size;
+        }
+    }
+
+    @Benchmark
+    public boolean addUser(Writes writes) {
+        int uid = ++writes.fresh;
+        return writes.store.addUser(new User(WitterData.word(1) + "_" + uid, uid, new Date(WitterData.START + WitterData.YEAR + uid)));
+    }
+
+    /* ------------------------------ Implementations for querying ----------------------------- */
+    @Benchmark
+    public User getUser() {
+        return store.getUser(uids[WitterData.cycle(next++)]);
+    }
+
+    @Benchmark
+    public User[] getUsers() {
+        return store.getUsers();
+    }
+
+    @Benchmark
+    public User[] getUsersContaining() {
+        return store.getUsersContaining(words[WitterData.cycle(next++)]);
+    }
+
+    @Benchmark
+    public User[] getUsersJoinedBefore() {
+        return store.getUsersJoinedBefore(dates[WitterData.cycle(next++)]);
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * CS126 Design of Information Structures
+ * WeetStoreBenchmark.java
+ *
+ * JMH benchmarks of every public method of the WeetStore, over a store of 'size' weets of the WitterData set. Queries
+ * cycle through arguments sampled as the data set was -- so that, as in use, the commonest words are asked for most and
+ * getWeetsContaining() is often answered by the QueryCache. addWeet() and addWeets() run against a store rebuilt every
+ * iteration, and grow it by the weets they add, each allocated in the benchmark (and so counted in its bytes/op).
+ *
+ * The store is built with addWeets(), which merges each batch into the B+Tree in one pass. The sizes of the
+ * @Param stop at 10^5, since getWeets() and getWeetsByUser() sort by exchange, in time quadratic in the size; by
+ * default, WitterBenchmarks runs the other benchmarks at sizes up to 10^7.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services.bench;
+
+import uk.ac.warwick.java.cs126.models.User;
+import uk.ac.warwick.java.cs126.models.Weet;
+import uk.ac.warwick.java.cs126.services.WeetStore;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WeetStoreBenchmark {
+
+    static final int BATCH = 64;    // The number of weets added by each call of addWeets().
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"126"})
+    public long seed;
+
+    private WeetStore store;     // Declare the store queried, built once per trial.
+    private User[] users;        // Declare the Users of the sampled User IDs.
+    private int[] wids;          // Declare the sampled weet IDs.
+    private String[] words;      // Declare the sampled words.
+    private String[] tags;       // Declare the sampled hashtags.
+    private Date[] dates;        // Declare the sampled instants, each of a weet.
+    private int next;            // Declare the position in the samples.
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        WitterData data = WitterData.shared(size, seed);
+        store = data.buildWeetStore();
+
+        int[] uids = data.sampleUsers(WitterData.SAMPLES, 0);
+        users = new User[uids.length];
+        for (int i = 0; i < uids.length; i++) {
+            users[i] = data.users[uids[i] - 1];
+        }
+        wids  = data.sampleUsers(WitterData.SAMPLES, 1);    // Weets are numbered as Users are, so hot weet IDs are the oldest.
+        words = data.sampleWords(WitterData.SAMPLES, 2);
+        tags  = data.sampleTags(WitterData.SAMPLES, 3);
+        dates = data.sampleWeetDates(WitterData.SAMPLES, 4);
+    }
+
+    /* ------------------------------ Implementations for adding (Writes) ----------------------------- */
+    @State(Scope.Benchmark)
+    public static class Writes {
+        WeetStore store;
+        int fresh;
+
+        @Setup(Level.Iteration)
+        public void setUp(WeetStoreBenchmark benchmark) {
+            store = WitterData.shared(benchmark.size, benchmark.seed).buildWeetStore();
+            fresh = benchmark.size;
+        }
+
+        Weet weet(WeetStoreBenchmark benchmark) {
+            int wid = ++fresh;
+            int i   = WitterData.cycle(wid);
+            return new Weet(wid, benchmark.users[i].getId(), benchmark.words[i] + " " + benchmark.tags[i],
+                            new Date(WitterData.START + (2 * WitterData.YEAR) + wid));
+        }
+    }
+
+    @Benchmark
+    public boolean addWeet(Writes writes) {
+        return writes.store.addWeet(writes.weet(this));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int addWeets(Writes writes) {
+        Weet[] batch = new Weet[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            batch[i] = writes.weet(this);
+        }
+        return writes.store.addWeets(batch);
+    }
+
+    /* ------------------------------ Implementations for querying ----------------------------- */
+    @Benchmark
+    public Weet getWeet() {
+        return store.getWeet(wids[WitterData.cycle(next++)]);
+    }
+
+    @Benchmark
+    public Weet[] getWeets() {
+        return store.getWeets();
+    }
+
+    @Benchmark
+    public Weet[] getWeetsByUser() {
+        return store.getWeetsByUser(users[WitterData.cycle(next++)]);
+    }
+
+    @Benchmark
+    public Weet[] getWeetsContaining() {
+        return store.getWeetsContaining(words[WitterData.cycle(next++)]);
+    }
+
+    @Benchmark
+    public Weet[] getWeetsOn() {
+        return store.getWeetsOn(dates[WitterData.cycle(next++)]);
+    }
+
+    @Benchmark
+    public Weet[] getWeetsBefore() {
+        return store.getWeetsBefore(dates[WitterData.cycle(next++)]);
+    }
+
+    @Benchmark
+    public Weet[] getWeetsWithTag() {
+        return store.getWeetsWithTag(tags[WitterData.cycle(next++)], 20);
+    }
+
+    @Benchmark
+    public String[] getTrending() {
+        return store.getTrending();
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * CS126 Design of Information Structures
+ * WitterBenchmarks.java
+ *
+ * Runs the benchmarks of the stores with allocation profiling, so that each result is reported both in operations per
+ * second and in bytes allocated per operation (gc.alloc.rate.norm), and writes the results as JSON for comparison
+ * between builds:
+ *
+ *        WitterBenchmarks [sizes [pattern [result file]]]
+ *
+ * where sizes is a comma-separated list overriding the default sizes of every benchmark (e.g. 1000,10000000), pattern
+ * selects benchmarks by regular expression (e.g. "FollowerStoreBenchmark.getFollowers$") and the result file defaults
+ * to witter-benchmarks.json. A pattern given without sizes runs each benchmark at the sizes of its @Param.
+ *
+ * Given neither, every benchmark runs at the default sizes, SIZES, from 10^3 to 10^7 -- except those matching BOUNDED,
+ * which run at SMALL_SIZES: every benchmark of the UserStore, whose table of Users by ID has a fixed 97 chains, and the
+ * getWeets() and getWeetsByUser() of the WeetStore, which sort by exchange; beyond 10^5 these take time quadratic in
+ * the size. The largest sizes need a heap of several gigabytes, given to the forks by -Xmx in the environment
+ * variable WITTER_BENCH_HEAP (e.g. 8g).
+ *
+ * The benchmarks need JMH (jmh-core, and jmh-generator-annprocess as an annotation processor) on the class path, with
+ * the Witter sources and models; the stores themselves depend on nothing beyond the JDK. The pom.xml beside them builds
+ * all of these into target/benchmarks.jar, which runs this class:
+ *
+ *        mvn package -Dcs126.src=<the cs126 sources>  &&  java -jar target/benchmarks.jar [sizes [pattern [result file]]]
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services.bench;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public final class WitterBenchmarks {
+
+    /* The default sizes: 10^3 to 10^7, and to 10^5 for the benchmarks bounded by a quadratic path of their store. */
+    public static final String[] SIZES       = { "1000", "10000", "100000", "1000000", "10000000" };
+    public static final String[] SMALL_SIZES = { "1000", "10000", "100000" };
+    public static final String BOUNDED       = "UserStoreBenchmark\\.|WeetStoreBenchmark\\.getWeets(ByUser)?$";
+
+    private WitterBenchmarks() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String all     = WitterBenchmarks.class.getPackage().getName() + ".*Benchmark.*";
+        String pattern = (args.length > 1) ? args[1] : null;
+        String result  = (args.length > 2) ? args[2] : "witter-benchmarks.json";
+        String sizes   = (args.length > 0) ? args[0] : "";
+
+        Collection<RunResult> results = new ArrayList<RunResult>();
+
+        if (sizes.length() > 0) {
+            results.addAll(new Runner(options((pattern == null) ? all : pattern).param("size", sizes.split(",")).build()).run());
+        } else if (pattern != null) {
+            results.addAll(new Runner(options(pattern).build()).run());
+        } else {
+            results.addAll(new Runner(options(all).exclude(BOUNDED).param("size", SIZES).build()).run());
+            results.addAll(new Runner(options(BOUNDED).param("size", SMALL_SIZES).build()).run());
+        }
+
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, result).writeOut(results);
+    }
+
+    private static ChainedOptionsBuilder options(String pattern) {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(pattern)
+                .addProfiler(GCProfiler.class);
+
+        String heap = System.getenv("WITTER_BENCH_HEAP");
+        if (heap != null) {
+            options = options.jvmArgsAppend("-Xms" + heap, "-Xmx" + heap);
+        }
+        return options;
+    }
+}
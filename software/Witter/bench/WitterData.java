@@ -0,0 +1,222 @@
+/**
+ * CS126 Design of Information Structures
+ * WitterData.java
+ *
+ * A seeded synthetic data set for the benchmarks: 'size' Users, 'size' weets and 'size' follower relationships, with
+ * Zipfian activity -- the author of each weet, the User followed in each relationship, and the words and hashtags of each
+ * message are drawn from Zipf distributions -- so that a few Users and tags are hot and most are cold, as in a real
+ * timeline. The same seed always yields the same data, so that two builds of the stores are measured on equal terms.
+ *
+ * Users are numbered 1 to 'size' in order of joining, over a year; weets are posted in order over the following year,
+ * and relationships are established over the same year. Sampled query arguments (Users, words, tags and instants) are
+ * drawn from the same distributions, with a seed of their own.
+ *
+ * Complexity analyses of the main methods:
+ *        -- generate()
+ *              O(size): A constant number of draws per User, weet and relationship.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services.bench;
+
+import uk.ac.warwick.java.cs126.models.User;
+import uk.ac.warwick.java.cs126.models.Weet;
+import uk.ac.warwick.java.cs126.services.FollowerStore;
+import uk.ac.warwick.java.cs126.services.UserStore;
+import uk.ac.warwick.java.cs126.services.WeetStore;
+
+import java.util.Date;
+import java.util.SplittableRandom;
+
+public final class WitterData {
+
+    public static final long START  = 1420070400000L;         // Declare the instant the first User joins (1 January 2015).
+    public static final long YEAR   = 365L * 24 * 3600 * 1000; // Declare the span over which Users join, and weets are posted.
+
+    public static final double ACTIVITY = 1.1;                 // Declare the exponent of the Zipf distributions of Users.
+    public static final int WORDS       = 5000;                // Declare the size of the vocabulary of messages.
+    public static final int TAGS        = 1000;                // Declare the number of distinct hashtags.
+    public static final int SAMPLES     = 1 << 12;             // Declare the number of query arguments a benchmark cycles through.
+
+    public final int size;
+    public final User[] users;                                 // Declare the Users, by ID - 1.
+    public final Weet[] weets;                                 // Declare the weets, in the order posted.
+    public final int[] followers;                              // Declare the follower of each relationship.
+    public final int[] followed;                               // Declare the User followed in each relationship.
+    public final long[] followTimes;                           // Declare the instant each relationship was established.
+
+    private final long seed;
+
+    private WitterData(int size, long seed) {
+        this.size        = size;
+        this.seed        = seed;
+        this.users       = new User[size];
+        this.weets       = new Weet[size];
+        this.followers   = new int[size];
+        this.followed    = new int[size];
+        this.followTimes = new long[size];
+    }
+
+    private static WitterData shared;                          // Declare the data set last returned by shared().
+
+    public static synchronized WitterData shared(int size, long seed) {
+        /**
+         * Return the data set of the given size and seed, generated once per JVM: JMH runs each trial in a fork of its
+         * own, and the states of a trial -- which may rebuild their stores every iteration -- share the one data set.
+         */
+        if ((shared == null) || (shared.size != size) || (shared.seed != seed)) {
+            shared = null;
+            shared = generate(size, seed);
+        }
+        return shared;
+    }
+
+    public static WitterData generate(int size, long seed) {
+        /**
+         * Return the data set of the given size and seed.
+         */
+        WitterData data = new WitterData(size, seed);
+        Zipf active     = new Zipf(size, ACTIVITY, seed);
+        Zipf words      = new Zipf(WORDS, 1.0, seed + 1);
+        Zipf tags       = new Zipf(TAGS, 1.0, seed + 2);
+
+        for (int i = 0; i < size; i++) {
+            long joined = START + ((YEAR * i) / size);
+            data.users[i] = new User(word(words.next()) + "_" + (i + 1), i + 1, new Date(joined));
+        }
+
+        for (int i = 0; i < size; i++) {
+            long posted   = START + YEAR + ((YEAR * i) / size);
+            data.weets[i] = new Weet(i + 1, active.next(), message(active, words, tags), new Date(posted));
+        }
+
+        for (int i = 0; i < size; i++) {
+            int uid1 = 1 + active.nextInt(size);
+            int uid2 = active.next();
+            if ((uid1 == uid2) && (size > 1)) {
+                uid2 = (uid2 % size) + 1;
+            }
+            data.followers[i]   = uid1;
+            data.followed[i]    = uid2;
+            data.followTimes[i] = START + YEAR + ((YEAR * i) / size);
+        }
+        return data;
+    }
+
+    static String message(Zipf active, Zipf words, Zipf tags) {
+        /**
+         * Return a message of three to ten words, with up to two hashtags.
+         */
+        StringBuilder message = new StringBuilder();
+        int length = 3 + active.nextInt(8);
+        for (int j = 0; j < length; j++) {
+            if (j > 0) {
+                message.append(' ');
+            }
+            message.append(word(words.next()));
+        }
+        int tagNo = active.nextInt(3);
+        for (int j = 0; j < tagNo; j++) {
+            message.append(' ').append(tag(tags.next()));
+        }
+        return message.toString();
+    }
+
+    /* ---------- Stores of the data set ---------- */
+    public UserStore buildUserStore() {
+        UserStore store = new UserStore();
+        for (int i = 0; i < size; i++) {
+            store.addUser(users[i]);
+        }
+        return store;
+    }
+
+    public WeetStore buildWeetStore() {
+        /**
+         * Return a WeetStore of the weets, added as one batch: addWeet() grows the array of weets one element at a time.
+         */
+        WeetStore store = new WeetStore();
+        store.addWeets(weets);
+        return store;
+    }
+
+    public FollowerStore buildFollowerStore() {
+        FollowerStore store = new FollowerStore();
+        for (int i = 0; i < size; i++) {
+            store.addFollower(followers[i], followed[i], new Date(followTimes[i]));
+        }
+        return store;
+    }
+
+    public static String word(int rank) {
+        return "w" + rank;
+    }
+
+    public static String tag(int rank) {
+        return "#t" + rank;
+    }
+
+    /* ---------- Sampled query arguments ---------- */
+    /**
+     * Each returns 'count' arguments, drawn as the data set was, for a benchmark to cycle through; 'salt' distinguishes
+     * the samples of different benchmarks of the same data set.
+     */
+    public static int cycle(int i) {
+        /**
+         * Return the position in the samples of the i-th call.
+         */
+        return i & (SAMPLES - 1);
+    }
+
+    public int[] sampleUsers(int count, int salt) {
+        Zipf active  = new Zipf(size, ACTIVITY, seed ^ (0x9E3779B97F4A7C15L * (salt + 1)));
+        int[] sample = new int[count];
+        for (int i = 0; i < count; i++) {
+            sample[i] = active.next();
+        }
+        return sample;
+    }
+
+    public String[] sampleWords(int count, int salt) {
+        Zipf words      = new Zipf(WORDS, 1.0, seed ^ (0xC2B2AE3D27D4EB4FL * (salt + 1)));
+        String[] sample = new String[count];
+        for (int i = 0; i < count; i++) {
+            sample[i] = word(words.next());
+        }
+        return sample;
+    }
+
+    public String[] sampleTags(int count, int salt) {
+        Zipf tags       = new Zipf(TAGS, 1.0, seed ^ (0x165667B19E3779F9L * (salt + 1)));
+        String[] sample = new String[count];
+        for (int i = 0; i < count; i++) {
+            sample[i] = tag(tags.next());
+        }
+        return sample;
+    }
+
+    public Date[] sampleWeetDates(int count, int salt) {
+        /**
+         * Return the instants of weets chosen uniformly, so that getWeetsOn() finds at least one, and getWeetsBefore()
+         * a uniformly distributed share of the store.
+         */
+        SplittableRandom random = new SplittableRandom(seed ^ (0x27D4EB2F165667C5L * (salt + 1)));
+        Date[] sample           = new Date[count];
+        for (int i = 0; i < count; i++) {
+            sample[i] = weets[random.nextInt(size)].getDateWeeted();
+        }
+        return sample;
+    }
+
+    public Date[] sampleJoinDates(int count, int salt) {
+        SplittableRandom random = new SplittableRandom(seed ^ (0x85EBCA77C2B2AE63L * (salt + 1)));
+        Date[] sample           = new Date[count];
+        for (int i = 0; i < count; i++) {
+            sample[i] = new Date(START + random.nextLong(YEAR));
+        }
+        return sample;
+    }
+}
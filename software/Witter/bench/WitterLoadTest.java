@@ -0,0 +1,341 @@
+/**
+ * CS126 Design of Information Structures
+ * WitterLoadTest.java
+ *
+ * Replays a trace of operations against the three stores at a target rate from many threads, and reports for each
+ * operation its throughput and latency percentiles (p50, p99, p99.9 and the maximum) to a file:
+ *
+ *        WitterLoadTest [--size N] [--seed S] [--trace FILE | --ops N [--mix name=weight,...] [--record FILE]]
+ *                       [--rate OPS_PER_SECOND] [--threads T] [--warmup N] [--out FILE]
+ *
+ * The stores are first loaded with a WitterData set of the given size (10,000 by default), which is not measured. The
+ * trace is then read from a file, or generated synthetically (100,000 operations by default, by WitterTrace.DEFAULT_MIX)
+ * and optionally recorded for replay; the first 'warmup' operations are run but not reported.
+ *
+ * The load is open: operation k is due at start + k / rate, whether or not those before it have finished, and its
+ * latency is measured from the instant it was due rather than the instant it began. A closed loop, which sends the next
+ * request only once the last is answered, would wait out a stall without measuring it -- the operations that should
+ * have been sent meanwhile are never timed ('coordinated omission') -- and so report a p99 far below that seen by
+ * clients who kept arriving. The service time (from the instant an operation began) is reported alongside, so that the
+ * two may be compared: where they differ, the store could not keep up with the rate.
+ *
+ * The FollowerStore is thread-safe and is called directly. The UserStore and WeetStore are not, and are each called
+ * under their own monitor, as a server embedding them would have to; time spent waiting for the monitor is part of the
+ * latency measured. Each thread records into histograms of its own, added together once the trace is done.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services.bench;
+
+import uk.ac.warwick.java.cs126.models.User;
+import uk.ac.warwick.java.cs126.models.Weet;
+import uk.ac.warwick.java.cs126.services.FollowerStore;
+import uk.ac.warwick.java.cs126.services.UserStore;
+import uk.ac.warwick.java.cs126.services.WeetStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public final class WitterLoadTest {
+
+    private static final long SPIN = 50000;    // The nanoseconds before an operation is due within which a thread spins, rather than parks.
+
+    private final WitterData data;
+    private final WitterTrace trace;
+    private final UserStore users;
+    private final WeetStore weets;
+    private final FollowerStore followers;
+
+    private final double rate;                                   // Declare the target rate, in operations per second.
+    private final int warmup;                                    // Declare the number of operations run but not reported.
+    private final AtomicInteger next = new AtomicInteger();      // Declare the index of the next operation to be run.
+    private long start;                                          // Declare the instant (System.nanoTime()) operation 0 is due.
+
+    private LatencyHistogram[] latency;      // Declare the latency of each operation, from the instant it was due.
+    private LatencyHistogram[] service;      // Declare the service time of each operation, from the instant it began.
+    private long[] errors;                   // Declare the number of each operation which threw an exception.
+    private long finish;                     // Declare the instant the last operation finished.
+    private volatile long sink;              // Declare a sum of the results, so that no call can be optimised away.
+
+    public WitterLoadTest(WitterData data, WitterTrace trace, double rate, int warmup) {
+        this.data      = data;
+        this.trace     = trace;
+        this.rate      = rate;
+        this.warmup    = warmup;
+        this.users     = data.buildUserStore();
+        this.weets     = data.buildWeetStore();
+        this.followers = data.buildFollowerStore();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int size       = 10000;
+        long seed      = 126;
+        String traceIn = null;
+        int ops        = 100000;
+        int[] mix      = WitterTrace.DEFAULT_MIX;
+        String record  = null;
+        double rate    = 1000;
+        int threads    = 8;
+        int warmup     = 0;
+        String out     = "witter-load.txt";
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if ((i + 1) == args.length) {
+                usage("Missing value of " + option);
+            }
+            String value = args[++i];
+            if (option.equals("--size")) {
+                size = Integer.parseInt(value);
+            } else if (option.equals("--seed")) {
+                seed = Long.parseLong(value);
+            } else if (option.equals("--trace")) {
+                traceIn = value;
+            } else if (option.equals("--ops")) {
+                ops = Integer.parseInt(value);
+            } else if (option.equals("--mix")) {
+                mix = WitterTrace.parseMix(value);
+            } else if (option.equals("--record")) {
+                record = value;
+            } else if (option.equals("--rate")) {
+                rate = Double.parseDouble(value);
+            } else if (option.equals("--threads")) {
+                threads = Integer.parseInt(value);
+            } else if (option.equals("--warmup")) {
+                warmup = Integer.parseInt(value);
+            } else if (option.equals("--out")) {
+                out = value;
+            } else {
+                usage("Unknown option " + option);
+            }
+        }
+        if ((size < 1) || (rate <= 0) || (threads < 1) || (warmup < 0)) {
+            usage("The size, rate and threads must be positive, and the warm-up not negative");
+        }
+
+        System.out.println("Generating " + size + " Users, weets and relationships");
+        WitterData data = WitterData.generate(size, seed);
+
+        WitterTrace trace;
+        if (traceIn != null) {
+            trace = WitterTrace.read(new File(traceIn));
+        } else {
+            trace = WitterTrace.synthetic(data, ops, mix, seed + 3);
+            if (record != null) {
+                trace.write(new File(record));
+            }
+        }
+
+        System.out.println("Loading the stores");
+        WitterLoadTest test = new WitterLoadTest(data, trace, rate, Math.min(warmup, trace.getSize()));
+
+        System.out.println("Replaying " + trace.getSize() + " operations at " + rate + "/s from " + threads + " threads");
+        test.run(threads);
+
+        try (PrintWriter writer = new PrintWriter(out)) {
+            test.report(writer, threads);
+        }
+        test.report(new PrintWriter(System.out), threads);
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: WitterLoadTest [--size N] [--seed S] [--trace FILE | --ops N [--mix name=weight,...] [--record FILE]]");
+        System.err.println("                      [--rate OPS_PER_SECOND] [--threads T] [--warmup N] [--out FILE]");
+        System.exit(2);
+    }
+
+    /* ------------------------------ Implementations for replaying the trace ----------------------------- */
+    public void run(int threads) throws InterruptedException {
+        /**
+         * Replay the trace from the given number of threads, each taking the next operation due, and add their histograms
+         * together.
+         */
+        int types = WitterTrace.NAMES.length;
+        final LatencyHistogram[][] latencies = new LatencyHistogram[threads][types];
+        final LatencyHistogram[][] services  = new LatencyHistogram[threads][types];
+        final long[][] failures              = new long[threads][types];
+        final long[] finishes                = new long[threads];
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            for (int j = 0; j < types; j++) {
+                latencies[t][j] = new LatencyHistogram();
+                services[t][j]  = new LatencyHistogram();
+            }
+            final int worker = t;
+            workers[t] = new Thread("witter-load-" + t) {
+                public void run() {
+                    finishes[worker] = replay(latencies[worker], services[worker], failures[worker]);
+                }
+            };
+        }
+
+        next.set(0);
+        start = System.nanoTime() + 10000000L;    // Operation 0 is due once every thread has started.
+        for (int t = 0; t < threads; t++) {
+            workers[t].start();
+        }
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+        }
+
+        latency = new LatencyHistogram[types];
+        service = new LatencyHistogram[types];
+        errors  = new long[types];
+        finish  = start;
+        for (int j = 0; j < types; j++) {
+            latency[j] = new LatencyHistogram();
+            service[j] = new LatencyHistogram();
+            for (int t = 0; t < threads; t++) {
+                latency[j].add(latencies[t][j]);
+                service[j].add(services[t][j]);
+                errors[j] += failures[t][j];
+            }
+        }
+        for (int t = 0; t < threads; t++) {
+            finish = Math.max(finish, finishes[t]);
+        }
+    }
+
+    private long replay(LatencyHistogram[] latencies, LatencyHistogram[] services, long[] failures) {
+        /**
+         * Run operations until the trace is done, each once it is due; return the instant the last finished.
+         */
+        long last = start;
+        long sum  = 0;
+        int k;
+        while ((k = next.getAndIncrement()) < trace.getSize()) {
+            long due = start + (long) ((k * 1e9) / rate);
+
+            long now = System.nanoTime();
+            while (now < due) {
+                if ((due - now) > SPIN) {
+                    LockSupport.parkNanos(due - now - SPIN);
+                } else {
+                    Thread.onSpinWait();
+                }
+                now = System.nanoTime();
+            }
+
+            int type    = trace.getType(k);
+            long began  = System.nanoTime();
+            try {
+                sum += execute(k);
+            } catch (RuntimeException e) {
+                failures[type]++;
+            }
+            long ended = System.nanoTime();
+
+            if (k >= warmup) {
+                latencies[type].record(ended - due);
+                services[type].record(ended - began);
+            }
+            last = ended;
+        }
+        sink += sum;
+        return last;
+    }
+
+    private int execute(int k) {
+        /**
+         * Run operation k of the trace, returning a number derived from its result.
+         */
+        int a = trace.getA(k);
+        int b = trace.getB(k);
+
+        switch (trace.getType(k)) {
+            case WitterTrace.ADD_USER:
+                User usr = new User(trace.getText(k), a, new Date(trace.getTime(k)));
+                synchronized (users) {
+                    return users.addUser(usr) ? 1 : 0;
+                }
+            case WitterTrace.GET_USER:
+                synchronized (users) {
+                    return (users.getUser(a) != null) ? 1 : 0;
+                }
+            case WitterTrace.ADD_WEET:
+                Weet weet = new Weet(a, b, trace.getText(k), new Date(trace.getTime(k)));
+                synchronized (weets) {
+                    return weets.addWeet(weet) ? 1 : 0;
+                }
+            case WitterTrace.GET_WEETS:
+                synchronized (weets) {
+                    return weets.getWeets().length;
+                }
+            case WitterTrace.GET_WEETS_BY_USER:
+                User author = ((a >= 1) && (a <= data.size)) ? data.users[a - 1] : new User("", a, new Date(0));
+                synchronized (weets) {
+                    return weets.getWeetsByUser(author).length;
+                }
+            case WitterTrace.GET_WEETS_CONTAINING:
+                synchronized (weets) {
+                    Weet[] found = weets.getWeetsContaining(trace.getText(k));
+                    return (found == null) ? 0 : found.length;
+                }
+            case WitterTrace.ADD_FOLLOWER:
+                return followers.addFollower(a, b, new Date(trace.getTime(k))) ? 1 : 0;
+            case WitterTrace.GET_FOLLOWERS:
+                return followers.getFollowers(a).length;
+            case WitterTrace.GET_NUM_FOLLOWERS:
+                return followers.getNumFollowers(a);
+            case WitterTrace.GET_MUTUAL_FOLLOWERS:
+                return followers.getMutualFollowers(a, b).length;
+            case WitterTrace.GET_TOP_USERS:
+                return followers.getTopUsers(a).length;
+            default:
+                throw new IllegalStateException("Unknown operation " + trace.getType(k));
+        }
+    }
+
+    /* ------------------------------ Implementations for reporting ----------------------------- */
+    public void report(PrintWriter out, int threads) {
+        /**
+         * Write a line per operation replayed, and one for all together: the count, the throughput after the warm-up,
+         * the latency percentiles from the instant each operation was due, and those of the service time, in microseconds.
+         */
+        double seconds = (finish - (start + (long) ((warmup * 1e9) / rate))) / 1e9;    // From the first operation reported.
+        LatencyHistogram allLatency = new LatencyHistogram();
+        LatencyHistogram allService = new LatencyHistogram();
+        long allErrors = 0;
+        for (int j = 0; j < latency.length; j++) {
+            allLatency.add(latency[j]);
+            allService.add(service[j]);
+            allErrors += errors[j];
+        }
+        long reported = allLatency.getCount();
+
+        out.printf(Locale.ROOT, "# Witter load test: %d Users/weets/relationships loaded; %d operations (%d reported) at a target of %.1f/s from %d threads%n",
+                   data.size, trace.getSize(), reported, rate, threads);
+        out.printf(Locale.ROOT, "# Achieved %.1f operations/s over %.3f s. Latency is measured from the instant each operation was due (corrected for%n",
+                   reported / seconds, seconds);
+        out.printf(Locale.ROOT, "# coordinated omission); service time from the instant it began. Times are in microseconds.%n");
+        out.printf(Locale.ROOT, "%-20s %10s %8s %12s %10s %10s %10s %10s %10s %10s %10s %10s%n",
+                   "operation", "count", "errors", "ops/s", "p50", "p99", "p99.9", "max", "mean",
+                   "svc_p50", "svc_p99", "svc_p99.9");
+        for (int j = 0; j < latency.length; j++) {
+            if (latency[j].getCount() > 0) {
+                line(out, WitterTrace.NAMES[j], latency[j], service[j], errors[j], seconds);
+            }
+        }
+        line(out, "all", allLatency, allService, allErrors, seconds);
+        out.flush();
+    }
+
+    private static void line(PrintWriter out, String name, LatencyHistogram latency, LatencyHistogram service, long errors,
+                             double seconds) {
+        out.printf(Locale.ROOT, "%-20s %10d %8d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                   name, latency.getCount(), errors, latency.getCount() / seconds,
+                   latency.getPercentile(50) / 1e3, latency.getPercentile(99) / 1e3, latency.getPercentile(99.9) / 1e3,
+                   latency.getMax() / 1e3, latency.getMean() / 1e3,
+                   service.getPercentile(50) / 1e3, service.getPercentile(99) / 1e3, service.getPercentile(99.9) / 1e3);
+    }
+}
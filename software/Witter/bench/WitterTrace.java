@@ -0,0 +1,284 @@
+/**
+ * CS126 Design of Information Structures
+ * WitterTrace.java
+ *
+ * A sequence of operations on the three stores, to be replayed by the WitterLoadTest: either read from a recorded trace,
+ * or generated synthetically over a WitterData set -- with the same Zipfian activity -- by a mix of weighted operations.
+ * A trace is a text file of one operation per line, its name followed by its arguments, separated by spaces:
+ *
+ *        addUser <uid> <millis> <name>                 getUser <uid>
+ *        addWeet <wid> <uid> <millis> <message...>     getWeets
+ *        getWeetsByUser <uid>                          getWeetsContaining <query...>
+ *        addFollower <uid1> <uid2> <millis>            getFollowers <uid>
+ *        getNumFollowers <uid>                         getMutualFollowers <uid1> <uid2>
+ *        getTopUsers <limit>
+ *
+ * The message of a weet, and the query of getWeetsContaining, are the rest of the line. Blank lines and lines beginning
+ * with '#' are ignored.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+public final class WitterTrace {
+
+    /* The operations, by index into NAMES. */
+    public static final int ADD_USER             = 0;
+    public static final int GET_USER             = 1;
+    public static final int ADD_WEET             = 2;
+    public static final int GET_WEETS            = 3;
+    public static final int GET_WEETS_BY_USER    = 4;
+    public static final int GET_WEETS_CONTAINING = 5;
+    public static final int ADD_FOLLOWER         = 6;
+    public static final int GET_FOLLOWERS        = 7;
+    public static final int GET_NUM_FOLLOWERS    = 8;
+    public static final int GET_MUTUAL_FOLLOWERS = 9;
+    public static final int GET_TOP_USERS        = 10;
+
+    public static final String[] NAMES = {
+        "addUser", "getUser", "addWeet", "getWeets", "getWeetsByUser", "getWeetsContaining",
+        "addFollower", "getFollowers", "getNumFollowers", "getMutualFollowers", "getTopUsers"
+    };
+
+    /* The default mix of a synthetic trace, weighted by operation: mostly reads, with a steady stream of weets and follows. */
+    public static final int[] DEFAULT_MIX = { 1, 10, 15, 5, 10, 10, 15, 15, 10, 5, 4 };
+
+    private int size;            // Declare the number of operations.
+    private int[] types;         // Declare the operation of each entry.
+    private int[] a;             // Declare the first integer argument of each entry: a User or weet ID, or a limit.
+    private int[] b;             // Declare the second integer argument of each entry: a User ID.
+    private long[] times;        // Declare the instant argument of each entry, in milliseconds.
+    private String[] texts;      // Declare the text argument of each entry: a name, message or query.
+
+    public WitterTrace() {
+        types = new int[1024];
+        a     = new int[1024];
+        b     = new int[1024];
+        times = new long[1024];
+        texts = new String[1024];
+    }
+
+    /* Constructors, Getters and Setters */
+    public int getSize() {
+        return size;
+    }
+
+    public int getType(int i) {
+        return types[i];
+    }
+
+    public int getA(int i) {
+        return a[i];
+    }
+
+    public int getB(int i) {
+        return b[i];
+    }
+
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    public String getText(int i) {
+        return texts[i];
+    }
+    /* --------------------------------- */
+
+    public void add(int type, int first, int second, long time, String text) {
+        if (size == types.length) {
+            int capacity = 2 * size;
+            types = grow(types, capacity);
+            a     = grow(a, capacity);
+            b     = grow(b, capacity);
+
+            long[] moreTimes = new long[capacity];
+            System.arraycopy(times, 0, moreTimes, 0, size);
+            times = moreTimes;
+
+            String[] moreTexts = new String[capacity];
+            System.arraycopy(texts, 0, moreTexts, 0, size);
+            texts = moreTexts;
+        }
+        types[size] = type;
+        a[size]     = first;
+        b[size]     = second;
+        times[size] = time;
+        texts[size] = text;
+        size++;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] more = new int[capacity];
+        System.arraycopy(array, 0, more, 0, array.length);
+        return more;
+    }
+
+    public static int type(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation: " + name);
+    }
+
+    /* ---------- Synthetic traces ---------- */
+    public static WitterTrace synthetic(WitterData data, int count, int[] mix, long seed) {
+        /**
+         * Return a trace of 'count' operations drawn by the weights of the mix, over the Users of the data set: Users
+         * (and the words queried) are Zipf-distributed, as in the data set; new Users, weets and relationships are
+         * numbered and dated after those of the data set, so that each is added once.
+         */
+        int total = 0;
+        for (int i = 0; i < mix.length; i++) {
+            total += mix[i];
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The mix has no operations");
+        }
+
+        WitterTrace trace = new WitterTrace();
+        Zipf active       = new Zipf(data.size, WitterData.ACTIVITY, seed);
+        Zipf words        = new Zipf(WitterData.WORDS, 1.0, seed + 1);
+        Zipf tags         = new Zipf(WitterData.TAGS, 1.0, seed + 2);
+        long after        = WitterData.START + (2 * WitterData.YEAR);
+        int users         = data.size;
+        int weets         = data.size;
+
+        for (int i = 0; i < count; i++) {
+            int pick = active.nextInt(total);
+            int type = 0;
+            while (pick >= mix[type]) {
+                pick -= mix[type];
+                type++;
+            }
+
+            if (type == ADD_USER) {
+                users++;
+                trace.add(type, users, 0, after + i, WitterData.word(words.next()) + "_" + users);
+            } else if (type == ADD_WEET) {
+                weets++;
+                trace.add(type, weets, active.next(), after + i, WitterData.message(active, words, tags));
+            } else if (type == GET_WEETS_CONTAINING) {
+                trace.add(type, 0, 0, 0, WitterData.word(words.next()));
+            } else if (type == ADD_FOLLOWER) {
+                trace.add(type, 1 + active.nextInt(data.size), active.next(), after + i, null);
+            } else if (type == GET_MUTUAL_FOLLOWERS) {
+                trace.add(type, active.next(), active.next(), 0, null);
+            } else if (type == GET_TOP_USERS) {
+                trace.add(type, 10, 0, 0, null);
+            } else if (type == GET_WEETS) {
+                trace.add(type, 0, 0, 0, null);
+            } else {
+                trace.add(type, active.next(), 0, 0, null);
+            }
+        }
+        return trace;
+    }
+
+    public static int[] parseMix(String mix) {
+        /**
+         * Return the weights of a mix given as name=weight pairs separated by commas, e.g. "getWeets=5,addWeet=1"; the
+         * operations not named have weight 0.
+         */
+        int[] weights = new int[NAMES.length];
+        String[] pairs = mix.split(",");
+        for (int i = 0; i < pairs.length; i++) {
+            int equals = pairs[i].indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected name=weight: " + pairs[i]);
+            }
+            weights[type(pairs[i].substring(0, equals).trim())] = Integer.parseInt(pairs[i].substring(equals + 1).trim());
+        }
+        return weights;
+    }
+
+    /* ---------- Recorded traces ---------- */
+    public static WitterTrace read(File file) throws IOException {
+        WitterTrace trace = new WitterTrace();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if ((line.length() == 0) || (line.charAt(0) == '#')) {
+                    continue;
+                }
+                try {
+                    parse(trace, line);
+                } catch (RuntimeException e) {
+                    throw new IOException(file + ":" + number + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return trace;
+    }
+
+    private static void parse(WitterTrace trace, String line) {
+        /**
+         * Add the operation of a line; a name, message or query is the last field, and may itself contain spaces.
+         */
+        int space = line.indexOf(' ');
+        int type  = type((space < 0) ? line : line.substring(0, space));
+
+        if (type == ADD_USER) {
+            String[] fields = line.split(" ", 4);
+            trace.add(type, Integer.parseInt(fields[1]), 0, Long.parseLong(fields[2]), text(fields, 3));
+        } else if (type == ADD_WEET) {
+            String[] fields = line.split(" ", 5);
+            trace.add(type, Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Long.parseLong(fields[3]), text(fields, 4));
+        } else if (type == GET_WEETS_CONTAINING) {
+            String[] fields = line.split(" ", 2);
+            trace.add(type, 0, 0, 0, text(fields, 1));
+        } else if (type == ADD_FOLLOWER) {
+            String[] fields = line.split(" ");
+            trace.add(type, Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Long.parseLong(fields[3]), null);
+        } else if (type == GET_MUTUAL_FOLLOWERS) {
+            String[] fields = line.split(" ");
+            trace.add(type, Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), 0, null);
+        } else if (type == GET_WEETS) {
+            trace.add(type, 0, 0, 0, null);
+        } else {
+            String[] fields = line.split(" ");
+            trace.add(type, Integer.parseInt(fields[1]), 0, 0, null);
+        }
+    }
+
+    private static String text(String[] fields, int i) {
+        return (fields.length > i) ? fields[i] : "";
+    }
+
+    public void write(File file) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            for (int i = 0; i < size; i++) {
+                int type = types[i];
+                out.write(NAMES[type]);
+                if (type == ADD_USER) {
+                    out.write(" " + a[i] + " " + times[i] + " " + texts[i]);
+                } else if (type == ADD_WEET) {
+                    out.write(" " + a[i] + " " + b[i] + " " + times[i] + " " + texts[i]);
+                } else if (type == GET_WEETS_CONTAINING) {
+                    out.write(" " + texts[i]);
+                } else if (type == ADD_FOLLOWER) {
+                    out.write(" " + a[i] + " " + b[i] + " " + times[i]);
+                } else if (type == GET_MUTUAL_FOLLOWERS) {
+                    out.write(" " + a[i] + " " + b[i]);
+                } else if (type != GET_WEETS) {
+                    out.write(" " + a[i]);
+                }
+                out.newLine();
+            }
+        }
+    }
+}
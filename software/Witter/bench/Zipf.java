@@ -0,0 +1,122 @@
+/**
+ * CS126 Design of Information Structures
+ * Zipf.java
+ *
+ * A seeded sampler of Zipf-distributed ranks in [1, n]: rank k is drawn with probability proportional to 1 / k^exponent,
+ * so that a few ranks (the most active Users, the commonest words and hashtags) account for most draws. Ranks are drawn
+ * by rejection-inversion (W. Hormann and G. Derflinger, "Rejection-inversion to generate variates from monotone discrete
+ * distributions", 1996), which needs no table of the n probabilities -- so that n may be 10^7 -- and accepts a draw
+ * after about one attempt.
+ *
+ * Complexity analyses of the main methods:
+ *        -- next()
+ *              O(1): Expected, a constant number of attempts each of a few logarithms and exponentials.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services.bench;
+
+import java.util.SplittableRandom;
+
+public final class Zipf {
+
+    private final int n;                    // Declare the greatest rank.
+    private final double exponent;          // Declare the exponent of the distribution; greater is more skewed.
+    private final SplittableRandom random;  // Declare the seeded source of uniform variates.
+
+    private final double hIntegralX1;       // Declare H(1.5) - 1, the upper end of the range inverted.
+    private final double hIntegralN;        // Declare H(n + 0.5), the lower end of the range inverted.
+    private final double s;                 // Declare the width about each rank within which a draw is accepted at once.
+
+    public Zipf(int n, double exponent, long seed) {
+        if ((n < 1) || !(exponent > 0)) {
+            throw new IllegalArgumentException("A Zipf distribution needs n >= 1 and an exponent > 0");
+        }
+        this.n        = n;
+        this.exponent = exponent;
+        this.random   = new SplittableRandom(seed);
+
+        hIntegralX1 = hIntegral(1.5) - 1;
+        hIntegralN  = hIntegral(n + 0.5);
+        s           = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+    public int getN() {
+        return n;
+    }
+
+    public int next() {
+        /**
+         * Return the next rank, in [1, n]: a uniform variate between H(n + 0.5) and H(1.5) - 1 is mapped back through the
+         * inverse of H, the integral of the hat function, and the rank nearest is accepted unless it falls in the small
+         * region where the hat exceeds the distribution.
+         */
+        while (true) {
+            double u = hIntegralN + (random.nextDouble() * (hIntegralX1 - hIntegralN));
+            double x = hIntegralInverse(u);
+            int k    = (int) (x + 0.5);
+
+            if (k < 1) {
+                k = 1;
+            } else if (k > n) {
+                k = n;
+            }
+
+            if (((k - x) <= s) || (u >= (hIntegral(k + 0.5) - h(k)))) {
+                return k;
+            }
+        }
+    }
+
+    public int nextInt(int bound) {
+        /**
+         * Return a uniform int in [0, bound), from the same seeded source.
+         */
+        return random.nextInt(bound);
+    }
+
+    public long nextLong(long bound) {
+        return random.nextLong(bound);
+    }
+
+    /* ------- Hat functions ------- */
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegral(double x) {
+        double logX = Math.log(x);
+        return helper2((1 - exponent) * logX) * logX;
+    }
+
+    private double hIntegralInverse(double x) {
+        double t = x * (1 - exponent);
+        if (t < -1) {
+            t = -1;    // Guards against rounding when x is close to its lower limit.
+        }
+        return Math.exp(helper1(t) * x);
+    }
+
+    private static double helper1(double x) {
+        /**
+         * Return log(1 + x) / x, accurately for x near 0.
+         */
+        if (Math.abs(x) > 1e-8) {
+            return Math.log1p(x) / x;
+        }
+        return 1 - (x * (0.5 - (x * ((1.0 / 3) - (0.25 * x)))));
+    }
+
+    private static double helper2(double x) {
+        /**
+         * Return (exp(x) - 1) / x, accurately for x near 0.
+         */
+        if (Math.abs(x) > 1e-8) {
+            return Math.expm1(x) / x;
+        }
+        return 1 + (x * 0.5 * (1 + ((x / 3) * (1 + (0.25 * x)))));
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * CS126 Design of Information Structures
+ * EdgeFileTest.java
+ *
+ * Regression tests of the edge file of a persistent FollowerStore at its smallest: a store without relationships -- never
+ * given any, given and then removed, or imported from an empty edge list -- is compacted, reopened and used again.
+ *
+ *
+ * @author: Zak Edwards
+ * @version: 1.0 10/03/15
+ */
+
+package uk.ac.warwick.java.cs126.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class EdgeFileTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void compactsAnEmptyStore() throws IOException {
+        File directory = temp.resolve("store").toFile();
+
+        FollowerStore store = FollowerStore.open(directory);
+        store.compact();
+        store.close();
+
+        store = FollowerStore.open(directory);
+        assertEquals(0, store.getFollowers(1).length);
+        store.addFollower(1, 2, new Date(3));
+        store.compact();
+        store.close();
+
+        store = FollowerStore.open(directory);
+        assertTrue(store.isAFollower(1, 2));
+        store.close();
+    }
+
+    @Test
+    public void compactsAStoreWhoseRelationshipsWereAllRemoved() throws IOException {
+        File directory = temp.resolve("store").toFile();
+
+        FollowerStore store = FollowerStore.open(directory);
+        store.addFollower(1, 2, new Date(5));
+        store.removeFollower(1, 2);
+        store.compact();
+        store.close();
+
+        store = FollowerStore.open(directory);
+        assertFalse(store.isAFollower(1, 2));
+        assertEquals(0, store.getNumFollowers(2));
+        store.compact();
+        store.close();
+
+        store = FollowerStore.open(directory);
+        assertFalse(store.isAFollower(1, 2));
+        store.close();
+    }
+
+    @Test
+    public void importsAnEmptyCsvEdgeList() throws IOException {
+        importsAnEmptyEdgeList(temp.resolve("edges.csv"));
+    }
+
+    @Test
+    public void importsAnEmptyBinaryEdgeList() throws IOException {
+        importsAnEmptyEdgeList(temp.resolve("edges.bin"));
+    }
+
+    private void importsAnEmptyEdgeList(Path list) throws IOException {
+        Files.write(list, new byte[0]);
+        File directory = temp.resolve("store").toFile();
+
+        FollowerStore store = FollowerStore.importEdges(list, directory);
+        assertEquals(0, store.getTopUsers(5).length);
+        store.addFollower(1, 2, new Date(1));
+        store.compact();
+        store.close();
+
+        store = FollowerStore.open(directory);
+        assertTrue(store.isAFollower(1, 2));
+        store.close();
+    }
+}